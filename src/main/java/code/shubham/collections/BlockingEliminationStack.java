@@ -0,0 +1,357 @@
+package code.shubham.collections;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded blocking LIFO on a lock-free Treiber stack with elimination backoff (Hendler, Shavit and
+ * Yerushalmi).
+ * <ul>
+ *     <li>A push or pop is one CAS on {@code top}. Each node records the stack size below and
+ *     including it, so the bound is checked in the same CAS and {@link #size} is one read.</li>
+ *     <li>A push that loses the CAS publishes its node in a random slot of the elimination array
+ *     and waits briefly; a pop that loses the CAS looks for such a node and takes its item. The
+ *     pair cancels out without touching {@code top}, which is what keeps a contended stack
+ *     scaling.</li>
+ *     <li>The lock is only for blocking: threads park on it when the stack is empty or full, and
+ *     the other side takes it only if someone is parked.</li>
+ * </ul>
+ */
+public class BlockingEliminationStack<E> {
+
+    private static final VarHandle TOP;
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(Node[].class);
+
+    static {
+        try {
+            TOP = MethodHandles.lookup().findVarHandle(BlockingEliminationStack.class, "top", Node.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /** spins a pusher waits in the elimination array before retrying {@code top} */
+    private static final int ELIMINATION_SPINS = 128;
+
+    private static final class Node<E> {
+        private final E item;
+        private Node<E> next;
+        private int size;
+
+        private Node(final E item) {
+            this.item = item;
+        }
+    }
+
+    private final int capacity;
+    private final Node<E>[] eliminationArray;
+    private volatile Node<E> top;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = this.lock.newCondition();
+    private final Condition notFull = this.lock.newCondition();
+    /** threads parked or about to park on each condition; written under the lock */
+    private volatile int waitingPoppers;
+    private volatile int waitingPushers;
+
+    public BlockingEliminationStack(final int capacity) {
+        this(capacity, Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() / 2, 16)));
+    }
+
+    /**
+     * @param eliminationSlots about half the number of threads hitting the stack at once; more
+     *                         slots make a push and a pop less likely to meet
+     */
+    @SuppressWarnings("unchecked")
+    public BlockingEliminationStack(final int capacity, final int eliminationSlots) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+        if (eliminationSlots <= 0)
+            throw new IllegalArgumentException("eliminationSlots must be positive");
+        this.capacity = capacity;
+        this.eliminationArray = new Node[eliminationSlots];
+    }
+
+    public int capacity() {
+        return this.capacity;
+    }
+
+    public int size() {
+        final Node<E> top = this.top;
+        return top == null ? 0 : top.size;
+    }
+
+    public boolean isEmpty() {
+        return this.top == null;
+    }
+
+    /**
+     * @return {@code false} if the stack is full
+     */
+    public boolean offer(final E item) {
+        if (item == null)
+            throw new RuntimeException("item cannot be null");
+        return this.tryPush(new Node<>(item));
+    }
+
+    /**
+     * @return the top item, or {@code null} if the stack is empty
+     */
+    public E poll() {
+        return this.tryPop();
+    }
+
+    /**
+     * Pushes {@code item}, waiting while the stack is full.
+     */
+    public void push(final E item) throws InterruptedException {
+        if (item == null)
+            throw new RuntimeException("item cannot be null");
+        final Node<E> node = new Node<>(item);
+        if (this.tryPush(node))
+            return;
+        this.lock.lockInterruptibly();
+        try {
+            ++this.waitingPushers;
+            try {
+                // the increment above is visible to any pop that misses this retry, see signalPushers
+                while (!this.tryPush(node))
+                    this.notFull.await();
+            } finally {
+                --this.waitingPushers;
+            }
+        } catch (InterruptedException e) {
+            // this thread may have consumed a signal meant for space that is still free
+            if (this.size() < this.capacity)
+                this.notFull.signal();
+            throw e;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Pops the top item, waiting while the stack is empty.
+     */
+    public E pop() throws InterruptedException {
+        E item = this.tryPop();
+        if (item != null)
+            return item;
+        this.lock.lockInterruptibly();
+        try {
+            ++this.waitingPoppers;
+            try {
+                while ((item = this.tryPop()) == null)
+                    this.notEmpty.await();
+                return item;
+            } finally {
+                --this.waitingPoppers;
+            }
+        } catch (InterruptedException e) {
+            if (this.top != null)
+                this.notEmpty.signal();
+            throw e;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the top item, or {@code null} if the stack stayed empty for {@code timeout}
+     */
+    public E poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        E item = this.tryPop();
+        if (item != null)
+            return item;
+        long nanos = unit.toNanos(timeout);
+        this.lock.lockInterruptibly();
+        try {
+            ++this.waitingPoppers;
+            try {
+                while ((item = this.tryPop()) == null) {
+                    if (nanos <= 0)
+                        return null;
+                    nanos = this.notEmpty.awaitNanos(nanos);
+                }
+                return item;
+            } finally {
+                --this.waitingPoppers;
+            }
+        } catch (InterruptedException e) {
+            if (this.top != null)
+                this.notEmpty.signal();
+            throw e;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private boolean tryPush(final Node<E> node) {
+        while (true) {
+            final Node<E> top = this.top;
+            final int size = top == null ? 0 : top.size;
+            if (size == this.capacity)
+                return false;
+            node.next = top;
+            node.size = size + 1;
+            if (TOP.compareAndSet(this, top, node)) {
+                this.signalPoppers();
+                return true;
+            }
+            if (this.eliminatePush(node))
+                return true;
+        }
+    }
+
+    private E tryPop() {
+        while (true) {
+            final Node<E> top = this.top;
+            if (top == null)
+                return null;
+            if (TOP.compareAndSet(this, top, top.next)) {
+                this.signalPushers();
+                return top.item;
+            }
+            final E item = this.eliminatePop();
+            if (item != null)
+                return item;
+        }
+    }
+
+    /**
+     * @return {@code true} if a pop took the node's item from the elimination array
+     */
+    private boolean eliminatePush(final Node<E> node) {
+        final int slot = ThreadLocalRandom.current().nextInt(this.eliminationArray.length);
+        if (!SLOTS.compareAndSet(this.eliminationArray, slot, null, node))
+            return false;
+        for (int spin = 0; spin < ELIMINATION_SPINS; ++spin) {
+            if (SLOTS.getAcquire(this.eliminationArray, slot) != node)
+                return true;
+            Thread.onSpinWait();
+        }
+        // withdrawing fails only if a pop took the node meanwhile
+        return !SLOTS.compareAndSet(this.eliminationArray, slot, node, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private E eliminatePop() {
+        final int slot = ThreadLocalRandom.current().nextInt(this.eliminationArray.length);
+        final Node<E> node = (Node<E>) SLOTS.getAcquire(this.eliminationArray, slot);
+        return node != null && SLOTS.compareAndSet(this.eliminationArray, slot, node, null) ? node.item : null;
+    }
+
+    /**
+     * A popper increments {@link #waitingPoppers} and then retries under the lock before parking,
+     * while a pusher publishes its node and then reads the count: one of the two sees the other,
+     * so no popper parks on an item it missed.
+     */
+    private void signalPoppers() {
+        if (this.waitingPoppers == 0)
+            return;
+        this.lock.lock();
+        try {
+            this.notEmpty.signal();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void signalPushers() {
+        if (this.waitingPushers == 0)
+            return;
+        this.lock.lock();
+        try {
+            this.notFull.signal();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        // a work stack: workers pop a range, split off halves for others while it is large, and sum
+        // the rest; LIFO keeps the stack shallow and the ranges a worker touches close together
+        final BlockingEliminationStack<long[]> work = new BlockingEliminationStack<>(1024);
+        final int workers = 8;
+        final long n = 100_000_000L;
+        final long[] sums = new long[workers];
+        final AtomicLong pending = new AtomicLong(1);
+        work.push(new long[]{0, n});
+        final Thread[] threads = new Thread[workers];
+        for (int w = 0; w < workers; ++w) {
+            final int id = w;
+            threads[w] = new Thread(() -> {
+                try {
+                    while (true) {
+                        final long[] range = work.pop();
+                        if (range[0] < 0)
+                            return;
+                        long high = range[1];
+                        while (high - range[0] > 10_000) {
+                            final long middle = (range[0] + high) >>> 1;
+                            pending.incrementAndGet();
+                            if (!work.offer(new long[]{middle, high})) {
+                                pending.decrementAndGet();
+                                break;
+                            }
+                            high = middle;
+                        }
+                        for (long i = range[0]; i < high; ++i)
+                            sums[id] += i;
+                        if (pending.decrementAndGet() == 0)
+                            for (int i = 0; i < workers; ++i)
+                                work.push(new long[]{-1, -1});
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        final long start = System.nanoTime();
+        for (final Thread thread : threads)
+            thread.start();
+        for (final Thread thread : threads)
+            thread.join();
+        long sum = 0;
+        for (final long s : sums)
+            sum += s;
+        System.out.println("sum: " + sum + " (expected " + n * (n - 1) / 2 + ") in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+
+        // bounded: producers block on a small stack until consumers catch up
+        final BlockingEliminationStack<Integer> small = new BlockingEliminationStack<>(4, 2);
+        final long[] consumed = new long[4];
+        final Thread[] pairs = new Thread[8];
+        for (int p = 0; p < 4; ++p) {
+            final int id = p;
+            pairs[p] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 500_000; ++i)
+                        small.push(i);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            pairs[4 + p] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 500_000; ++i)
+                        consumed[id] += small.pop();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        for (final Thread thread : pairs)
+            thread.start();
+        for (final Thread thread : pairs)
+            thread.join();
+        System.out.println("consumed: " + (consumed[0] + consumed[1] + consumed[2] + consumed[3])
+                + " (expected " + 4L * 500_000 * 499_999 / 2 + "), left: " + small.size());
+    }
+
+}
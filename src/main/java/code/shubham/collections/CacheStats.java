@@ -0,0 +1,65 @@
+package code.shubham.collections;
+
+/**
+ * Point-in-time counters of a {@link ConcurrentCache}. The counters are read one after another while
+ * the cache keeps running, so they need not add up exactly.
+ */
+public final class CacheStats {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long evictionWeight;
+    private final long expirationCount;
+
+    CacheStats(final long hitCount, final long missCount, final long evictionCount, final long evictionWeight,
+               final long expirationCount) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.evictionWeight = evictionWeight;
+        this.expirationCount = expirationCount;
+    }
+
+    public long getHitCount() {
+        return this.hitCount;
+    }
+
+    public long getMissCount() {
+        return this.missCount;
+    }
+
+    public long getRequestCount() {
+        return this.hitCount + this.missCount;
+    }
+
+    /**
+     * @return hits over requests, or 1 if there were no requests
+     */
+    public double getHitRate() {
+        final long requests = this.getRequestCount();
+        return requests == 0 ? 1.0 : (double) this.hitCount / requests;
+    }
+
+    /** entries dropped to stay within the maximum weight */
+    public long getEvictionCount() {
+        return this.evictionCount;
+    }
+
+    public long getEvictionWeight() {
+        return this.evictionWeight;
+    }
+
+    /** entries dropped because their time-to-live or time-to-idle ran out */
+    public long getExpirationCount() {
+        return this.expirationCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits: %d, misses: %d, hit rate: %.3f, evictions: %d (weight %d), expirations: %d",
+                this.hitCount, this.missCount, this.getHitRate(), this.evictionCount, this.evictionWeight,
+                this.expirationCount);
+    }
+
+}
@@ -0,0 +1,229 @@
+package code.shubham.collections;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Lock-free Bloom filter over a {@code long[]} of bits. Adding sets each bit with an atomic
+ * {@code getAndBitwiseOr} on its word, so concurrent adds never lose each other's bits. A lookup
+ * reads words without synchronisation: it may miss an add that is still in progress, but never one
+ * that has returned.
+ * <p>
+ * The k bit positions come from one {@link Hash64} hash and a second derived from it, combined as
+ * {@code h1 + i * h2} (Kirsch and Mitzenmacher), so an element is hashed once.
+ */
+public class ConcurrentBloomFilter {
+
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private static final int MAGIC = 0x424c4f4d;
+    private static final int VERSION = 1;
+
+    private final long[] words;
+    private final long bitCount;
+    private final int hashCount;
+
+    /**
+     * @param expectedInsertions elements the filter is sized for
+     * @param falsePositiveRate  false positive probability once that many elements are in
+     */
+    public ConcurrentBloomFilter(final long expectedInsertions, final double falsePositiveRate) {
+        if (expectedInsertions <= 0)
+            throw new IllegalArgumentException("expectedInsertions must be positive");
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1))
+            throw new IllegalArgumentException("falsePositiveRate must be in (0, 1)");
+        // m = -n ln p / (ln 2)^2 and k = m / n ln 2 minimise the false positive rate for n elements
+        final double bits = -expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        final long words = (long) Math.ceil(bits / Long.SIZE);
+        if (words > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("filter too large: " + (long) bits + " bits");
+        this.words = new long[(int) Math.max(1, words)];
+        this.bitCount = (long) this.words.length * Long.SIZE;
+        this.hashCount = Math.max(1, (int) Math.round(this.bitCount / (double) expectedInsertions * Math.log(2)));
+    }
+
+    private ConcurrentBloomFilter(final long[] words, final int hashCount) {
+        this.words = words;
+        this.bitCount = (long) words.length * Long.SIZE;
+        this.hashCount = hashCount;
+    }
+
+    /**
+     * @return {@code true} if a bit changed, that is the element was certainly not in the filter
+     */
+    public boolean put(final CharSequence element) {
+        return this.putHash(Hash64.hash(element));
+    }
+
+    public boolean put(final byte[] element) {
+        return this.putHash(Hash64.hash(element));
+    }
+
+    public boolean mightContain(final CharSequence element) {
+        return this.mightContainHash(Hash64.hash(element));
+    }
+
+    public boolean mightContain(final byte[] element) {
+        return this.mightContainHash(Hash64.hash(element));
+    }
+
+    /**
+     * @param hash a {@link Hash64} hash, for callers that already have one
+     */
+    public boolean putHash(final long hash) {
+        final long h2 = Hash64.mix(hash) | 1;
+        boolean changed = false;
+        long combined = hash;
+        for (int i = 0; i < this.hashCount; ++i, combined += h2) {
+            final long bit = (combined & Long.MAX_VALUE) % this.bitCount;
+            final long mask = 1L << bit;
+            if ((this.word(bit) & mask) == 0)
+                changed |= ((long) WORDS.getAndBitwiseOr(this.words, (int) (bit >>> 6), mask) & mask) == 0;
+        }
+        return changed;
+    }
+
+    public boolean mightContainHash(final long hash) {
+        final long h2 = Hash64.mix(hash) | 1;
+        long combined = hash;
+        for (int i = 0; i < this.hashCount; ++i, combined += h2) {
+            final long bit = (combined & Long.MAX_VALUE) % this.bitCount;
+            if ((this.word(bit) & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    private long word(final long bit) {
+        return (long) WORDS.getOpaque(this.words, (int) (bit >>> 6));
+    }
+
+    public long bitCount() {
+        return this.bitCount;
+    }
+
+    public int hashCount() {
+        return this.hashCount;
+    }
+
+    /**
+     * Estimates the distinct elements added from the fraction of bits set, n = -m/k ln(1 - x/m).
+     */
+    public long approximateElementCount() {
+        long set = 0;
+        for (int i = 0; i < this.words.length; ++i)
+            set += Long.bitCount((long) WORDS.getOpaque(this.words, i));
+        return Math.round(-(double) this.bitCount / this.hashCount * Math.log1p(-(double) set / this.bitCount));
+    }
+
+    /**
+     * @return the false positive probability for the bits set so far, (x/m)^k
+     */
+    public double expectedFalsePositiveRate() {
+        long set = 0;
+        for (int i = 0; i < this.words.length; ++i)
+            set += Long.bitCount((long) WORDS.getOpaque(this.words, i));
+        return Math.pow((double) set / this.bitCount, this.hashCount);
+    }
+
+    /**
+     * Adds every element of {@code other}, which must have been built with the same parameters.
+     * Safe to run while either filter is in use.
+     */
+    public void merge(final ConcurrentBloomFilter other) {
+        if (other.words.length != this.words.length || other.hashCount != this.hashCount)
+            throw new IllegalArgumentException("filters differ in size or hash count");
+        for (int i = 0; i < this.words.length; ++i) {
+            final long word = (long) WORDS.getOpaque(other.words, i);
+            if (word != 0)
+                WORDS.getAndBitwiseOr(this.words, i, word);
+        }
+    }
+
+    /**
+     * Writes the header and then the words. A filter written during concurrent adds may hold any
+     * subset of the adds that had not returned when writing started.
+     */
+    public void writeTo(final DataOutput output) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(this.hashCount);
+        output.writeInt(this.words.length);
+        for (int i = 0; i < this.words.length; ++i)
+            output.writeLong((long) WORDS.getOpaque(this.words, i));
+    }
+
+    public static ConcurrentBloomFilter readFrom(final DataInput input) throws IOException {
+        if (input.readInt() != MAGIC)
+            throw new IOException("not a bloom filter");
+        final int version = input.readInt();
+        if (version != VERSION)
+            throw new IOException("unsupported bloom filter version " + version);
+        final int hashCount = input.readInt();
+        final int length = input.readInt();
+        if (hashCount <= 0 || length <= 0)
+            throw new IOException("corrupt bloom filter header");
+        final long[] words = new long[length];
+        for (int i = 0; i < length; ++i)
+            words[i] = input.readLong();
+        return new ConcurrentBloomFilter(words, hashCount);
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        final int n = 10_000_000;
+        final ConcurrentBloomFilter visited = new ConcurrentBloomFilter(n, 0.01);
+        System.out.println("bits: " + visited.bitCount() + " (" + visited.bitCount() / 8 / 1024 / 1024 + " MiB), hashes: "
+                + visited.hashCount());
+
+        final Thread[] crawlers = new Thread[4];
+        for (int t = 0; t < crawlers.length; ++t) {
+            final int id = t;
+            crawlers[t] = new Thread(() -> {
+                // reuse one builder per thread: hashing reads the characters in place
+                final StringBuilder url = new StringBuilder();
+                for (int i = id; i < n; i += crawlers.length) {
+                    url.setLength(0);
+                    url.append("https://example.com/page/").append(i);
+                    visited.put(url);
+                }
+            });
+            crawlers[t].start();
+        }
+        for (final Thread crawler : crawlers)
+            crawler.join();
+
+        int missing = 0, falsePositives = 0;
+        final StringBuilder url = new StringBuilder();
+        for (int i = 0; i < n; ++i) {
+            url.setLength(0);
+            url.append("https://example.com/page/").append(i);
+            if (!visited.mightContain(url))
+                ++missing;
+            url.setLength(0);
+            url.append("https://example.com/other/").append(i);
+            if (visited.mightContain(url))
+                ++falsePositives;
+        }
+        System.out.printf("approximate count: %d, missing: %d, false positive rate: %.4f (expected %.4f)%n",
+                visited.approximateElementCount(), missing, (double) falsePositives / n,
+                visited.expectedFalsePositiveRate());
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        visited.writeTo(new DataOutputStream(bytes));
+        final ConcurrentBloomFilter copy = readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        final ConcurrentBloomFilter other = new ConcurrentBloomFilter(n, 0.01);
+        other.put("https://example.com/extra".getBytes(StandardCharsets.UTF_16LE));
+        copy.merge(other);
+        System.out.println("reloaded: " + copy.mightContain("https://example.com/page/42") + ", merged: "
+                + copy.mightContain("https://example.com/extra"));
+    }
+
+}
@@ -0,0 +1,760 @@
+package code.shubham.collections;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * Bounded cache on top of {@link ConcurrentHashMap}. Entries are evicted by weight with W-TinyLFU: new
+ * entries land in a small LRU window, and when the window overflows its oldest entry only enters the
+ * main segmented LRU (probation and protected) if a {@link FrequencySketch} says it is more popular
+ * than the entry it would push out. Entries can also expire a fixed time after they were written
+ * and/or last read.
+ * <p>
+ * The map is the source of truth and is read and written without any cache-wide lock. The policy
+ * (queues, weights, sketch) is only touched under {@link #evictionLock}, and operations feed it
+ * through buffers instead of updating it directly:
+ * <ul>
+ *     <li>reads go to one of several small lossy ring buffers picked by thread; a full or contended
+ *     buffer simply drops the read, as the policy only needs a sample of the access pattern;</li>
+ *     <li>writes go to an unbounded queue, since losing an insertion or removal would leak weight.</li>
+ * </ul>
+ * Whoever wins {@code tryLock} on the eviction lock drains both in one batch and evicts as needed.
+ */
+public class ConcurrentCache<K, V> {
+
+    private static final int NONE = 0;
+    private static final int WINDOW = 1;
+    private static final int PROBATION = 2;
+    private static final int PROTECTED = 3;
+
+    /** Share of the maximum weight given to the admission window. */
+    private static final double WINDOW_RATIO = 0.01;
+    /** Share of the main space given to the protected segment. */
+    private static final double PROTECTED_RATIO = 0.8;
+
+    /**
+     * Candidates at least this popular are occasionally admitted even when they lose to the victim,
+     * so an attacker cannot pin the victim by flooding its hash.
+     */
+    private static final int ADMIT_HASH_DOS_THRESHOLD = 6;
+
+    private static final class Entry<K, V> {
+        private static final VarHandle ACCESS_TIME;
+
+        static {
+            try {
+                ACCESS_TIME = MethodHandles.lookup().findVarHandle(Entry.class, "accessTime", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final K key;
+        private final V value;
+        private final int weight;
+        private final long writeTime;
+        private long accessTime;
+
+        /* guarded by evictionLock */
+        private int queue = NONE;
+        /** removed from the map; an insertion task that arrives late must not link it */
+        private boolean dead;
+        private Entry<K, V> accessPrevious, accessNext;
+        private Entry<K, V> writePrevious, writeNext;
+
+        private Entry(final K key, final V value, final int weight, final long now) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.writeTime = now;
+            this.accessTime = now;
+        }
+
+        private long getAccessTime() {
+            return (long) ACCESS_TIME.getOpaque(this);
+        }
+
+        private void setAccessTime(final long now) {
+            ACCESS_TIME.setOpaque(this, now);
+        }
+    }
+
+    /**
+     * Intrusive doubly linked list over one pair of links of {@link Entry}, so moving an entry is O(1)
+     * and allocates nothing.
+     */
+    private abstract static class LinkedDeque<K, V> {
+        private Entry<K, V> first;
+        private Entry<K, V> last;
+
+        abstract Entry<K, V> previous(Entry<K, V> entry);
+
+        abstract void setPrevious(Entry<K, V> entry, Entry<K, V> previous);
+
+        abstract Entry<K, V> next(Entry<K, V> entry);
+
+        abstract void setNext(Entry<K, V> entry, Entry<K, V> next);
+
+        Entry<K, V> peekFirst() {
+            return this.first;
+        }
+
+        boolean contains(final Entry<K, V> entry) {
+            return this.previous(entry) != null || this.next(entry) != null || this.first == entry;
+        }
+
+        void addLast(final Entry<K, V> entry) {
+            this.setPrevious(entry, this.last);
+            this.setNext(entry, null);
+            if (this.last == null)
+                this.first = entry;
+            else
+                this.setNext(this.last, entry);
+            this.last = entry;
+        }
+
+        void remove(final Entry<K, V> entry) {
+            final Entry<K, V> previous = this.previous(entry), next = this.next(entry);
+            if (previous == null)
+                this.first = next;
+            else
+                this.setNext(previous, next);
+            if (next == null)
+                this.last = previous;
+            else
+                this.setPrevious(next, previous);
+            this.setPrevious(entry, null);
+            this.setNext(entry, null);
+        }
+
+        void moveToBack(final Entry<K, V> entry) {
+            if (entry != this.last) {
+                this.remove(entry);
+                this.addLast(entry);
+            }
+        }
+    }
+
+    /** Window, probation and protected are each kept in access order. */
+    private static final class AccessOrderDeque<K, V> extends LinkedDeque<K, V> {
+        @Override
+        Entry<K, V> previous(final Entry<K, V> entry) {
+            return entry.accessPrevious;
+        }
+
+        @Override
+        void setPrevious(final Entry<K, V> entry, final Entry<K, V> previous) {
+            entry.accessPrevious = previous;
+        }
+
+        @Override
+        Entry<K, V> next(final Entry<K, V> entry) {
+            return entry.accessNext;
+        }
+
+        @Override
+        void setNext(final Entry<K, V> entry, final Entry<K, V> next) {
+            entry.accessNext = next;
+        }
+    }
+
+    /** Every entry in insertion order, for time-to-live expiry. */
+    private static final class WriteOrderDeque<K, V> extends LinkedDeque<K, V> {
+        @Override
+        Entry<K, V> previous(final Entry<K, V> entry) {
+            return entry.writePrevious;
+        }
+
+        @Override
+        void setPrevious(final Entry<K, V> entry, final Entry<K, V> previous) {
+            entry.writePrevious = previous;
+        }
+
+        @Override
+        Entry<K, V> next(final Entry<K, V> entry) {
+            return entry.writeNext;
+        }
+
+        @Override
+        void setNext(final Entry<K, V> entry, final Entry<K, V> next) {
+            entry.writeNext = next;
+        }
+    }
+
+    /**
+     * Multi-producer ring that only the eviction lock holder consumes. A producer claims a slot with
+     * one CAS on {@code writeCounter}; if the ring is full or the CAS loses, the read is dropped.
+     */
+    @jdk.internal.vm.annotation.Contended
+    private static final class ReadBuffer<E> {
+        private static final int SIZE = 16;
+        private static final int MASK = SIZE - 1;
+
+        private static final int SUCCESS = 0;
+        private static final int FULL = 1;
+        private static final int FAILED = -1;
+
+        private static final VarHandle WRITE_COUNTER;
+        private static final VarHandle READ_COUNTER;
+
+        static {
+            try {
+                final MethodHandles.Lookup lookup = MethodHandles.lookup();
+                WRITE_COUNTER = lookup.findVarHandle(ReadBuffer.class, "writeCounter", long.class);
+                READ_COUNTER = lookup.findVarHandle(ReadBuffer.class, "readCounter", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final AtomicReferenceArray<E> slots = new AtomicReferenceArray<>(SIZE);
+        private volatile long writeCounter;
+        private volatile long readCounter;
+
+        private int offer(final E element) {
+            final long head = (long) READ_COUNTER.getAcquire(this);
+            final long tail = (long) WRITE_COUNTER.getOpaque(this);
+            if (tail - head >= SIZE)
+                return FULL;
+            if (!WRITE_COUNTER.compareAndSet(this, tail, tail + 1))
+                return FAILED;
+            this.slots.setRelease((int) (tail & MASK), element);
+            return tail + 1 - head >= SIZE ? FULL : SUCCESS;
+        }
+
+        /**
+         * Must hold the eviction lock. Stops at a claimed slot whose element is not published yet.
+         */
+        private void drainTo(final Consumer<E> consumer) {
+            long head = this.readCounter;
+            final long tail = this.writeCounter;
+            for (; head < tail; ++head) {
+                final int index = (int) (head & MASK);
+                final E element = this.slots.getAcquire(index);
+                if (element == null)
+                    break;
+                this.slots.setPlain(index, null);
+                consumer.accept(element);
+            }
+            READ_COUNTER.setRelease(this, head);
+        }
+    }
+
+    public static final class Builder<K, V> {
+        private long maximumWeight = -1;
+        private ToIntBiFunction<? super K, ? super V> weigher = (key, value) -> 1;
+        private long expireAfterWriteNanos;
+        private long expireAfterAccessNanos;
+        private LongSupplier ticker = System::nanoTime;
+
+        private Builder() {
+        }
+
+        /**
+         * With the default weigher this is the maximum number of entries.
+         */
+        public Builder<K, V> maximumWeight(final long maximumWeight) {
+            if (maximumWeight < 0)
+                throw new IllegalArgumentException("maximumWeight cannot be negative");
+            this.maximumWeight = maximumWeight;
+            return this;
+        }
+
+        public Builder<K, V> weigher(final ToIntBiFunction<? super K, ? super V> weigher) {
+            if (weigher == null)
+                throw new RuntimeException("weigher cannot be null");
+            this.weigher = weigher;
+            return this;
+        }
+
+        /** time-to-live: an entry expires this long after it was written */
+        public Builder<K, V> expireAfterWrite(final Duration duration) {
+            this.expireAfterWriteNanos = positiveNanos(duration);
+            return this;
+        }
+
+        /** time-to-idle: an entry expires this long after it was last written or read */
+        public Builder<K, V> expireAfterAccess(final Duration duration) {
+            this.expireAfterAccessNanos = positiveNanos(duration);
+            return this;
+        }
+
+        /**
+         * Source of nanosecond time for expiry; {@link System#nanoTime()} by default.
+         */
+        public Builder<K, V> ticker(final LongSupplier ticker) {
+            if (ticker == null)
+                throw new RuntimeException("ticker cannot be null");
+            this.ticker = ticker;
+            return this;
+        }
+
+        public ConcurrentCache<K, V> build() {
+            if (this.maximumWeight < 0)
+                throw new IllegalStateException("maximumWeight must be set");
+            return new ConcurrentCache<>(this);
+        }
+
+        private static long positiveNanos(final Duration duration) {
+            if (duration == null || duration.isNegative() || duration.isZero())
+                throw new IllegalArgumentException("duration must be positive");
+            return duration.toNanos();
+        }
+    }
+
+    public static <K, V> Builder<K, V> builder() {
+        return new Builder<>();
+    }
+
+    private final ConcurrentHashMap<K, Entry<K, V>> data;
+
+    private final long maximumWeight;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+    private final ToIntBiFunction<? super K, ? super V> weigher;
+    private final long expireAfterWriteNanos;
+    private final long expireAfterAccessNanos;
+    private final LongSupplier ticker;
+
+    private final ReadBuffer<Entry<K, V>>[] readBuffers;
+    private final ConcurrentLinkedQueue<Runnable> writeBuffer = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    /* guarded by evictionLock */
+    private final AccessOrderDeque<K, V> window = new AccessOrderDeque<>();
+    private final AccessOrderDeque<K, V> probation = new AccessOrderDeque<>();
+    private final AccessOrderDeque<K, V> protectedSegment = new AccessOrderDeque<>();
+    private final WriteOrderDeque<K, V> writeOrder = new WriteOrderDeque<>();
+    private final FrequencySketch sketch = new FrequencySketch();
+    private long windowWeight;
+    private long protectedWeight;
+    private long entryCount;
+    /** written under evictionLock, read by anyone */
+    private volatile long weightedSize;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder evictionWeight = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    private ConcurrentCache(final Builder<K, V> builder) {
+        this.maximumWeight = builder.maximumWeight;
+        this.windowMaximum = Math.max(Math.min(1, this.maximumWeight), (long) (this.maximumWeight * WINDOW_RATIO));
+        this.protectedMaximum = (long) ((this.maximumWeight - this.windowMaximum) * PROTECTED_RATIO);
+        this.weigher = builder.weigher;
+        this.expireAfterWriteNanos = builder.expireAfterWriteNanos;
+        this.expireAfterAccessNanos = builder.expireAfterAccessNanos;
+        this.ticker = builder.ticker;
+
+        this.data = new ConcurrentHashMap<>((int) Math.min(this.maximumWeight, 1 << 16));
+        this.sketch.ensureCapacity(Math.min(this.maximumWeight, 1 << 10));
+
+        final int bufferCount = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1);
+        this.readBuffers = new ReadBuffer[bufferCount];
+        for (int i = 0; i < bufferCount; ++i)
+            this.readBuffers[i] = new ReadBuffer<>();
+    }
+
+    /**
+     * @return the cached value, or {@code null} if it is absent or expired
+     */
+    public V get(final K key) {
+        final Entry<K, V> entry = this.data.get(key);
+        if (entry == null) {
+            this.misses.increment();
+            return null;
+        }
+
+        final long now = this.now();
+        if (this.isExpired(entry, now)) {
+            this.misses.increment();
+            this.expire(entry);
+            return null;
+        }
+        this.hits.increment();
+        this.afterRead(entry, now);
+        return entry.value;
+    }
+
+    /**
+     * Returns the cached value, computing it with {@code loader} on a miss. Concurrent callers for the
+     * same key wait for one load; a {@code null} result is not cached.
+     */
+    public V get(final K key, final Function<? super K, ? extends V> loader) {
+        if (key == null)
+            throw new RuntimeException("key cannot be null");
+        if (loader == null)
+            throw new RuntimeException("loader cannot be null");
+
+        final long now = this.now();
+        Entry<K, V> entry = this.data.get(key);
+        if (entry != null) {
+            if (!this.isExpired(entry, now)) {
+                this.hits.increment();
+                this.afterRead(entry, now);
+                return entry.value;
+            }
+            this.expire(entry);
+        }
+
+        this.misses.increment();
+        @SuppressWarnings("unchecked")
+        final Entry<K, V>[] created = new Entry[1];
+        entry = this.data.computeIfAbsent(key, k -> {
+            final V value = loader.apply(k);
+            return value == null ? null : (created[0] = this.newEntry(k, value, now));
+        });
+        if (entry == null)
+            return null;
+        if (entry == created[0]) {
+            final Entry<K, V> added = entry;
+            this.afterWrite(() -> this.onAdd(added));
+        } else {
+            this.afterRead(entry, now);
+        }
+        return entry.value;
+    }
+
+    /**
+     * @return the previous value, or {@code null} if there was none or it had expired
+     */
+    public V put(final K key, final V value) {
+        if (key == null)
+            throw new RuntimeException("key cannot be null");
+        if (value == null)
+            throw new RuntimeException("value cannot be null");
+
+        final long now = this.now();
+        final Entry<K, V> entry = this.newEntry(key, value, now);
+        final Entry<K, V> previous = this.data.put(key, entry);
+        if (previous == null) {
+            this.afterWrite(() -> this.onAdd(entry));
+            return null;
+        }
+        this.afterWrite(() -> {
+            this.onRemove(previous);
+            this.onAdd(entry);
+        });
+        return this.isExpired(previous, now) ? null : previous.value;
+    }
+
+    /**
+     * @return the removed value, or {@code null} if there was none or it had expired
+     */
+    public V remove(final K key) {
+        final Entry<K, V> entry = this.data.remove(key);
+        if (entry == null)
+            return null;
+        this.afterWrite(() -> this.onRemove(entry));
+        return this.isExpired(entry, this.now()) ? null : entry.value;
+    }
+
+    /**
+     * Number of entries in the map, including expired ones that have not been cleaned up yet.
+     */
+    public long estimatedSize() {
+        return this.data.approximateSize();
+    }
+
+    /**
+     * Total weight of the entries the policy has seen; lags behind writes still in the buffer.
+     */
+    public long weightedSize() {
+        return this.weightedSize;
+    }
+
+    public long getMaximumWeight() {
+        return this.maximumWeight;
+    }
+
+    public CacheStats stats() {
+        return new CacheStats(this.hits.sum(), this.misses.sum(), this.evictions.sum(), this.evictionWeight.sum(),
+                this.expirations.sum());
+    }
+
+    /**
+     * Applies all buffered work and evicts and expires now instead of on the next write.
+     */
+    public void cleanUp() {
+        this.evictionLock.lock();
+        try {
+            this.maintenance();
+        } finally {
+            this.evictionLock.unlock();
+        }
+    }
+
+    private Entry<K, V> newEntry(final K key, final V value, final long now) {
+        final int weight = this.weigher.applyAsInt(key, value);
+        if (weight < 0)
+            throw new IllegalArgumentException("weight cannot be negative");
+        return new Entry<>(key, value, weight, now);
+    }
+
+    /**
+     * @return 0 if nothing expires, so reads without expiry never call the ticker
+     */
+    private long now() {
+        return this.expireAfterWriteNanos > 0 || this.expireAfterAccessNanos > 0 ? this.ticker.getAsLong() : 0L;
+    }
+
+    private boolean isExpired(final Entry<K, V> entry, final long now) {
+        return (this.expireAfterWriteNanos > 0 && now - entry.writeTime >= this.expireAfterWriteNanos)
+                || (this.expireAfterAccessNanos > 0 && now - entry.getAccessTime() >= this.expireAfterAccessNanos);
+    }
+
+    /**
+     * Removes an expired entry from the map unless it has been replaced meanwhile.
+     */
+    private void expire(final Entry<K, V> entry) {
+        if (this.removeIfCurrent(entry)) {
+            this.expirations.increment();
+            this.afterWrite(() -> this.onRemove(entry));
+        }
+    }
+
+    private boolean removeIfCurrent(final Entry<K, V> entry) {
+        final boolean[] removed = new boolean[1];
+        // the remapping function may be applied more than once, so every attempt sets the flag
+        this.data.computeIfPresent(entry.key, (key, current) -> (removed[0] = current == entry) ? null : current);
+        return removed[0];
+    }
+
+    private void afterRead(final Entry<K, V> entry, final long now) {
+        if (this.expireAfterAccessNanos > 0)
+            entry.setAccessTime(now);
+        final int hash = Thread.currentThread().hashCode();
+        final ReadBuffer<Entry<K, V>> buffer = this.readBuffers[(hash ^ (hash >>> 16)) & (this.readBuffers.length - 1)];
+        if (buffer.offer(entry) == ReadBuffer.FULL)
+            this.drain();
+    }
+
+    private void afterWrite(final Runnable task) {
+        this.writeBuffer.add(task);
+        this.drain();
+    }
+
+    /**
+     * Drains if the eviction lock is free. A task added while the holder was finishing up is picked
+     * up by re-checking the write buffer after unlocking, so no write waits for the next operation.
+     */
+    private void drain() {
+        do {
+            if (!this.evictionLock.tryLock())
+                return;
+            try {
+                this.maintenance();
+            } finally {
+                this.evictionLock.unlock();
+            }
+        } while (!this.writeBuffer.isEmpty());
+    }
+
+    private void maintenance() {
+        for (Runnable task; (task = this.writeBuffer.poll()) != null; )
+            task.run();
+        for (final ReadBuffer<Entry<K, V>> buffer : this.readBuffers)
+            buffer.drainTo(this::onAccess);
+        if (this.expireAfterWriteNanos > 0 || this.expireAfterAccessNanos > 0)
+            this.expireEntries(this.ticker.getAsLong());
+        this.evictEntries();
+    }
+
+    private void onAdd(final Entry<K, V> entry) {
+        if (entry.dead)
+            return;
+
+        entry.queue = WINDOW;
+        this.window.addLast(entry);
+        if (this.expireAfterWriteNanos > 0)
+            this.writeOrder.addLast(entry);
+        this.windowWeight += entry.weight;
+        this.weightedSize += entry.weight;
+        this.sketch.ensureCapacity(++this.entryCount);
+        this.sketch.increment(entry.key);
+    }
+
+    private void onRemove(final Entry<K, V> entry) {
+        if (entry.queue != NONE)
+            this.unlink(entry);
+        entry.dead = true;
+    }
+
+    private void onAccess(final Entry<K, V> entry) {
+        if (entry.queue == NONE)
+            return;
+
+        this.sketch.increment(entry.key);
+        switch (entry.queue) {
+            case WINDOW -> this.window.moveToBack(entry);
+            case PROTECTED -> this.protectedSegment.moveToBack(entry);
+            case PROBATION -> {
+                this.probation.remove(entry);
+                entry.queue = PROTECTED;
+                this.protectedSegment.addLast(entry);
+                this.protectedWeight += entry.weight;
+                for (Entry<K, V> demoted; this.protectedWeight > this.protectedMaximum
+                        && (demoted = this.protectedSegment.peekFirst()) != null; ) {
+                    this.protectedSegment.remove(demoted);
+                    this.protectedWeight -= demoted.weight;
+                    demoted.queue = PROBATION;
+                    this.probation.addLast(demoted);
+                }
+            }
+            default -> throw new IllegalStateException();
+        }
+    }
+
+    private void unlink(final Entry<K, V> entry) {
+        switch (entry.queue) {
+            case WINDOW -> {
+                this.window.remove(entry);
+                this.windowWeight -= entry.weight;
+            }
+            case PROBATION -> this.probation.remove(entry);
+            case PROTECTED -> {
+                this.protectedSegment.remove(entry);
+                this.protectedWeight -= entry.weight;
+            }
+            default -> throw new IllegalStateException();
+        }
+        if (this.expireAfterWriteNanos > 0 && this.writeOrder.contains(entry))
+            this.writeOrder.remove(entry);
+        entry.queue = NONE;
+        this.weightedSize -= entry.weight;
+        --this.entryCount;
+    }
+
+    /**
+     * The write-order queue is sorted by write time and each segment by access time up to dropped
+     * reads, so it is enough to look at their heads; anything missed is caught by {@link #get}.
+     */
+    private void expireEntries(final long now) {
+        if (this.expireAfterWriteNanos > 0)
+            for (Entry<K, V> entry; (entry = this.writeOrder.peekFirst()) != null
+                    && now - entry.writeTime >= this.expireAfterWriteNanos; )
+                this.evict(entry, true);
+
+        if (this.expireAfterAccessNanos > 0)
+            for (final AccessOrderDeque<K, V> deque : this.accessOrderDeques())
+                for (Entry<K, V> entry; (entry = deque.peekFirst()) != null
+                        && now - entry.getAccessTime() >= this.expireAfterAccessNanos; )
+                    this.evict(entry, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private AccessOrderDeque<K, V>[] accessOrderDeques() {
+        return new AccessOrderDeque[] {this.window, this.probation, this.protectedSegment};
+    }
+
+    /**
+     * Moves the overflow of the window into probation, each candidate competing with the probation
+     * head for its place while the cache is over weight, then evicts from the coldest end until the
+     * cache fits.
+     */
+    private void evictEntries() {
+        for (Entry<K, V> candidate; this.windowWeight > this.windowMaximum
+                && (candidate = this.window.peekFirst()) != null; ) {
+            this.window.remove(candidate);
+            this.windowWeight -= candidate.weight;
+            candidate.queue = PROBATION;
+            this.probation.addLast(candidate);
+
+            if (this.weightedSize <= this.maximumWeight)
+                continue;
+            Entry<K, V> victim = this.probation.peekFirst();
+            if (victim == candidate)
+                victim = this.protectedSegment.peekFirst();
+            if (victim == null)
+                continue;
+            this.evict(this.admit(candidate, victim) ? victim : candidate, false);
+        }
+
+        while (this.weightedSize > this.maximumWeight) {
+            Entry<K, V> victim = this.probation.peekFirst();
+            if (victim == null)
+                victim = this.protectedSegment.peekFirst();
+            if (victim == null)
+                victim = this.window.peekFirst();
+            if (victim == null)
+                break;
+            this.evict(victim, false);
+        }
+    }
+
+    private boolean admit(final Entry<K, V> candidate, final Entry<K, V> victim) {
+        final int candidateFrequency = this.sketch.frequency(candidate.key);
+        if (candidateFrequency > this.sketch.frequency(victim.key))
+            return true;
+        return candidateFrequency >= ADMIT_HASH_DOS_THRESHOLD && (ThreadLocalRandom.current().nextInt() & 127) == 0;
+    }
+
+    private void evict(final Entry<K, V> entry, final boolean expired) {
+        this.unlink(entry);
+        entry.dead = true;
+        if (!this.removeIfCurrent(entry))
+            return;
+        if (expired) {
+            this.expirations.increment();
+        } else {
+            this.evictions.increment();
+            this.evictionWeight.add(entry.weight);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final ConcurrentCache<Integer, String> cache = ConcurrentCache.<Integer, String>builder()
+                .maximumWeight(1_000)
+                .build();
+
+        // skewed keys: a few hot ones requested constantly over a long tail of one-hit wonders
+        final Thread[] readers = new Thread[4];
+        for (int r = 0; r < readers.length; ++r) {
+            readers[r] = new Thread(() -> {
+                final ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 1_000_000; ++i) {
+                    final int key = random.nextInt(4) == 0 ? random.nextInt(1_000_000) : random.nextInt(500);
+                    cache.get(key, k -> "v" + k);
+                }
+            });
+            readers[r].start();
+        }
+        for (final Thread reader : readers)
+            reader.join();
+        cache.cleanUp();
+        System.out.println("size: " + cache.estimatedSize() + ", weight: " + cache.weightedSize());
+        System.out.println(cache.stats());
+
+        final long[] time = {0};
+        final ConcurrentCache<String, String> sessions = ConcurrentCache.<String, String>builder()
+                .maximumWeight(1 << 20)
+                .weigher((key, value) -> key.length() + value.length())
+                .expireAfterWrite(Duration.ofMinutes(10))
+                .expireAfterAccess(Duration.ofMinutes(1))
+                .ticker(() -> time[0])
+                .build();
+        sessions.put("alice", "token-a");
+        sessions.put("bob", "token-b");
+        time[0] += Duration.ofSeconds(50).toNanos();
+        System.out.println("alice after 50s: " + sessions.get("alice"));
+        time[0] += Duration.ofSeconds(50).toNanos();
+        System.out.println("alice after 100s: " + sessions.get("alice") + ", bob idle for 100s: " + sessions.get("bob"));
+        time[0] += Duration.ofMinutes(10).toNanos();
+        sessions.cleanUp();
+        System.out.println("after 11 minutes: " + sessions.get("alice") + ", size: " + sessions.estimatedSize());
+        System.out.println(sessions.stats());
+    }
+
+}
@@ -0,0 +1,404 @@
+package code.shubham.collections;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free cuckoo filter (Fan et al.). Unlike a Bloom filter it supports {@link #remove}, and below
+ * a false positive rate of about 3% it takes less space per element.
+ * <p>
+ * Each element is reduced to a fingerprint of up to 16 bits that lives in one of two buckets:
+ * {@code i1} from the hash and {@code i2 = i1 ^ h(fingerprint)}, so either bucket can be computed
+ * from the other and the fingerprint alone. A bucket holds 4 fingerprints packed into one
+ * {@code long}, and every change to a bucket is a single CAS.
+ * <p>
+ * When both buckets are full, an insertion first finds a chain of fingerprints to push to their
+ * alternate buckets, then moves them starting at the end of the chain. Each move copies the
+ * fingerprint before clearing the source, so a fingerprint is briefly in two buckets but never in
+ * none. Lookups re-check when a move ran concurrently, so they never miss an element whose add has
+ * returned.
+ */
+public class ConcurrentCuckooFilter {
+
+    private static final VarHandle BUCKETS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle MOVES;
+
+    static {
+        try {
+            MOVES = MethodHandles.lookup().findVarHandle(ConcurrentCuckooFilter.class, "moves", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final int SLOTS = 4;
+    private static final int SLOT_BITS = 16;
+    private static final long SLOT_MASK = 0xffffL;
+    /** load factor the table is sized for; random walks rarely fail below it */
+    private static final double LOAD_FACTOR = 0.95;
+    private static final int MAX_KICKS = 500;
+
+    private static final int MAGIC = 0x43554b46;
+    private static final int VERSION = 1;
+
+    private final long[] buckets;
+    private final int mask;
+    private final int fingerprintBits;
+    private final LongAdder count = new LongAdder();
+    /** bumped by every move between copying and clearing; see {@link #mightContainHash} */
+    private volatile long moves;
+
+    /**
+     * @param capacity          elements the filter must hold
+     * @param falsePositiveRate upper bound of the false positive probability, at least 8 / 2^16
+     */
+    public ConcurrentCuckooFilter(final long capacity, final double falsePositiveRate) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1))
+            throw new IllegalArgumentException("falsePositiveRate must be in (0, 1)");
+        // a lookup compares 2 buckets of 4 fingerprints, so p <= 8 / 2^f
+        final int bits = Math.max(4, (int) Math.ceil(Math.log(2 * SLOTS / falsePositiveRate) / Math.log(2)));
+        if (bits > SLOT_BITS)
+            throw new IllegalArgumentException("falsePositiveRate needs more than " + SLOT_BITS + " bit fingerprints");
+        final long buckets = (long) Math.ceil(capacity / (SLOTS * LOAD_FACTOR));
+        if (buckets > 1 << 30)
+            throw new IllegalArgumentException("capacity too large: " + capacity);
+        this.buckets = new long[Math.max(2, Integer.highestOneBit((int) buckets - 1) << 1)];
+        this.mask = this.buckets.length - 1;
+        this.fingerprintBits = bits;
+    }
+
+    private ConcurrentCuckooFilter(final long[] buckets, final int fingerprintBits, final long count) {
+        this.buckets = buckets;
+        this.mask = buckets.length - 1;
+        this.fingerprintBits = fingerprintBits;
+        this.count.add(count);
+    }
+
+    /**
+     * @return {@code false} if the filter is too full to take the element
+     */
+    public boolean add(final CharSequence element) {
+        return this.addHash(Hash64.hash(element));
+    }
+
+    public boolean add(final byte[] element) {
+        return this.addHash(Hash64.hash(element));
+    }
+
+    public boolean mightContain(final CharSequence element) {
+        return this.mightContainHash(Hash64.hash(element));
+    }
+
+    public boolean mightContain(final byte[] element) {
+        return this.mightContainHash(Hash64.hash(element));
+    }
+
+    /**
+     * Removes one copy of the element's fingerprint. Only remove elements that were added, or the
+     * fingerprint of another element may go.
+     */
+    public boolean remove(final CharSequence element) {
+        return this.removeHash(Hash64.hash(element));
+    }
+
+    public boolean remove(final byte[] element) {
+        return this.removeHash(Hash64.hash(element));
+    }
+
+    public boolean addHash(final long hash) {
+        final long fingerprint = this.fingerprint(hash);
+        final int i1 = (int) hash & this.mask;
+        if (this.insert(i1, fingerprint)) {
+            this.count.increment();
+            return true;
+        }
+        return false;
+    }
+
+    public boolean mightContainHash(final long hash) {
+        final long fingerprint = this.fingerprint(hash);
+        final int i1 = (int) hash & this.mask;
+        final int i2 = this.alternate(i1, fingerprint);
+        while (true) {
+            final long moves = this.moves;
+            if (contains(this.bucket(i1), fingerprint) || contains(this.bucket(i2), fingerprint))
+                return true;
+            // a move between the two reads may have hidden the fingerprint from both
+            if (this.moves == moves)
+                return false;
+        }
+    }
+
+    public boolean removeHash(final long hash) {
+        final long fingerprint = this.fingerprint(hash);
+        final int i1 = (int) hash & this.mask;
+        if (this.removeFrom(i1, fingerprint) || this.removeFrom(this.alternate(i1, fingerprint), fingerprint)) {
+            this.count.decrement();
+            return true;
+        }
+        return false;
+    }
+
+    /** elements added and not removed */
+    public long size() {
+        return this.count.sum();
+    }
+
+    public long capacity() {
+        return (long) this.buckets.length * SLOTS;
+    }
+
+    public int fingerprintBits() {
+        return this.fingerprintBits;
+    }
+
+    /**
+     * Adds every fingerprint of {@code other}, which must have been built with the same parameters.
+     *
+     * @return {@code false} if this filter filled up before all fingerprints were in
+     */
+    public boolean merge(final ConcurrentCuckooFilter other) {
+        if (other.buckets.length != this.buckets.length || other.fingerprintBits != this.fingerprintBits)
+            throw new IllegalArgumentException("filters differ in size or fingerprint bits");
+        for (int i = 0; i < other.buckets.length; ++i) {
+            final long bucket = other.bucket(i);
+            for (int slot = 0; slot < SLOTS; ++slot) {
+                final long fingerprint = slot(bucket, slot);
+                if (fingerprint == 0)
+                    continue;
+                if (!this.insert(i, fingerprint))
+                    return false;
+                this.count.increment();
+            }
+        }
+        return true;
+    }
+
+    public void writeTo(final DataOutput output) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(this.fingerprintBits);
+        output.writeInt(this.buckets.length);
+        output.writeLong(this.count.sum());
+        for (int i = 0; i < this.buckets.length; ++i)
+            output.writeLong(this.bucket(i));
+    }
+
+    public static ConcurrentCuckooFilter readFrom(final DataInput input) throws IOException {
+        if (input.readInt() != MAGIC)
+            throw new IOException("not a cuckoo filter");
+        final int version = input.readInt();
+        if (version != VERSION)
+            throw new IOException("unsupported cuckoo filter version " + version);
+        final int fingerprintBits = input.readInt();
+        final int length = input.readInt();
+        final long count = input.readLong();
+        if (fingerprintBits < 4 || fingerprintBits > SLOT_BITS || length < 2 || Integer.bitCount(length) != 1)
+            throw new IOException("corrupt cuckoo filter header");
+        final long[] buckets = new long[length];
+        for (int i = 0; i < length; ++i)
+            buckets[i] = input.readLong();
+        return new ConcurrentCuckooFilter(buckets, fingerprintBits, count);
+    }
+
+    /**
+     * Top bits of the hash, which the bucket index does not use; 0 marks an empty slot so it is
+     * mapped to 1.
+     */
+    private long fingerprint(final long hash) {
+        final long fingerprint = hash >>> (Long.SIZE - this.fingerprintBits);
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+
+    /** an involution: alternate(alternate(i, f), f) == i */
+    private int alternate(final int index, final long fingerprint) {
+        return (index ^ (int) Hash64.mix(fingerprint)) & this.mask;
+    }
+
+    private long bucket(final int index) {
+        return (long) BUCKETS.getVolatile(this.buckets, index);
+    }
+
+    private boolean casBucket(final int index, final long expected, final long bucket) {
+        return BUCKETS.compareAndSet(this.buckets, index, expected, bucket);
+    }
+
+    private static long slot(final long bucket, final int slot) {
+        return (bucket >>> (slot * SLOT_BITS)) & SLOT_MASK;
+    }
+
+    private static boolean contains(final long bucket, final long fingerprint) {
+        for (int slot = 0; slot < SLOTS; ++slot)
+            if (slot(bucket, slot) == fingerprint)
+                return true;
+        return false;
+    }
+
+    private static int emptySlot(final long bucket) {
+        for (int slot = 0; slot < SLOTS; ++slot)
+            if (slot(bucket, slot) == 0)
+                return slot;
+        return -1;
+    }
+
+    /**
+     * Inserts into bucket {@code i1} or its alternate, pushing fingerprints out of the way if both
+     * are full.
+     */
+    private boolean insert(final int i1, final long fingerprint) {
+        final int i2 = this.alternate(i1, fingerprint);
+        // relocation only fails when the walk finds no free slot; races with other writers just retry
+        for (int attempt = 0; attempt < MAX_KICKS; ++attempt) {
+            if (this.insertInto(i1, fingerprint) || this.insertInto(i2, fingerprint))
+                return true;
+            if (!this.relocate(ThreadLocalRandom.current().nextBoolean() ? i1 : i2))
+                return false;
+        }
+        return false;
+    }
+
+    private boolean insertInto(final int index, final long fingerprint) {
+        while (true) {
+            final long bucket = this.bucket(index);
+            final int slot = emptySlot(bucket);
+            if (slot < 0)
+                return false;
+            if (this.casBucket(index, bucket, bucket | fingerprint << (slot * SLOT_BITS)))
+                return true;
+        }
+    }
+
+    private boolean removeFrom(final int index, final long fingerprint) {
+        while (true) {
+            final long bucket = this.bucket(index);
+            int slot = 0;
+            while (slot < SLOTS && slot(bucket, slot) != fingerprint)
+                ++slot;
+            if (slot == SLOTS)
+                return false;
+            if (this.casBucket(index, bucket, bucket & ~(SLOT_MASK << (slot * SLOT_BITS))))
+                return true;
+        }
+    }
+
+    /**
+     * Random walk from {@code start} for a bucket with a free slot, then moves the fingerprints on
+     * the path one bucket along, last first, which frees a slot in {@code start}.
+     *
+     * @return {@code false} if no free slot was found within {@link #MAX_KICKS} steps
+     */
+    private boolean relocate(final int start) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int[] indices = new int[MAX_KICKS];
+        final int[] slots = new int[MAX_KICKS];
+        final long[] fingerprints = new long[MAX_KICKS];
+        int index = start;
+        for (int depth = 0; depth < MAX_KICKS; ++depth) {
+            final long bucket = this.bucket(index);
+            final int slot = random.nextInt(SLOTS);
+            final long fingerprint = slot(bucket, slot);
+            if (fingerprint == 0)
+                return true;
+            indices[depth] = index;
+            slots[depth] = slot;
+            fingerprints[depth] = fingerprint;
+            index = this.alternate(index, fingerprint);
+            if (emptySlot(this.bucket(index)) >= 0) {
+                for (int d = depth; d >= 0; --d)
+                    if (!this.move(indices[d], slots[d], fingerprints[d]))
+                        return true;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves {@code fingerprint} from {@code slot} of bucket {@code from} to its alternate bucket.
+     *
+     * @return {@code false} if either bucket changed so that the move could not happen
+     */
+    private boolean move(final int from, final int slot, final long fingerprint) {
+        final int to = this.alternate(from, fingerprint);
+        if (!this.insertInto(to, fingerprint))
+            return false;
+        MOVES.getAndAdd(this, 1L);
+        final long slotMask = SLOT_MASK << (slot * SLOT_BITS);
+        while (true) {
+            final long bucket = this.bucket(from);
+            if (slot(bucket, slot) != fingerprint) {
+                // removed or moved by someone else meanwhile, so take back the copy
+                this.removeFrom(to, fingerprint);
+                return false;
+            }
+            if (this.casBucket(from, bucket, bucket & ~slotMask))
+                return true;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        final int n = 4_000_000;
+        final ConcurrentCuckooFilter seen = new ConcurrentCuckooFilter(n, 0.001);
+        System.out.println("capacity: " + seen.capacity() + ", fingerprint bits: " + seen.fingerprintBits()
+                + ", bytes: " + seen.capacity() * SLOT_BITS / 8);
+
+        // writers add their documents and remove every third one again
+        final Thread[] writers = new Thread[4];
+        final int[] rejected = new int[writers.length];
+        for (int t = 0; t < writers.length; ++t) {
+            final int id = t;
+            writers[t] = new Thread(() -> {
+                final StringBuilder key = new StringBuilder();
+                for (int i = id; i < n; i += writers.length) {
+                    key.setLength(0);
+                    key.append("doc-").append(i);
+                    if (!seen.add(key))
+                        ++rejected[id];
+                    if (i % 3 == 0)
+                        seen.remove(key);
+                }
+            });
+            writers[t].start();
+        }
+        for (final Thread writer : writers)
+            writer.join();
+
+        int falseNegatives = 0, falsePositives = 0;
+        final StringBuilder key = new StringBuilder();
+        for (int i = 0; i < n; ++i) {
+            key.setLength(0);
+            key.append("doc-").append(i);
+            if (i % 3 != 0 && !seen.mightContain(key))
+                ++falseNegatives;
+            key.setLength(0);
+            key.append("other-").append(i);
+            if (seen.mightContain(key))
+                ++falsePositives;
+        }
+        int totalRejected = 0;
+        for (final int r : rejected)
+            totalRejected += r;
+        System.out.printf("size: %d, rejected: %d, false negatives: %d, false positive rate: %.5f%n",
+                seen.size(), totalRejected, falseNegatives, (double) falsePositives / n);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        seen.writeTo(new DataOutputStream(bytes));
+        final ConcurrentCuckooFilter copy = readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        final ConcurrentCuckooFilter other = new ConcurrentCuckooFilter(n, 0.001);
+        other.add("doc-extra");
+        System.out.println("reloaded size: " + copy.size() + ", merged: " + copy.merge(other) + " "
+                + copy.mightContain("doc-extra"));
+    }
+
+}
@@ -1,20 +1,54 @@
 package code.shubham.collections;
 
-import java.util.Objects;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.stream.IntStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.LongBinaryOperator;
+import java.util.function.ToLongBiFunction;
 
 public class ConcurrentHashMap<K, V> {
 
-    private class Node<K, V> {
-        private K key;
-        private V value;
+    /**
+     * {@code value} and {@code next} are volatile so that {@link #get} can walk a chain without a
+     * lock: a node is fully built before the volatile write that links it in. Fields are left
+     * package-private so that they can be reached through the {@link TreeNode} subclass.
+     */
+    private static class Node<K, V> {
+        final K key;
+        volatile V value;
 
-        private int hashCode;
+        final int hashCode;
 
-        private Node<K, V> next;
-
-        private Node() {}
+        volatile Node<K, V> next;
 
         private Node (final K key, final V value, final int hashCode) {
             this.key = key;
@@ -23,117 +57,2102 @@ public class ConcurrentHashMap<K, V> {
         }
     }
 
+    /**
+     * Replaces the head of a bucket whose chain has already been copied to {@code nextTable}.
+     * Anyone who finds it retries the operation against the next table.
+     */
+    private static final class ForwardingNode<K, V> extends Node<K, V> {
+        private final Table<K, V> nextTable;
 
-    private Node<K, V>[] table;
-    private int capacity;
+        private ForwardingNode(final Table<K, V> nextTable) {
+            super(null, null, 0);
+            this.nextTable = nextTable;
+        }
+    }
 
-    private ReentrantReadWriteLock[] locks;
+    /**
+     * Red-black tree node of a {@link TreeBin}. {@code next}/{@code prev} also keep the nodes of a bin in
+     * a plain list, which readers walk while a writer is restructuring the tree.
+     */
+    private static final class TreeNode<K, V> extends Node<K, V> {
+        private TreeNode<K, V> parent;
+        private TreeNode<K, V> left;
+        private TreeNode<K, V> right;
+        private TreeNode<K, V> prev;
+        private boolean red;
 
-//    private float loadFactor = 0.75f;
+        private TreeNode(final K key, final V value, final int hashCode,
+                         final TreeNode<K, V> next, final TreeNode<K, V> parent) {
+            super(key, value, hashCode);
+            this.next = next;
+            this.parent = parent;
+        }
 
-    private final AtomicInteger size = new AtomicInteger();
+        /**
+         * Orders by hash first, then by {@code compareTo} when the keys share a {@link Comparable}
+         * class; keys that still tie are looked up in both subtrees.
+         */
+        private TreeNode<K, V> findTreeNode(final int hashCode, final Object key, Class<?> keyClass) {
+            TreeNode<K, V> p = this;
+            do {
+                final TreeNode<K, V> pl = p.left, pr = p.right;
+                final int ph = p.hashCode;
+                final K pk;
+                final int dir;
+                final TreeNode<K, V> q;
+                if (ph > hashCode)
+                    p = pl;
+                else if (ph < hashCode)
+                    p = pr;
+                else if ((pk = p.key) == key || key.equals(pk))
+                    return p;
+                else if (pl == null)
+                    p = pr;
+                else if (pr == null)
+                    p = pl;
+                else if ((keyClass != null || (keyClass = comparableClassFor(key)) != null)
+                        && (dir = compareComparables(keyClass, key, pk)) != 0)
+                    p = dir < 0 ? pl : pr;
+                else if ((q = pr.findTreeNode(hashCode, key, keyClass)) != null)
+                    return q;
+                else
+                    p = pl;
+            } while (p != null);
+            return null;
+        }
+    }
 
-    public ConcurrentHashMap(final int capacity) {
-        this.capacity = capacity;
-        this.table = new Node[capacity];
-        this.locks = new ReentrantReadWriteLock[capacity];
-        for (int i = 0; i < capacity; ++i) {
-            this.table[i] = new Node<>();
-            this.locks[i] = new ReentrantReadWriteLock();
+    /**
+     * Head of a bucket whose chain grew past {@link #TREEIFY_THRESHOLD}. Writers already hold the
+     * bucket's stripe; they additionally take the root lock while restructuring the tree. Lock-free
+     * readers share the root through a reader count, or, while a writer holds or waits for the root,
+     * fall back to walking the {@code first} list so they never block.
+     */
+    private static final class TreeBin<K, V> extends Node<K, V> {
+        private static final int WRITER = 1;
+        private static final int WAITER = 2;
+        private static final int READER = 4;
+
+        private static final VarHandle LOCK_STATE;
+
+        static {
+            try {
+                LOCK_STATE = MethodHandles.lookup().findVarHandle(TreeBin.class, "lockState", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private TreeNode<K, V> root;
+        private volatile TreeNode<K, V> first;
+        private volatile Thread waiter;
+        private volatile int lockState;
+        /** guarded by the bucket's stripe */
+        private int size;
+
+        /**
+         * Builds the tree over a list of nodes that is not yet visible to anyone.
+         */
+        private TreeBin(final TreeNode<K, V> first) {
+            super(null, null, 0);
+            this.first = first;
+            TreeNode<K, V> root = null;
+            int size = 0;
+            for (TreeNode<K, V> x = first; x != null; x = (TreeNode<K, V>) x.next) {
+                ++size;
+                x.left = x.right = null;
+                if (root == null) {
+                    x.parent = null;
+                    x.red = false;
+                    root = x;
+                    continue;
+                }
+
+                final K key = x.key;
+                final int hashCode = x.hashCode;
+                Class<?> keyClass = null;
+                for (TreeNode<K, V> p = root; ; ) {
+                    int dir;
+                    final int ph = p.hashCode;
+                    final K pk = p.key;
+                    if (ph > hashCode)
+                        dir = -1;
+                    else if (ph < hashCode)
+                        dir = 1;
+                    else if ((keyClass == null && (keyClass = comparableClassFor(key)) == null)
+                            || (dir = compareComparables(keyClass, key, pk)) == 0)
+                        dir = tieBreakOrder(key, pk);
+
+                    final TreeNode<K, V> xp = p;
+                    if ((p = dir <= 0 ? p.left : p.right) == null) {
+                        x.parent = xp;
+                        if (dir <= 0)
+                            xp.left = x;
+                        else
+                            xp.right = x;
+                        root = balanceInsertion(root, x);
+                        break;
+                    }
+                }
+            }
+            this.root = root;
+            this.size = size;
+        }
+
+        private void lockRoot() {
+            if (!LOCK_STATE.compareAndSet(this, 0, WRITER))
+                this.contendedLock();
+        }
+
+        private void unlockRoot() {
+            this.lockState = 0;
+        }
+
+        /**
+         * Only one writer exists at a time (it holds the stripe), so it only ever waits for readers.
+         */
+        private void contendedLock() {
+            boolean waiting = false;
+            for (int s; ; ) {
+                if (((s = this.lockState) & ~WAITER) == 0) {
+                    if (LOCK_STATE.compareAndSet(this, s, WRITER)) {
+                        if (waiting)
+                            this.waiter = null;
+                        return;
+                    }
+                } else if ((s & WAITER) == 0) {
+                    if (LOCK_STATE.compareAndSet(this, s, s | WAITER)) {
+                        waiting = true;
+                        this.waiter = Thread.currentThread();
+                    }
+                } else if (waiting) {
+                    LockSupport.park(this);
+                }
+            }
+        }
+
+        private Node<K, V> find(final int hashCode, final Object key) {
+            for (Node<K, V> e = this.first; e != null; ) {
+                final int s = this.lockState;
+                if ((s & (WAITER | WRITER)) != 0) {
+                    if (e.hashCode == hashCode && key.equals(e.key))
+                        return e;
+                    e = e.next;
+                } else if (LOCK_STATE.compareAndSet(this, s, s + READER)) {
+                    final TreeNode<K, V> root = this.root;
+                    try {
+                        return root == null ? null : root.findTreeNode(hashCode, key, null);
+                    } finally {
+                        final Thread waiter;
+                        if ((int) LOCK_STATE.getAndAdd(this, -READER) == (READER | WAITER)
+                                && (waiter = this.waiter) != null)
+                            LockSupport.unpark(waiter);
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return the existing node of {@code key}, or {@code null} if a new one was added
+         */
+        private TreeNode<K, V> putTreeVal(final int hashCode, final K key, final V value) {
+            Class<?> keyClass = null;
+            boolean searched = false;
+            for (TreeNode<K, V> p = this.root; ; ) {
+                int dir;
+                final int ph;
+                final K pk;
+                if (p == null) {
+                    this.first = this.root = new TreeNode<>(key, value, hashCode, null, null);
+                    ++this.size;
+                    return null;
+                } else if ((ph = p.hashCode) > hashCode) {
+                    dir = -1;
+                } else if (ph < hashCode) {
+                    dir = 1;
+                } else if ((pk = p.key) == key || key.equals(pk)) {
+                    return p;
+                } else if ((keyClass == null && (keyClass = comparableClassFor(key)) == null)
+                        || (dir = compareComparables(keyClass, key, pk)) == 0) {
+                    if (!searched) {
+                        searched = true;
+                        TreeNode<K, V> q, child;
+                        if (((child = p.left) != null && (q = child.findTreeNode(hashCode, key, keyClass)) != null)
+                                || ((child = p.right) != null
+                                && (q = child.findTreeNode(hashCode, key, keyClass)) != null))
+                            return q;
+                    }
+                    dir = tieBreakOrder(key, pk);
+                }
+
+                final TreeNode<K, V> xp = p;
+                if ((p = dir <= 0 ? p.left : p.right) == null) {
+                    final TreeNode<K, V> f = this.first;
+                    final TreeNode<K, V> x = new TreeNode<>(key, value, hashCode, f, xp);
+                    if (f != null)
+                        f.prev = x;
+                    this.first = x;
+                    this.lockRoot();
+                    try {
+                        if (dir <= 0)
+                            xp.left = x;
+                        else
+                            xp.right = x;
+                        this.root = balanceInsertion(this.root, x);
+                    } finally {
+                        this.unlockRoot();
+                    }
+                    ++this.size;
+                    return null;
+                }
+            }
+        }
+
+        /**
+         * Unlinks {@code p}, which must be in this bin.
+         *
+         * @return {@code true} if the bin shrank to {@link #UNTREEIFY_THRESHOLD} and should be replaced
+         * by a plain list built from {@code first}; the tree is then left as it is
+         */
+        private boolean removeTreeNode(final TreeNode<K, V> p) {
+            final TreeNode<K, V> next = (TreeNode<K, V>) p.next;
+            final TreeNode<K, V> pred = p.prev;
+            if (pred == null)
+                this.first = next;
+            else
+                pred.next = next;
+            if (next != null)
+                next.prev = pred;
+
+            if (--this.size <= UNTREEIFY_THRESHOLD)
+                return true;
+
+            this.lockRoot();
+            try {
+                TreeNode<K, V> root = this.root;
+                final TreeNode<K, V> replacement;
+                final TreeNode<K, V> pl = p.left, pr = p.right;
+                if (pl != null && pr != null) {
+                    TreeNode<K, V> s = pr, sl;
+                    while ((sl = s.left) != null)
+                        s = sl;
+                    final boolean c = s.red;
+                    s.red = p.red;
+                    p.red = c;
+                    final TreeNode<K, V> sr = s.right;
+                    final TreeNode<K, V> pp = p.parent;
+                    if (s == pr) {
+                        p.parent = s;
+                        s.right = p;
+                    } else {
+                        final TreeNode<K, V> sp = s.parent;
+                        if ((p.parent = sp) != null) {
+                            if (s == sp.left)
+                                sp.left = p;
+                            else
+                                sp.right = p;
+                        }
+                        if ((s.right = pr) != null)
+                            pr.parent = s;
+                    }
+                    p.left = null;
+                    if ((p.right = sr) != null)
+                        sr.parent = p;
+                    if ((s.left = pl) != null)
+                        pl.parent = s;
+                    if ((s.parent = pp) == null)
+                        root = s;
+                    else if (p == pp.left)
+                        pp.left = s;
+                    else
+                        pp.right = s;
+                    replacement = sr != null ? sr : p;
+                } else if (pl != null) {
+                    replacement = pl;
+                } else if (pr != null) {
+                    replacement = pr;
+                } else {
+                    replacement = p;
+                }
+
+                if (replacement != p) {
+                    final TreeNode<K, V> pp = replacement.parent = p.parent;
+                    if (pp == null)
+                        root = replacement;
+                    else if (p == pp.left)
+                        pp.left = replacement;
+                    else
+                        pp.right = replacement;
+                    p.left = p.right = p.parent = null;
+                }
+
+                this.root = p.red ? root : balanceDeletion(root, replacement);
+
+                if (p == replacement) {
+                    final TreeNode<K, V> pp;
+                    if ((pp = p.parent) != null) {
+                        if (p == pp.left)
+                            pp.left = null;
+                        else if (p == pp.right)
+                            pp.right = null;
+                        p.parent = null;
+                    }
+                }
+            } finally {
+                this.unlockRoot();
+            }
+            return false;
+        }
+
+        private static <K, V> TreeNode<K, V> rotateLeft(TreeNode<K, V> root, final TreeNode<K, V> p) {
+            final TreeNode<K, V> r, pp, rl;
+            if (p != null && (r = p.right) != null) {
+                if ((rl = p.right = r.left) != null)
+                    rl.parent = p;
+                if ((pp = r.parent = p.parent) == null)
+                    (root = r).red = false;
+                else if (pp.left == p)
+                    pp.left = r;
+                else
+                    pp.right = r;
+                r.left = p;
+                p.parent = r;
+            }
+            return root;
+        }
+
+        private static <K, V> TreeNode<K, V> rotateRight(TreeNode<K, V> root, final TreeNode<K, V> p) {
+            final TreeNode<K, V> l, pp, lr;
+            if (p != null && (l = p.left) != null) {
+                if ((lr = p.left = l.right) != null)
+                    lr.parent = p;
+                if ((pp = l.parent = p.parent) == null)
+                    (root = l).red = false;
+                else if (pp.right == p)
+                    pp.right = l;
+                else
+                    pp.left = l;
+                l.right = p;
+                p.parent = l;
+            }
+            return root;
+        }
+
+        private static <K, V> TreeNode<K, V> balanceInsertion(TreeNode<K, V> root, TreeNode<K, V> x) {
+            x.red = true;
+            for (TreeNode<K, V> xp, xpp, xppl, xppr; ; ) {
+                if ((xp = x.parent) == null) {
+                    x.red = false;
+                    return x;
+                } else if (!xp.red || (xpp = xp.parent) == null) {
+                    return root;
+                }
+                if (xp == (xppl = xpp.left)) {
+                    if ((xppr = xpp.right) != null && xppr.red) {
+                        xppr.red = false;
+                        xp.red = false;
+                        xpp.red = true;
+                        x = xpp;
+                    } else {
+                        if (x == xp.right) {
+                            root = rotateLeft(root, x = xp);
+                            xpp = (xp = x.parent) == null ? null : xp.parent;
+                        }
+                        if (xp != null) {
+                            xp.red = false;
+                            if (xpp != null) {
+                                xpp.red = true;
+                                root = rotateRight(root, xpp);
+                            }
+                        }
+                    }
+                } else {
+                    if (xppl != null && xppl.red) {
+                        xppl.red = false;
+                        xp.red = false;
+                        xpp.red = true;
+                        x = xpp;
+                    } else {
+                        if (x == xp.left) {
+                            root = rotateRight(root, x = xp);
+                            xpp = (xp = x.parent) == null ? null : xp.parent;
+                        }
+                        if (xp != null) {
+                            xp.red = false;
+                            if (xpp != null) {
+                                xpp.red = true;
+                                root = rotateLeft(root, xpp);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        private static <K, V> TreeNode<K, V> balanceDeletion(TreeNode<K, V> root, TreeNode<K, V> x) {
+            for (TreeNode<K, V> xp, xpl, xpr; ; ) {
+                if (x == null || x == root) {
+                    return root;
+                } else if ((xp = x.parent) == null) {
+                    x.red = false;
+                    return x;
+                } else if (x.red) {
+                    x.red = false;
+                    return root;
+                } else if ((xpl = xp.left) == x) {
+                    if ((xpr = xp.right) != null && xpr.red) {
+                        xpr.red = false;
+                        xp.red = true;
+                        root = rotateLeft(root, xp);
+                        xpr = (xp = x.parent) == null ? null : xp.right;
+                    }
+                    if (xpr == null) {
+                        x = xp;
+                    } else {
+                        TreeNode<K, V> sl = xpr.left, sr = xpr.right;
+                        if ((sr == null || !sr.red) && (sl == null || !sl.red)) {
+                            xpr.red = true;
+                            x = xp;
+                        } else {
+                            if (sr == null || !sr.red) {
+                                if (sl != null)
+                                    sl.red = false;
+                                xpr.red = true;
+                                root = rotateRight(root, xpr);
+                                xpr = (xp = x.parent) == null ? null : xp.right;
+                            }
+                            if (xpr != null) {
+                                xpr.red = xp != null && xp.red;
+                                if ((sr = xpr.right) != null)
+                                    sr.red = false;
+                            }
+                            if (xp != null) {
+                                xp.red = false;
+                                root = rotateLeft(root, xp);
+                            }
+                            x = root;
+                        }
+                    }
+                } else {
+                    if (xpl != null && xpl.red) {
+                        xpl.red = false;
+                        xp.red = true;
+                        root = rotateRight(root, xp);
+                        xpl = (xp = x.parent) == null ? null : xp.left;
+                    }
+                    if (xpl == null) {
+                        x = xp;
+                    } else {
+                        TreeNode<K, V> sl = xpl.left, sr = xpl.right;
+                        if ((sl == null || !sl.red) && (sr == null || !sr.red)) {
+                            xpl.red = true;
+                            x = xp;
+                        } else {
+                            if (sl == null || !sl.red) {
+                                if (sr != null)
+                                    sr.red = false;
+                                xpl.red = true;
+                                root = rotateLeft(root, xpl);
+                                xpl = (xp = x.parent) == null ? null : xp.left;
+                            }
+                            if (xpl != null) {
+                                xpl.red = xp != null && xp.red;
+                                if ((sl = xpl.left) != null)
+                                    sl.red = false;
+                            }
+                            if (xp != null) {
+                                xp.red = false;
+                                root = rotateRight(root, xp);
+                            }
+                            x = root;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * One lock of the stripe array. The AQS state a writer spins on lives in the lock's {@code Sync},
+     * which is allocated right after the lock itself, so padding the lock keeps the {@code Sync}s of
+     * neighbouring stripes on different cache lines.
+     * <p>
+     * The padding also gives each stripe a private slot for its share of the size: {@link #count} is
+     * only written by the holder of the lock, so updating it needs neither a CAS nor a shared line.
+     */
+    @jdk.internal.vm.annotation.Contended
+    private static final class Stripe extends ReentrantLock {
+        private static final VarHandle COUNT;
+
+        static {
+            try {
+                COUNT = MethodHandles.lookup().findVarHandle(Stripe.class, "count", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        /**
+         * Entries added minus entries removed under this stripe. Buckets move between stripes on a
+         * resize, so a single stripe may even go negative; only the sum over all stripes is meaningful.
+         */
+        private long count;
+
+        /** @return the updated count; must hold the lock */
+        private long addCount(final long delta) {
+            final long count = this.count + delta;
+            COUNT.setOpaque(this, count);
+            return count;
+        }
+
+        private long count() {
+            return (long) COUNT.getOpaque(this);
+        }
+    }
+
+    private static final class Table<K, V> {
+        private final Node<K, V>[] buckets;
+        private final int threshold;
+
+        @SuppressWarnings("unchecked")
+        private Table(final int capacity, final float loadFactor) {
+            this.buckets = new Node[capacity];
+            this.threshold = (int) Math.min(Integer.MAX_VALUE, (long) (capacity * (double) loadFactor));
+        }
+
+        private int indexFor(final int hashCode) {
+            return hashCode & (this.buckets.length - 1);
+        }
+
+        @SuppressWarnings("unchecked")
+        private Node<K, V> bucketAt(final int index) {
+            return (Node<K, V>) BUCKET.getAcquire(this.buckets, index);
+        }
+
+        private void setBucketAt(final int index, final Node<K, V> node) {
+            BUCKET.setRelease(this.buckets, index, node);
+        }
+    }
+
+    /**
+     * An in-flight resize. Buckets of {@code table} are claimed top down in strides of
+     * {@link #TRANSFER_STRIDE}; whoever moves the last stride publishes {@code nextTable}.
+     */
+    private static final class Resize<K, V> {
+        private final Table<K, V> table;
+        private final Table<K, V> nextTable;
+        private final AtomicInteger transferIndex;
+        private final AtomicInteger remaining;
+
+        private Resize(final Table<K, V> table, final Table<K, V> nextTable) {
+            this.table = table;
+            this.nextTable = nextTable;
+            final int length = table == null ? 0 : table.buckets.length;
+            this.transferIndex = new AtomicInteger(length);
+            this.remaining = new AtomicInteger(length);
+        }
+    }
+
+    /**
+     * A table that a {@link Traverser} left through a {@link ForwardingNode}, to be resumed once the
+     * matching buckets of the next table have been visited.
+     */
+    private static final class TableStack<K, V> {
+        private Table<K, V> table;
+        private int length;
+        private int index;
+        private TableStack<K, V> next;
+    }
+
+    /**
+     * Visits the buckets {@code [index, limit)} of a table without locking. A bucket that has been
+     * forwarded is visited in the next table instead, at both indices its chain was split into, so
+     * every mapping present for the whole traversal is seen exactly once; mappings added or removed
+     * meanwhile may or may not be. A node whose value was sealed by a writer is looked up again, so
+     * a mapping that moved behind the traverser's back is still reported.
+     */
+    private class Traverser {
+        private Table<K, V> table;
+        private Node<K, V> next;
+        private TableStack<K, V> stack, spare;
+        private int index;
+        private int baseIndex;
+        private final int baseLimit;
+        private final int baseSize;
+
+        /** the mapping found by the last successful {@link #advance()} */
+        K key;
+        V value;
+
+        Traverser(final Table<K, V> table, final int index, final int limit) {
+            this.table = table;
+            this.baseSize = table.buckets.length;
+            this.index = this.baseIndex = index;
+            this.baseLimit = limit;
+        }
+
+        /**
+         * @return {@code false} once the range is exhausted
+         */
+        final boolean advance() {
+            for (Node<K, V> node; (node = this.nextNode()) != null; ) {
+                final V value = ConcurrentHashMap.this.currentValue(node);
+                if (value != null) {
+                    this.key = node.key;
+                    this.value = value;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private Node<K, V> nextNode() {
+            Node<K, V> e = this.next;
+            if (e != null)
+                e = e.next;
+            while (true) {
+                if (e != null)
+                    return this.next = e;
+                final Table<K, V> t = this.table;
+                final int i = this.index, n;
+                if (this.baseIndex >= this.baseLimit || t == null || (n = t.buckets.length) <= i || i < 0)
+                    return this.next = null;
+                if ((e = t.bucketAt(i)) instanceof ForwardingNode) {
+                    this.table = ((ForwardingNode<K, V>) e).nextTable;
+                    e = null;
+                    this.pushState(t, i, n);
+                    continue;
+                }
+                if (e instanceof TreeBin)
+                    e = ((TreeBin<K, V>) e).first;
+                if (this.stack != null)
+                    this.recoverState(n);
+                else if ((this.index = i + this.baseSize) >= n)
+                    this.index = ++this.baseIndex;
+            }
+        }
+
+        private void pushState(final Table<K, V> table, final int index, final int length) {
+            TableStack<K, V> s = this.spare;
+            if (s != null)
+                this.spare = s.next;
+            else
+                s = new TableStack<>();
+            s.table = table;
+            s.length = length;
+            s.index = index;
+            s.next = this.stack;
+            this.stack = s;
+        }
+
+        /**
+         * Moves to the upper half of the split bucket, or pops back to the table it came from once
+         * both halves are done.
+         */
+        private void recoverState(int n) {
+            TableStack<K, V> s;
+            int length;
+            while ((s = this.stack) != null && (this.index += (length = s.length)) >= n) {
+                n = length;
+                this.index = s.index;
+                this.table = s.table;
+                s.table = null;
+                final TableStack<K, V> next = s.next;
+                s.next = this.spare;
+                this.stack = next;
+                this.spare = s;
+            }
+            if (s == null && (this.index += this.baseSize) >= n)
+                this.index = ++this.baseIndex;
+        }
+    }
+
+    /**
+     * Weakly consistent: never throws {@link java.util.ConcurrentModificationException} and reflects
+     * the mappings as {@link Traverser} sees them.
+     */
+    private abstract class BaseIterator<E> extends Traverser implements Iterator<E> {
+        private boolean pending;
+        private K lastKey;
+
+        BaseIterator(final Table<K, V> table) {
+            super(table, 0, table.buckets.length);
+            this.pending = this.advance();
+        }
+
+        abstract E element(K key, V value);
+
+        @Override
+        public final boolean hasNext() {
+            return this.pending;
+        }
+
+        @Override
+        public final E next() {
+            if (!this.pending)
+                throw new NoSuchElementException();
+            final E element = this.element(this.key, this.value);
+            this.lastKey = this.key;
+            this.pending = this.advance();
+            return element;
+        }
+
+        @Override
+        public final void remove() {
+            if (this.lastKey == null)
+                throw new IllegalStateException();
+            ConcurrentHashMap.this.remove(this.lastKey);
+            this.lastKey = null;
+        }
+    }
+
+    /**
+     * Splits a bucket range in halves until {@code batch} leaves are reached, runs {@code leaf} over
+     * each of them and folds the results with {@code combiner}.
+     */
+    private final class BulkTask<R> extends RecursiveTask<R> {
+        private final Table<K, V> table;
+        private final int index;
+        private final int limit;
+        private final int batch;
+        private final Function<Traverser, R> leaf;
+        private final BinaryOperator<R> combiner;
+
+        private BulkTask(final Table<K, V> table, final int index, final int limit, final int batch,
+                         final Function<Traverser, R> leaf, final BinaryOperator<R> combiner) {
+            this.table = table;
+            this.index = index;
+            this.limit = limit;
+            this.batch = batch;
+            this.leaf = leaf;
+            this.combiner = combiner;
+        }
+
+        @Override
+        protected R compute() {
+            if (this.batch <= 1 || this.limit - this.index <= 1)
+                return this.leaf.apply(new Traverser(this.table, this.index, this.limit));
+
+            final int middle = (this.index + this.limit) >>> 1;
+            final BulkTask<R> low = new BulkTask<>(this.table, this.index, middle, this.batch >>> 1,
+                    this.leaf, this.combiner);
+            low.fork();
+            final R high = new BulkTask<>(this.table, middle, this.limit, this.batch >>> 1,
+                    this.leaf, this.combiner).compute();
+            return this.combiner.apply(low.join(), high);
+        }
+    }
+
+    /**
+     * Buffered, length-prefixed record writer of {@link #writeSnapshot}. A record that overflows the
+     * buffer is rewritten after a flush, or into a bigger buffer if it alone does not fit.
+     */
+    private static final class SnapshotOutput {
+        private final FileChannel channel;
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+        /** file offset of the start of {@link #buffer} */
+        private long flushed;
+
+        private SnapshotOutput(final FileChannel channel, final long start) {
+            this.channel = channel;
+            this.flushed = start;
+        }
+
+        private long position() {
+            return this.flushed + this.buffer.position();
+        }
+
+        private <K, V> void write(final int hashCode, final K key, final V value,
+                                  final Serializer<? super K> keySerializer,
+                                  final Serializer<? super V> valueSerializer) throws IOException {
+            while (true) {
+                final int start = this.buffer.position();
+                try {
+                    this.buffer.putInt(hashCode);
+                    this.writeField(key, keySerializer);
+                    this.writeField(value, valueSerializer);
+                    return;
+                } catch (BufferOverflowException e) {
+                    this.buffer.position(start);
+                    if (start > 0)
+                        this.flush();
+                    else
+                        this.buffer = ByteBuffer.allocateDirect(this.buffer.capacity() << 1);
+                }
+            }
+        }
+
+        private <T> void writeField(final T field, final Serializer<? super T> serializer) {
+            final int lengthAt = this.buffer.position();
+            if (this.buffer.remaining() < Integer.BYTES)
+                throw new BufferOverflowException();
+            this.buffer.position(lengthAt + Integer.BYTES);
+            serializer.write(field, this.buffer);
+            this.buffer.putInt(lengthAt, this.buffer.position() - lengthAt - Integer.BYTES);
+        }
+
+        private void flush() throws IOException {
+            this.buffer.flip();
+            while (this.buffer.hasRemaining())
+                this.flushed += this.channel.write(this.buffer, this.flushed);
+            this.buffer.clear();
+        }
+    }
+
+    private static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    private static final int MAXIMUM_CONCURRENCY_LEVEL = 1 << 16;
+
+    private static final int TRANSFER_STRIDE = 16;
+
+    /** A chain that reaches this length is converted to a {@link TreeBin}. */
+    private static final int TREEIFY_THRESHOLD = 8;
+
+    /** A {@link TreeBin} that shrinks to this size is converted back to a chain. */
+    private static final int UNTREEIFY_THRESHOLD = 6;
+
+    /** Below this table size long chains trigger a resize instead of being treeified. */
+    private static final int MIN_TREEIFY_CAPACITY = 64;
+
+    private static final int HASH_BITS = 0x7fffffff;
+
+    private static final int SNAPSHOT_MAGIC = 0x43484d53;
+    private static final int SNAPSHOT_VERSION = 2;
+    /** magic, version, capacity, load factor, concurrency level, entry count, chunk count */
+    private static final int SNAPSHOT_HEADER_BYTES = 5 * Integer.BYTES + Long.BYTES + Integer.BYTES;
+    /** A snapshot holds a stripe for at most this many of its buckets at a time. */
+    private static final int SNAPSHOT_BATCH_BUCKETS = 1 << 10;
+
+    private static final VarHandle BUCKET = MethodHandles.arrayElementVarHandle(Node[].class);
+
+    private static final VarHandle VALUE;
+
+    static {
+        try {
+            VALUE = MethodHandles.lookup().findVarHandle(Node.class, "value", Object.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
         }
     }
 
+    /**
+     * Swapped into the value of a node when it is unlinked or replaced by a copy (resize, treeify,
+     * untreeify), so that a lock-free {@link #addAndGet} can no longer succeed on it. Readers that see it
+     * look the key up again.
+     */
+    private static final Object DEAD = new Object();
+
+    /** Held in {@link #resize} by the thread that is allocating the next table. */
+    private final Resize<K, V> resizeStarting = new Resize<>(null, null);
+
+    private volatile Table<K, V> table;
+
+    private final AtomicReference<Resize<K, V>> resize = new AtomicReference<>();
+
+    /**
+     * Writers of bucket {@code i} hold {@code stripes[i & (stripes.length - 1)]}, whatever the size
+     * of the table, so the number of locks is fixed by the concurrency level alone.
+     */
+    private final Stripe[] stripes;
+
+    private final float loadFactor;
+
+    public ConcurrentHashMap(final int capacity) {
+        this(capacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    public ConcurrentHashMap(final int capacity, final float loadFactor) {
+        this(capacity, loadFactor, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    public ConcurrentHashMap(final int capacity, final float loadFactor, final int concurrencyLevel) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity cannot be negative");
+        if (!(loadFactor > 0))
+            throw new IllegalArgumentException("loadFactor must be positive");
+        if (concurrencyLevel <= 0)
+            throw new IllegalArgumentException("concurrencyLevel must be positive");
+
+        this.loadFactor = loadFactor;
+        this.table = new Table<>(tableSizeFor(capacity), loadFactor);
+
+        final int stripeCount = Integer.highestOneBit(
+                Math.min(concurrencyLevel, MAXIMUM_CONCURRENCY_LEVEL) * 2 - 1);
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; ++i)
+            this.stripes[i] = new Stripe();
+    }
+
     public V put(final K key, final V value) {
         if (key == null)
             throw new RuntimeException("key cannot be null");
+        if (value == null)
+            throw new RuntimeException("value cannot be null");
 
-        final int hashCode = Objects.hash(key);
-        final int tableIndex = hashCode % this.table.length;
+        final int hashCode = spread(key.hashCode());
 
-        try {
-            this.locks[tableIndex].writeLock().lock();
+        Table<K, V> table = this.table;
+        while (true) {
+            final int tableIndex = table.indexFor(hashCode);
+            final Stripe lock = this.stripeFor(tableIndex);
+            Table<K, V> nextTable = null;
+            int binCount = 0;
+            long stripeCount = 0;
+            try {
+                lock.lock();
+
+                final Node<K, V> head = table.bucketAt(tableIndex);
+                if (head == null) {
+                    table.setBucketAt(tableIndex, new Node<>(key, value, hashCode));
+                } else if (head instanceof ForwardingNode) {
+                    nextTable = ((ForwardingNode<K, V>) head).nextTable;
+                } else if (head instanceof TreeBin) {
+                    final TreeNode<K, V> existing = ((TreeBin<K, V>) head).putTreeVal(hashCode, key, value);
+                    if (existing != null)
+                        return swapValue(existing, value);
+                } else {
+                    Node<K, V> temp = head;
+                    while (true) {
+                        ++binCount;
+                        if (temp.hashCode == hashCode && temp.key.equals(key))
+                            return swapValue(temp, value);
+                        if (temp.next == null)
+                            break;
+                        temp = temp.next;
+                    }
 
-            Node<K, V> temp = this.table[tableIndex];
-            while (temp.next != null) {
-                if (temp.next.hashCode == hashCode && temp.next.key.equals(key)) {
-                    final V lastValue = temp.next.value;
-                    temp.next.value = value;
-                    return lastValue;
+                    temp.next = new Node<>(key, value, hashCode);
                 }
-                temp = temp.next;
+                if (nextTable == null)
+                    stripeCount = lock.addCount(1);
+            } finally {
+                lock.unlock();
+                if (nextTable == null)
+                    this.helpTransfer();
             }
 
-            temp.next = new Node<>(key, value, hashCode);
-            this.size.incrementAndGet();
-
-        } finally {
-            this.locks[tableIndex].writeLock().unlock();
+            if (nextTable == null) {
+                if (binCount >= TREEIFY_THRESHOLD)
+                    this.treeifyBin(table, tableIndex);
+                this.checkResize(stripeCount);
+                return null;
+            }
+            table = nextTable;
         }
-        return null;
     }
 
     public V get(final K key) {
         if (key == null)
             return null;
 
-        if (this.getSize() == 0)
+        final Node<K, V> node = this.findNode(spread(key.hashCode()), key);
+        return node == null ? null : this.currentValue(node);
+    }
+
+    public V putIfAbsent(final K key, final V value) {
+        if (value == null)
+            throw new RuntimeException("value cannot be null");
+        return this.doCompute(key, k -> value, null, true);
+    }
+
+    /**
+     * The mapping function runs while the bucket's stripe is held, so it must be short and must not
+     * update this map.
+     */
+    public V computeIfAbsent(final K key, final Function<? super K, ? extends V> mappingFunction) {
+        if (mappingFunction == null)
+            throw new RuntimeException("mappingFunction cannot be null");
+        return this.doCompute(key, mappingFunction, null, false);
+    }
+
+    public V computeIfPresent(final K key, final BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if (remappingFunction == null)
+            throw new RuntimeException("remappingFunction cannot be null");
+        return this.doCompute(key, null, remappingFunction, false);
+    }
+
+    public V compute(final K key, final BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if (remappingFunction == null)
+            throw new RuntimeException("remappingFunction cannot be null");
+        return this.doCompute(key, k -> remappingFunction.apply(k, null), remappingFunction, false);
+    }
+
+    public V merge(final K key, final V value,
+                   final BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        if (value == null)
+            throw new RuntimeException("value cannot be null");
+        if (remappingFunction == null)
+            throw new RuntimeException("remappingFunction cannot be null");
+        return this.doCompute(key, k -> value, (k, current) -> remappingFunction.apply(current, value), false);
+    }
+
+    /**
+     * Counter update for maps whose values are {@link Long}. When the key is present the new value is
+     * installed with a CAS on its node, without taking the stripe; only the first increment of a key
+     * goes through {@link #merge}.
+     *
+     * @return the updated value
+     * @throws ClassCastException if the current value is not a {@link Long}
+     */
+    @SuppressWarnings("unchecked")
+    public long addAndGet(final K key, final long delta) {
+        if (key == null)
+            throw new RuntimeException("key cannot be null");
+
+        final int hashCode = spread(key.hashCode());
+        while (true) {
+            final Node<K, V> node = this.findNode(hashCode, key);
+            if (node == null)
+                return (Long) this.merge(key, (V) Long.valueOf(delta),
+                        (current, increment) -> (V) Long.valueOf((Long) current + (Long) increment));
+
+            final Object current = node.value;
+            if (current == DEAD) {
+                Thread.onSpinWait();
+                continue;
+            }
+            final long updated = (Long) current + delta;
+            if (VALUE.compareAndSet(node, current, (Object) updated))
+                return updated;
+        }
+    }
+
+    public V remove(final K key) {
+        if (key == null)
             return null;
 
-        final int hashCode = Objects.hash(key);
-        final int tableIndex = hashCode % this.table.length;
+        final int hashCode = spread(key.hashCode());
 
-        try {
-            this.locks[tableIndex].readLock().lock();
-            Node<K, V> node = this.table[tableIndex].next;
+        Table<K, V> table = this.table;
+        while (true) {
+            final int tableIndex = table.indexFor(hashCode);
+            final Stripe lock = this.stripeFor(tableIndex);
+            Table<K, V> nextTable = null;
+            try {
+                lock.lock();
+                final Node<K, V> head = table.bucketAt(tableIndex);
+                if (head instanceof ForwardingNode) {
+                    nextTable = ((ForwardingNode<K, V>) head).nextTable;
+                } else {
+                    final V lastValue = removeLocked(table, tableIndex, head, hashCode, key);
+                    if (lastValue != null) {
+                        lock.addCount(-1);
+                        return lastValue;
+                    }
+                }
+            } finally {
+                lock.unlock();
+                if (nextTable == null)
+                    this.helpTransfer();
+            }
+
+            if (nextTable == null)
+                return null;
+            table = nextTable;
+        }
+    }
+
+    /**
+     * Puts every mapping of {@code entries}. Keys are grouped by stripe and each stripe is locked once
+     * for its whole group, in index order, instead of once per key. Mappings whose bucket is being
+     * moved by a resize, or that share a stripe with other buckets only because the table is still
+     * smaller than the stripe array, fall back to {@link #put}. The batch is not atomic: readers may
+     * see part of it.
+     */
+    public void putAll(final Map<? extends K, ? extends V> entries) {
+        final int size = entries.size();
+        final Object[] keys = new Object[size], values = new Object[size];
+        final int[] hashCodes = new int[size];
+        int count = 0;
+        for (final Map.Entry<? extends K, ? extends V> entry : entries.entrySet()) {
+            if (count == size)
+                break;
+            if (entry.getKey() == null)
+                throw new RuntimeException("key cannot be null");
+            if (entry.getValue() == null)
+                throw new RuntimeException("value cannot be null");
+            keys[count] = entry.getKey();
+            values[count] = entry.getValue();
+            hashCodes[count++] = spread(entry.getKey().hashCode());
+        }
+
+        final int[] order = this.groupByStripe(hashCodes, count);
+        final int[] deferred = new int[count], longChains = new int[count];
+        int deferredCount = 0;
+        for (int start = 0, end; start < count; start = end) {
+            final Stripe stripe = this.stripes[hashCodes[order[start]] & (this.stripes.length - 1)];
+            end = this.groupEnd(stripe, order, hashCodes, start, count);
+
+            final Table<K, V> table;
+            int inserted = 0, longChainCount = 0;
+            long stripeCount = 0;
+            stripe.lock();
+            try {
+                table = this.table;
+                for (int i = start; i < end; ++i) {
+                    final int entry = order[i];
+                    final int tableIndex = table.indexFor(hashCodes[entry]);
+                    @SuppressWarnings("unchecked") final K key = (K) keys[entry];
+                    @SuppressWarnings("unchecked") final V value = (V) values[entry];
+                    final int chainLength;
+                    if (this.stripeFor(tableIndex) != stripe
+                            || (chainLength = putLocked(table, tableIndex, hashCodes[entry], key, value)) < 0) {
+                        deferred[deferredCount++] = entry;
+                    } else if (chainLength > 0) {
+                        ++inserted;
+                        if (chainLength > TREEIFY_THRESHOLD)
+                            longChains[longChainCount++] = tableIndex;
+                    }
+                }
+                if (inserted > 0)
+                    stripeCount = stripe.addCount(inserted);
+            } finally {
+                stripe.unlock();
+            }
+
+            for (int i = 0; i < longChainCount; ++i)
+                this.treeifyBin(table, longChains[i]);
+            if (inserted > 0)
+                this.checkResize(stripeCount);
+            this.helpTransfer();
+        }
+
+        for (int i = 0; i < deferredCount; ++i) {
+            @SuppressWarnings("unchecked") final K key = (K) keys[deferred[i]];
+            @SuppressWarnings("unchecked") final V value = (V) values[deferred[i]];
+            this.put(key, value);
+        }
+    }
+
+    /**
+     * Reads never lock, so there is nothing to coalesce: this is {@link #get} for each key.
+     *
+     * @return the keys that are present, with their values
+     */
+    public Map<K, V> getAll(final Collection<? extends K> keys) {
+        final Map<K, V> result = new HashMap<>((int) (keys.size() / 0.75f) + 1);
+        for (final K key : keys) {
+            final V value = this.get(key);
+            if (value != null)
+                result.put(key, value);
+        }
+        return result;
+    }
+
+    /**
+     * Removes every key of {@code keys}, locking each stripe once like {@link #putAll}.
+     *
+     * @return the number of mappings removed
+     */
+    public int removeAll(final Collection<? extends K> keys) {
+        final int size = keys.size();
+        final Object[] batch = new Object[size];
+        final int[] hashCodes = new int[size];
+        int count = 0;
+        for (final K key : keys) {
+            if (count == size)
+                break;
+            if (key == null)
+                continue;
+            batch[count] = key;
+            hashCodes[count++] = spread(key.hashCode());
+        }
+
+        final int[] order = this.groupByStripe(hashCodes, count);
+        final int[] deferred = new int[count];
+        int deferredCount = 0, removed = 0;
+        for (int start = 0, end; start < count; start = end) {
+            final Stripe stripe = this.stripes[hashCodes[order[start]] & (this.stripes.length - 1)];
+            end = this.groupEnd(stripe, order, hashCodes, start, count);
+
+            int stripeRemoved = 0;
+            stripe.lock();
+            try {
+                final Table<K, V> table = this.table;
+                for (int i = start; i < end; ++i) {
+                    final int entry = order[i];
+                    final int tableIndex = table.indexFor(hashCodes[entry]);
+                    final Node<K, V> head = table.bucketAt(tableIndex);
+                    if (this.stripeFor(tableIndex) != stripe || head instanceof ForwardingNode) {
+                        deferred[deferredCount++] = entry;
+                        continue;
+                    }
+                    if (removeLocked(table, tableIndex, head, hashCodes[entry], batch[entry]) != null)
+                        ++stripeRemoved;
+                }
+                if (stripeRemoved > 0)
+                    stripe.addCount(-stripeRemoved);
+            } finally {
+                stripe.unlock();
+            }
+            removed += stripeRemoved;
+            this.helpTransfer();
+        }
+
+        for (int i = 0; i < deferredCount; ++i) {
+            @SuppressWarnings("unchecked") final K key = (K) batch[deferred[i]];
+            if (this.remove(key) != null)
+                ++removed;
+        }
+        return removed;
+    }
+
+    /**
+     * Counting sort of {@code [0, count)} by the stripe each hash code falls into once the table has
+     * at least as many buckets as there are stripes.
+     *
+     * @return the indices in ascending stripe order
+     */
+    private int[] groupByStripe(final int[] hashCodes, final int count) {
+        final int mask = this.stripes.length - 1;
+        final int[] starts = new int[this.stripes.length + 1];
+        for (int i = 0; i < count; ++i)
+            ++starts[(hashCodes[i] & mask) + 1];
+        for (int s = 0; s < this.stripes.length; ++s)
+            starts[s + 1] += starts[s];
+        final int[] order = new int[count];
+        for (int i = 0; i < count; ++i)
+            order[starts[hashCodes[i] & mask]++] = i;
+        return order;
+    }
+
+    private int groupEnd(final Stripe stripe, final int[] order, final int[] hashCodes, int start, final int count) {
+        final int mask = this.stripes.length - 1;
+        while (start < count && this.stripes[hashCodes[order[start]] & mask] == stripe)
+            ++start;
+        return start;
+    }
+
+    /**
+     * The locked part of a put for {@link #putAll}; the caller holds the stripe of {@code tableIndex}.
+     *
+     * @return -1 if the bucket has been forwarded, 0 if an existing value was replaced, otherwise the
+     * length of the chain the new node was appended to (1 for a tree bin)
+     */
+    private static <K, V> int putLocked(final Table<K, V> table, final int tableIndex, final int hashCode,
+                                        final K key, final V value) {
+        final Node<K, V> head = table.bucketAt(tableIndex);
+        if (head == null) {
+            table.setBucketAt(tableIndex, new Node<>(key, value, hashCode));
+            return 1;
+        }
+        if (head instanceof ForwardingNode)
+            return -1;
+        if (head instanceof TreeBin) {
+            final TreeNode<K, V> existing = ((TreeBin<K, V>) head).putTreeVal(hashCode, key, value);
+            if (existing == null)
+                return 1;
+            swapValue(existing, value);
+            return 0;
+        }
+
+        int chainLength = 1;
+        Node<K, V> temp = head;
+        for (; ; temp = temp.next, ++chainLength) {
+            if (temp.hashCode == hashCode && temp.key.equals(key)) {
+                swapValue(temp, value);
+                return 0;
+            }
+            if (temp.next == null)
+                break;
+        }
+        temp.next = new Node<>(key, value, hashCode);
+        return chainLength + 1;
+    }
+
+    /**
+     * The locked part of a remove; the caller holds the stripe of {@code tableIndex} and has checked
+     * that {@code head} is not a {@link ForwardingNode}. Does not touch the stripe count.
+     *
+     * @return the removed value, or {@code null}
+     */
+    private static <K, V> V removeLocked(final Table<K, V> table, final int tableIndex, final Node<K, V> head,
+                                         final int hashCode, final Object key) {
+        if (head instanceof TreeBin) {
+            final TreeBin<K, V> bin = (TreeBin<K, V>) head;
+            final TreeNode<K, V> node = bin.root == null ? null : bin.root.findTreeNode(hashCode, key, null);
+            if (node == null)
+                return null;
+            final V lastValue = swapValue(node, DEAD);
+            if (bin.removeTreeNode(node))
+                table.setBucketAt(tableIndex, untreeify(bin.first));
+            return lastValue;
+        }
+
+        Node<K, V> previous = null;
+        for (Node<K, V> temp = head; temp != null; previous = temp, temp = temp.next) {
+            if (temp.hashCode == hashCode && temp.key.equals(key)) {
+                final V lastValue = swapValue(temp, DEAD);
+                if (previous == null)
+                    table.setBucketAt(tableIndex, temp.next);
+                else
+                    previous.next = temp.next;
+                return lastValue;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the value of {@code node}, or of the node that replaced it, or {@code null} if its key
+     * has been removed
+     */
+    private V currentValue(Node<K, V> node) {
+        V value;
+        while ((value = node.value) == DEAD) {
+            // removed or copied; the bucket is consistent again once its stripe is released
+            Thread.onSpinWait();
+            if ((node = this.findNode(node.hashCode, node.key)) == null)
+                return null;
+        }
+        return value;
+    }
+
+    /**
+     * Lock-free lookup shared by {@link #get} and {@link #addAndGet}.
+     */
+    private Node<K, V> findNode(final int hashCode, final Object key) {
+        Table<K, V> table = this.table;
+        while (true) {
+            Node<K, V> node = table.bucketAt(table.indexFor(hashCode));
+            if (node instanceof ForwardingNode) {
+                table = ((ForwardingNode<K, V>) node).nextTable;
+                continue;
+            }
+            if (node instanceof TreeBin)
+                return ((TreeBin<K, V>) node).find(hashCode, key);
             while (node != null) {
-                if (node.key.equals(key))
-                    return node.value;
+                if (node.hashCode == hashCode && node.key.equals(key))
+                    return node;
                 node = node.next;
             }
+            return null;
+        }
+    }
+
+    /**
+     * Shared body of the compute family, done under a single acquisition of the bucket's stripe.
+     * If the key is absent, {@code mappingFunction} (if any) supplies the value to insert. If it is
+     * present, {@code remappingFunction} (if any) replaces the value, and a {@code null} result
+     * removes the mapping.
+     *
+     * @return the previous value if {@code returnPrevious}, else the value now mapped
+     */
+    private V doCompute(final K key,
+                        final Function<? super K, ? extends V> mappingFunction,
+                        final BiFunction<? super K, ? super V, ? extends V> remappingFunction,
+                        final boolean returnPrevious) {
+        if (key == null)
+            throw new RuntimeException("key cannot be null");
+
+        final int hashCode = spread(key.hashCode());
+
+        Table<K, V> table = this.table;
+        while (true) {
+            final int tableIndex = table.indexFor(hashCode);
+            final Stripe lock = this.stripeFor(tableIndex);
+            Table<K, V> nextTable = null;
+            int binCount = 0;
+            int delta = 0;
+            long stripeCount = 0;
+            V previous = null, value = null;
+            try {
+                lock.lock();
+
+                final Node<K, V> head = table.bucketAt(tableIndex);
+                if (head instanceof ForwardingNode) {
+                    nextTable = ((ForwardingNode<K, V>) head).nextTable;
+                } else if (head instanceof TreeBin) {
+                    final TreeBin<K, V> bin = (TreeBin<K, V>) head;
+                    final TreeNode<K, V> node = bin.root == null ? null : bin.root.findTreeNode(hashCode, key, null);
+                    if (node == null) {
+                        if (mappingFunction != null && (value = mappingFunction.apply(key)) != null) {
+                            bin.putTreeVal(hashCode, key, value);
+                            delta = 1;
+                        }
+                    } else {
+                        previous = value = node.value;
+                        if (remappingFunction != null && (value = remap(node, key, remappingFunction)) == null) {
+                            if (bin.removeTreeNode(node))
+                                table.setBucketAt(tableIndex, untreeify(bin.first));
+                            delta = -1;
+                        }
+                    }
+                } else {
+                    Node<K, V> previousNode = null, node = head;
+                    for (; node != null; previousNode = node, node = node.next) {
+                        ++binCount;
+                        if (node.hashCode == hashCode && node.key.equals(key))
+                            break;
+                    }
+
+                    if (node == null) {
+                        if (mappingFunction != null && (value = mappingFunction.apply(key)) != null) {
+                            final Node<K, V> created = new Node<>(key, value, hashCode);
+                            if (previousNode == null)
+                                table.setBucketAt(tableIndex, created);
+                            else
+                                previousNode.next = created;
+                            delta = 1;
+                        }
+                    } else {
+                        previous = value = node.value;
+                        if (remappingFunction != null && (value = remap(node, key, remappingFunction)) == null) {
+                            if (previousNode == null)
+                                table.setBucketAt(tableIndex, node.next);
+                            else
+                                previousNode.next = node.next;
+                            delta = -1;
+                        }
+                    }
+                }
+                if (delta != 0)
+                    stripeCount = lock.addCount(delta);
+            } finally {
+                lock.unlock();
+                if (nextTable == null)
+                    this.helpTransfer();
+            }
+
+            if (nextTable != null) {
+                table = nextTable;
+                continue;
+            }
+
+            if (delta > 0) {
+                if (binCount >= TREEIFY_THRESHOLD)
+                    this.treeifyBin(table, tableIndex);
+                this.checkResize(stripeCount);
+            }
+            return returnPrevious ? previous : value;
+        }
+    }
+
+    /**
+     * Values of live nodes are swapped atomically, because {@link #addAndGet} updates them without the
+     * stripe.
+     */
+    @SuppressWarnings("unchecked")
+    private static <K, V> V swapValue(final Node<K, V> node, final Object value) {
+        return (V) VALUE.getAndSet(node, value);
+    }
+
+    /**
+     * Applies {@code remappingFunction} to a live node while its stripe is held. If {@link #addAndGet}
+     * changed the value in between, the function is applied again to the newer value. A {@code null}
+     * result seals the node with {@link #DEAD}; the caller unlinks it.
+     */
+    private static <K, V> V remap(final Node<K, V> node, final K key,
+                                  final BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        V previous = node.value;
+        while (true) {
+            final V value = remappingFunction.apply(key, previous);
+            if (VALUE.compareAndSet(node, previous, value == null ? DEAD : value))
+                return value;
+            previous = node.value;
+        }
+    }
+
+    /**
+     * Exact number of mappings: holds every stripe, in index order, while summing their counts, so
+     * it blocks writers for the duration. Prefer {@link #approximateSize()} unless exactness matters.
+     */
+    public long size() {
+        this.lockAllStripes();
+        try {
+            long size = 0;
+            for (final Stripe stripe : this.stripes)
+                size += stripe.count;
+            return size;
         } finally {
-            this.locks[tableIndex].readLock().unlock();
+            this.unlockAllStripes();
         }
+    }
 
-        return null;
+    /**
+     * Sum of the stripe counts read without locking. Never blocks and never writes a shared line,
+     * but may miss updates that are in flight.
+     */
+    public long approximateSize() {
+        long size = 0;
+        for (final Stripe stripe : this.stripes)
+            size += stripe.count();
+        return Math.max(0, size);
     }
 
-    public V remove(final K key) {
-        if (key == null)
+    public int getSize() {
+        return (int) Math.min(Integer.MAX_VALUE, this.size());
+    }
+
+    public int getCapacity() {
+        return this.table.buckets.length;
+    }
+
+    public int getConcurrencyLevel() {
+        return this.stripes.length;
+    }
+
+    public Iterator<K> keyIterator() {
+        return new BaseIterator<>(this.table) {
+            @Override
+            K element(final K key, final V value) {
+                return key;
+            }
+        };
+    }
+
+    public Iterator<V> valueIterator() {
+        return new BaseIterator<>(this.table) {
+            @Override
+            V element(final K key, final V value) {
+                return value;
+            }
+        };
+    }
+
+    public Iterator<Map.Entry<K, V>> entryIterator() {
+        return new BaseIterator<>(this.table) {
+            @Override
+            Map.Entry<K, V> element(final K key, final V value) {
+                return new AbstractMap.SimpleImmutableEntry<>(key, value);
+            }
+        };
+    }
+
+    /*
+     * Bulk operations. Each takes a parallelismThreshold: the map is scanned sequentially by the
+     * calling thread while it holds fewer mappings than that, and split across the common
+     * ForkJoinPool otherwise. Long.MAX_VALUE never parallelizes, 1 always does. Like the iterators
+     * they are weakly consistent, and the functions passed in must not depend on visiting order.
+     */
+
+    public void forEach(final long parallelismThreshold, final BiConsumer<? super K, ? super V> action) {
+        if (action == null)
+            throw new NullPointerException();
+        this.bulk(parallelismThreshold, traverser -> {
+            while (traverser.advance())
+                action.accept(traverser.key, traverser.value);
             return null;
+        }, (a, b) -> null);
+    }
 
-        if (this.getSize() == 0)
+    /**
+     * @return a non-null result of {@code searchFunction} for some mapping, or {@code null}; once a
+     * result is found the remaining tasks stop early
+     */
+    public <U> U search(final long parallelismThreshold,
+                        final BiFunction<? super K, ? super V, ? extends U> searchFunction) {
+        if (searchFunction == null)
+            throw new NullPointerException();
+        final AtomicReference<U> result = new AtomicReference<>();
+        this.bulk(parallelismThreshold, traverser -> {
+            while (result.get() == null && traverser.advance()) {
+                final U found = searchFunction.apply(traverser.key, traverser.value);
+                if (found != null) {
+                    result.compareAndSet(null, found);
+                    break;
+                }
+            }
             return null;
+        }, (a, b) -> null);
+        return result.get();
+    }
 
-        final int hashCode = Objects.hash(key);
-        final int tableIndex = hashCode % this.table.length;
+    /**
+     * Combines the non-null results of {@code transformer} with {@code reducer}, which must be
+     * associative.
+     *
+     * @return the reduction, or {@code null} if no mapping was transformed to a non-null value
+     */
+    public <U> U reduce(final long parallelismThreshold,
+                        final BiFunction<? super K, ? super V, ? extends U> transformer,
+                        final BiFunction<? super U, ? super U, ? extends U> reducer) {
+        if (transformer == null || reducer == null)
+            throw new NullPointerException();
+        final BinaryOperator<U> combiner = (a, b) -> a == null ? b : b == null ? a : reducer.apply(a, b);
+        return this.bulk(parallelismThreshold, traverser -> {
+            U result = null;
+            while (traverser.advance())
+                result = combiner.apply(result, transformer.apply(traverser.key, traverser.value));
+            return result;
+        }, combiner);
+    }
 
-        if (this.table[tableIndex] == null)
-            return null;
+    /**
+     * @param basis the identity of {@code reducer}; it is folded in once per split of the table
+     */
+    public long mapReduceToLong(final long parallelismThreshold,
+                                final ToLongBiFunction<? super K, ? super V> transformer,
+                                final long basis, final LongBinaryOperator reducer) {
+        if (transformer == null || reducer == null)
+            throw new NullPointerException();
+        return this.bulk(parallelismThreshold, traverser -> {
+            long result = basis;
+            while (traverser.advance())
+                result = reducer.applyAsLong(result, transformer.applyAsLong(traverser.key, traverser.value));
+            return result;
+        }, (a, b) -> reducer.applyAsLong(a, b));
+    }
 
-        try {
-            this.locks[tableIndex].writeLock().lock();
-            Node<K, V> temp = this.table[tableIndex];
-            while (temp.next != null) {
-                if (temp.next.hashCode == hashCode && temp.next.key.equals(key)) {
-                    final V lastValue = temp.next.value;
-                    temp.next = temp.next.next;
-                    this.size.decrementAndGet();
-                    return lastValue;
+    private <R> R bulk(final long parallelismThreshold, final Function<Traverser, R> leaf,
+                       final BinaryOperator<R> combiner) {
+        final Table<K, V> table = this.table;
+        final int batch = this.batchFor(parallelismThreshold);
+        if (batch <= 1)
+            return leaf.apply(new Traverser(table, 0, table.buckets.length));
+        return ForkJoinPool.commonPool().invoke(
+                new BulkTask<>(table, 0, table.buckets.length, batch, leaf, combiner));
+    }
+
+    /**
+     * @return how many leaf tasks to split a bulk operation into: one per {@code parallelismThreshold}
+     * mappings, capped at four per worker of the common pool
+     */
+    private int batchFor(final long parallelismThreshold) {
+        long size;
+        if (parallelismThreshold == Long.MAX_VALUE || (size = this.approximateSize()) <= parallelismThreshold)
+            return 1;
+        final int parallelism = ForkJoinPool.getCommonPoolParallelism() << 2;
+        return parallelismThreshold <= 0 || (size /= parallelismThreshold) >= parallelism
+                ? parallelism
+                : (int) size;
+    }
+
+    /**
+     * Writes a snapshot of the map to {@code path}, replacing it atomically.
+     * <p>
+     * Writers keep going: each stripe is held for at most {@link #SNAPSHOT_BATCH_BUCKETS} of its
+     * buckets at a time, just long enough to copy out references to their keys and values, and the
+     * batch is encoded and written after the stripe is released. Like the bulk operations, the
+     * snapshot is weakly consistent: every mapping present for the whole call is written exactly once,
+     * and mappings added or removed meanwhile may or may not be. Values changed in place by
+     * {@link #addAndGet} do not take a stripe and may be caught mid-update.
+     * <p>
+     * The file has one chunk per stripe, or per bucket while the table is still smaller than the
+     * stripe array, holding the records whose bucket index is congruent to the chunk's index modulo
+     * the chunk count, in this table and in any larger one, including the one sized for the snapshot.
+     * The chunk offsets are kept in the header, which lets {@link #readSnapshot} link chains straight
+     * into a presized table from several threads.
+     *
+     * @return the number of entries written
+     */
+    public long writeSnapshot(final Path path, final Serializer<? super K> keySerializer,
+                              final Serializer<? super V> valueSerializer) throws IOException {
+        if (keySerializer == null || valueSerializer == null)
+            throw new NullPointerException();
+
+        // later tables are reached through the forwarding nodes of this one
+        final Table<K, V> table = this.table;
+        final int chunks = Math.min(this.stripes.length, table.buckets.length);
+        final long batchStride = (long) chunks * SNAPSHOT_BATCH_BUCKETS;
+        Object[] keys = new Object[SNAPSHOT_BATCH_BUCKETS], values = new Object[SNAPSHOT_BATCH_BUCKETS];
+        long count = 0;
+
+        final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final int headerBytes = SNAPSHOT_HEADER_BYTES + Long.BYTES * (chunks + 1);
+            final long[] offsets = new long[chunks + 1];
+            final SnapshotOutput output = new SnapshotOutput(channel, headerBytes);
+            for (int c = 0; c < chunks; ++c) {
+                offsets[c] = output.position();
+                // buckets c, c + chunks, ... and the ones their keys are moved to by a resize are the
+                // buckets of stripes c, c + chunks, ..., which are more than one only while the table
+                // is smaller than the stripe array
+                for (long first = c; first < table.buckets.length; first += batchStride) {
+                    final int limit = (int) Math.min(table.buckets.length, first + batchStride);
+                    int size = 0;
+                    for (int i = c; i < this.stripes.length; i += chunks)
+                        this.stripes[i].lock();
+                    try {
+                        for (int i = (int) first; i < limit; i += chunks) {
+                            final Traverser traverser = new Traverser(table, i, i + 1);
+                            while (traverser.advance()) {
+                                if (size == keys.length) {
+                                    keys = Arrays.copyOf(keys, size << 1);
+                                    values = Arrays.copyOf(values, size << 1);
+                                }
+                                keys[size] = traverser.key;
+                                values[size++] = traverser.value;
+                            }
+                        }
+                    } finally {
+                        for (int i = c; i < this.stripes.length; i += chunks)
+                            this.stripes[i].unlock();
+                    }
+
+                    for (int i = 0; i < size; ++i) {
+                        @SuppressWarnings("unchecked") final K key = (K) keys[i];
+                        @SuppressWarnings("unchecked") final V value = (V) values[i];
+                        output.write(spread(key.hashCode()), key, value, keySerializer, valueSerializer);
+                    }
+                    count += size;
                 }
-                temp = temp.next;
             }
-        } finally {
-            this.locks[tableIndex].writeLock().unlock();
+            offsets[chunks] = output.position();
+            output.flush();
+
+            final int capacity = Math.max(chunks,
+                    tableSizeFor((int) Math.min(MAXIMUM_CAPACITY, (long) (count / this.loadFactor) + 1)));
+            final ByteBuffer header = ByteBuffer.allocate(headerBytes)
+                    .putInt(SNAPSHOT_MAGIC)
+                    .putInt(SNAPSHOT_VERSION)
+                    .putInt(capacity)
+                    .putFloat(this.loadFactor)
+                    .putInt(this.stripes.length)
+                    .putLong(count)
+                    .putInt(chunks);
+            for (final long offset : offsets)
+                header.putLong(offset);
+            header.flip();
+            for (long position = 0; header.hasRemaining(); )
+                position += channel.write(header, position);
+            channel.force(false);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    /**
+     * Loads a file written by {@link #writeSnapshot}. The file is memory-mapped and its chunks are
+     * decoded in parallel on the common {@link ForkJoinPool}; each record is linked directly into its
+     * bucket of a table of the final size, with no hashing, locking, comparisons or resizing.
+     */
+    public static <K, V> ConcurrentHashMap<K, V> readSnapshot(final Path path,
+                                                            final Serializer<? extends K> keySerializer,
+                                                            final Serializer<? extends V> valueSerializer)
+            throws IOException {
+        if (keySerializer == null || valueSerializer == null)
+            throw new NullPointerException();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+             Arena arena = Arena.ofShared()) {
+            final long fileSize = channel.size();
+            if (fileSize < SNAPSHOT_HEADER_BYTES)
+                throw new IOException("not a snapshot: " + path);
+            final MemorySegment file = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize, arena);
+
+            final ByteBuffer header = file.asSlice(0, SNAPSHOT_HEADER_BYTES).asByteBuffer();
+            if (header.getInt() != SNAPSHOT_MAGIC)
+                throw new IOException("not a snapshot: " + path);
+            if (header.getInt() != SNAPSHOT_VERSION)
+                throw new IOException("unsupported snapshot version: " + path);
+            final int capacity = header.getInt();
+            final float loadFactor = header.getFloat();
+            final int concurrencyLevel = header.getInt();
+            final long count = header.getLong();
+            final int chunks = header.getInt();
+            if (Integer.bitCount(capacity) != 1 || Integer.bitCount(chunks) != 1 || chunks > capacity
+                    || Integer.bitCount(concurrencyLevel) != 1 || chunks > concurrencyLevel
+                    || concurrencyLevel > MAXIMUM_CONCURRENCY_LEVEL || SNAPSHOT_HEADER_BYTES + Long.BYTES * (chunks + 1L) > fileSize)
+                throw new IOException("corrupt snapshot header: " + path);
+
+            final ByteBuffer offsets = file.asSlice(SNAPSHOT_HEADER_BYTES, Long.BYTES * (chunks + 1L)).asByteBuffer();
+            final long[] chunkOffsets = new long[chunks + 1];
+            for (int c = 0; c <= chunks; ++c) {
+                chunkOffsets[c] = offsets.getLong();
+                if (chunkOffsets[c] > fileSize || (c > 0 && chunkOffsets[c] < chunkOffsets[c - 1]))
+                    throw new IOException("corrupt snapshot offsets: " + path);
+            }
+
+            final ConcurrentHashMap<K, V> map;
+            final long[] stripeCounts;
+            try {
+                map = new ConcurrentHashMap<>(capacity, loadFactor, concurrencyLevel);
+                final Table<K, V> table = map.table;
+                final int stripeMask = map.stripes.length - 1;
+                stripeCounts = IntStream.range(0, chunks).parallel()
+                        .mapToObj(c -> readChunk(
+                                file.asSlice(chunkOffsets[c], chunkOffsets[c + 1] - chunkOffsets[c]).asByteBuffer(),
+                                table, c, chunks, stripeMask, keySerializer, valueSerializer))
+                        .reduce(new long[stripeMask + 1], (a, b) -> {
+                            final long[] sum = new long[a.length];
+                            for (int i = 0; i < sum.length; ++i)
+                                sum[i] = a[i] + b[i];
+                            return sum;
+                        });
+            } catch (RuntimeException e) {
+                // truncated fields, bad lengths or records in the wrong chunk, including what the
+                // serializers make of the bytes they are handed
+                throw new IOException("corrupt snapshot: " + path, e);
+            }
+
+            long loaded = 0;
+            for (int i = 0; i < stripeCounts.length; ++i) {
+                // the map is not published yet, so nobody else can hold the stripe
+                map.stripes[i].addCount(stripeCounts[i]);
+                loaded += stripeCounts[i];
+            }
+            if (loaded != count)
+                throw new IOException("corrupt snapshot: expected " + count + " entries, read " + loaded);
+            return map;
         }
+    }
 
+    /**
+     * Links the records of chunk {@code chunk} into its buckets, those congruent to it modulo
+     * {@code chunks}, which no other chunk touches.
+     *
+     * @return the number of entries per stripe
+     */
+    private static <K, V> long[] readChunk(final ByteBuffer input, final Table<K, V> table, final int chunk,
+                                           final int chunks, final int stripeMask,
+                                           final Serializer<? extends K> keySerializer,
+                                           final Serializer<? extends V> valueSerializer) {
+        final int[] chainLengths = new int[table.buckets.length / chunks];
+        final long[] stripeCounts = new long[stripeMask + 1];
+        final Node<K, V>[] buckets = table.buckets;
+        while (input.hasRemaining()) {
+            final int hashCode = input.getInt();
+            final K key = readField(input, keySerializer);
+            final V value = readField(input, valueSerializer);
+            final int index = table.indexFor(hashCode);
+            if ((index & (chunks - 1)) != chunk || key == null || value == null)
+                throw new IllegalStateException("corrupt snapshot record in bucket " + index);
+
+            final Node<K, V> node = new Node<>(key, value, hashCode);
+            node.next = buckets[index];
+            buckets[index] = node;
+            ++chainLengths[index / chunks];
+            ++stripeCounts[index & stripeMask];
+        }
+        for (int i = 0; i < chainLengths.length; ++i)
+            if (chainLengths[i] >= TREEIFY_THRESHOLD) {
+                final int index = chunk + i * chunks;
+                buckets[index] = bin(buckets[index], chainLengths[i], table);
+            }
+        return stripeCounts;
+    }
+
+    private static <T> T readField(final ByteBuffer input, final Serializer<? extends T> serializer) {
+        final int length = input.getInt();
+        final T field = serializer.read(input.slice(input.position(), length));
+        input.position(input.position() + length);
+        return field;
+    }
+
+    /** Acquires every stripe in index order, the one order in which several stripes may be held. */
+    private void lockAllStripes() {
+        for (final Stripe stripe : this.stripes)
+            stripe.lock();
+    }
+
+    private void unlockAllStripes() {
+        for (int i = this.stripes.length - 1; i >= 0; --i)
+            this.stripes[i].unlock();
+    }
+
+    private Stripe stripeFor(final int tableIndex) {
+        return this.stripes[tableIndex & (this.stripes.length - 1)];
+    }
+
+    /**
+     * Folds the high bits of {@code hashCode} into the low bits that pick the bucket, so keys that
+     * differ only in their upper bits (long common prefixes, small floats, ...) still spread out.
+     */
+    private static int spread(final int hashCode) {
+        return (hashCode ^ (hashCode >>> 16)) & HASH_BITS;
+    }
+
+    private static int tableSizeFor(final int capacity) {
+        if (capacity <= 1)
+            return 1;
+        return Math.min(MAXIMUM_CAPACITY, Integer.highestOneBit(capacity - 1) << 1);
+    }
+
+    /**
+     * @return the class of {@code x} if it is declared as {@code C implements Comparable<C>}, else null
+     */
+    private static Class<?> comparableClassFor(final Object x) {
+        if (x instanceof Comparable) {
+            final Class<?> c = x.getClass();
+            if (c == String.class)
+                return c;
+            for (final Type type : c.getGenericInterfaces()) {
+                if (type instanceof ParameterizedType) {
+                    final ParameterizedType parameterized = (ParameterizedType) type;
+                    final Type[] arguments = parameterized.getActualTypeArguments();
+                    if (parameterized.getRawType() == Comparable.class && arguments.length == 1 && arguments[0] == c)
+                        return c;
+                }
+            }
+        }
         return null;
     }
 
-    public int getSize() {
-        return size.get();
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static int compareComparables(final Class<?> keyClass, final Object key, final Object other) {
+        return other == null || other.getClass() != keyClass ? 0 : ((Comparable) key).compareTo(other);
+    }
+
+    /**
+     * Fallback ordering for keys with equal hashes that are not mutually comparable. It only needs to
+     * be consistent for insertion; lookups of such keys search both subtrees.
+     */
+    private static int tieBreakOrder(final Object a, final Object b) {
+        int order;
+        if (a == null || b == null || (order = a.getClass().getName().compareTo(b.getClass().getName())) == 0)
+            order = System.identityHashCode(a) <= System.identityHashCode(b) ? -1 : 1;
+        return order;
+    }
+
+    /**
+     * Replaces a long chain by a {@link TreeBin}, or grows a small table instead. Called without
+     * holding any stripe, since starting a resize may move buckets of other stripes.
+     */
+    private void treeifyBin(final Table<K, V> table, final int tableIndex) {
+        if (table.buckets.length < MIN_TREEIFY_CAPACITY) {
+            this.startResize(table);
+            return;
+        }
+
+        final ReentrantLock lock = this.stripeFor(tableIndex);
+        try {
+            lock.lock();
+            final Node<K, V> head = table.bucketAt(tableIndex);
+            if (head == null || head instanceof ForwardingNode || head instanceof TreeBin)
+                return;
+            table.setBucketAt(tableIndex, new TreeBin<>(toTreeNodes(head)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copies a chain into tree nodes; the originals stay linked for readers still walking them.
+     */
+    private static <K, V> TreeNode<K, V> toTreeNodes(final Node<K, V> head) {
+        TreeNode<K, V> first = null, last = null;
+        for (Node<K, V> e = head; e != null; e = e.next) {
+            final TreeNode<K, V> node = new TreeNode<>(e.key, swapValue(e, DEAD), e.hashCode, null, null);
+            if ((node.prev = last) == null)
+                first = node;
+            else
+                last.next = node;
+            last = node;
+        }
+        return first;
+    }
+
+    private static <K, V> Node<K, V> untreeify(final Node<K, V> first) {
+        Node<K, V> head = null, tail = null;
+        for (Node<K, V> e = first; e != null; e = e.next) {
+            final Node<K, V> node = new Node<>(e.key, swapValue(e, DEAD), e.hashCode);
+            if (tail == null)
+                head = node;
+            else
+                tail.next = node;
+            tail = node;
+        }
+        return head;
+    }
+
+    /**
+     * Called after an insertion with the new count of the stripe it went through. Only when that
+     * stripe alone, scaled by the stripe count, suggests the table is over its threshold are the
+     * other stripes summed, so the common insertion reads no line but its own stripe's.
+     */
+    private void checkResize(final long stripeCount) {
+        final Table<K, V> table = this.table;
+        if (stripeCount * this.stripes.length > table.threshold && this.approximateSize() > table.threshold)
+            this.startResize(table);
+    }
+
+    /**
+     * Starts doubling {@code expected} unless it has been replaced or a resize is already running.
+     * Only one thread can win {@link #resizeStarting}, so the table it reads cannot be replaced
+     * underneath it.
+     */
+    private void startResize(final Table<K, V> expected) {
+        if (this.resize.get() != null || !this.resize.compareAndSet(null, this.resizeStarting))
+            return;
+
+        final Table<K, V> table = this.table;
+        final int capacity = table.buckets.length;
+        if (table != expected || capacity >= MAXIMUM_CAPACITY) {
+            this.resize.set(null);
+            return;
+        }
+
+        this.resize.set(new Resize<>(table, new Table<>(capacity << 1, this.loadFactor)));
+        this.helpTransfer();
     }
 
-    public static void main(String[] args) throws InterruptedException {
+    /**
+     * Moves one stride of buckets of an in-flight resize, so the rehash is spread across writers
+     * instead of pausing a single one.
+     */
+    private void helpTransfer() {
+        final Resize<K, V> resize = this.resize.get();
+        if (resize == null)
+            return;
+
+        int index, bound;
+        do {
+            index = resize.transferIndex.get();
+            if (index <= 0)
+                return;
+            bound = Math.max(0, index - TRANSFER_STRIDE);
+        } while (!resize.transferIndex.compareAndSet(index, bound));
+
+        for (int i = index - 1; i >= bound; --i)
+            this.transferBucket(resize, i);
+
+        if (resize.remaining.addAndGet(bound - index) == 0) {
+            this.table = resize.nextTable;
+            this.resize.set(null);
+        }
+    }
+
+    /**
+     * Copies bucket {@code i} into buckets {@code i} and {@code i + n} of the next table. The old nodes
+     * stay linked because readers may still be walking them, but their values are sealed with
+     * {@link #DEAD}. Each bucket of the next table is fed by exactly one bucket of the old one, and
+     * nobody else reaches it before the forwarding node is published, so only the old bucket's stripe
+     * is needed.
+     */
+    private void transferBucket(final Resize<K, V> resize, final int tableIndex) {
+        final Table<K, V> nextTable = resize.nextTable;
+        final int length = resize.table.buckets.length;
+        final ReentrantLock lock = this.stripeFor(tableIndex);
+        try {
+            lock.lock();
+            final Node<K, V> head = resize.table.bucketAt(tableIndex);
+            Node<K, V> low = null, high = null;
+            int lowCount = 0, highCount = 0;
+            for (Node<K, V> node = head instanceof TreeBin ? ((TreeBin<K, V>) head).first : head;
+                 node != null; node = node.next) {
+                final Node<K, V> copy = new Node<>(node.key, swapValue(node, DEAD), node.hashCode);
+                if ((node.hashCode & length) == 0) {
+                    copy.next = low;
+                    low = copy;
+                    ++lowCount;
+                } else {
+                    copy.next = high;
+                    high = copy;
+                    ++highCount;
+                }
+            }
+            nextTable.setBucketAt(tableIndex, bin(low, lowCount, nextTable));
+            nextTable.setBucketAt(tableIndex + length, bin(high, highCount, nextTable));
+            resize.table.setBucketAt(tableIndex, new ForwardingNode<>(nextTable));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static <K, V> Node<K, V> bin(final Node<K, V> head, final int count, final Table<K, V> table) {
+        return count >= TREEIFY_THRESHOLD && table.buckets.length >= MIN_TREEIFY_CAPACITY
+                ? new TreeBin<>(toTreeNodes(head))
+                : head;
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
         final ConcurrentHashMap<String, String> map = new ConcurrentHashMap<>(1);
         map.put("a", "b");
         System.out.println(map.get("a"));
@@ -160,6 +2179,151 @@ public class ConcurrentHashMap<K, V> {
         System.out.println(map.getSize());
         System.out.println(map.get("a"));
         System.out.println(map.get("b"));
+
+        final ConcurrentHashMap<Integer, Integer> growing = new ConcurrentHashMap<>(16);
+        final Thread[] writers = new Thread[4];
+        for (int w = 0; w < writers.length; ++w) {
+            final int offset = w;
+            writers[w] = new Thread(() -> {
+                for (int i = offset; i < 1_000_000; i += writers.length)
+                    growing.put(i, i);
+            });
+            writers[w].start();
+        }
+        for (final Thread writer : writers)
+            writer.join();
+
+        int missing = 0;
+        for (int i = 0; i < 1_000_000; ++i)
+            if (!Integer.valueOf(i).equals(growing.get(i)))
+                ++missing;
+        System.out.println("size: " + growing.getSize() + ", capacity: " + growing.getCapacity()
+                + ", missing: " + missing);
+
+        // "Aa" and "BB" share a hash code, so every string made of them collides into one bucket
+        final ConcurrentHashMap<String, Integer> colliding = new ConcurrentHashMap<>(64);
+        final String[] keys = new String[1 << 12];
+        for (int i = 0; i < keys.length; ++i) {
+            final StringBuilder key = new StringBuilder();
+            for (int bit = 0; bit < 12; ++bit)
+                key.append((i & (1 << bit)) == 0 ? "Aa" : "BB");
+            keys[i] = key.toString();
+            colliding.put(keys[i], i);
+        }
+        final long start = System.nanoTime();
+        int found = 0;
+        for (int round = 0; round < 100; ++round)
+            for (final String key : keys)
+                if (colliding.get(key) != null)
+                    ++found;
+        System.out.println("colliding keys found: " + found + " in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+        for (int i = 0; i < keys.length - 4; ++i)
+            colliding.remove(keys[i]);
+        System.out.println("after removals: " + colliding.getSize() + ", " + colliding.get(keys[keys.length - 1]));
+
+        final ConcurrentHashMap<String, Long> wordCounts = new ConcurrentHashMap<>(16);
+        final String[] words = "the quick brown fox jumps over the lazy dog the end".split(" ");
+        final Thread[] counters = new Thread[4];
+        for (int c = 0; c < counters.length; ++c) {
+            counters[c] = new Thread(() -> {
+                for (int i = 0; i < 100_000; ++i)
+                    wordCounts.addAndGet(words[i % words.length], 1L);
+            });
+            counters[c].start();
+        }
+        for (final Thread counter : counters)
+            counter.join();
+        wordCounts.merge("fox", 1L, Long::sum);
+        System.out.println("the: " + wordCounts.get("the") + ", fox: " + wordCounts.get("fox")
+                + ", cat: " + wordCounts.computeIfAbsent("cat", k -> 0L)
+                + ", dog removed: " + wordCounts.computeIfPresent("dog", (k, v) -> null)
+                + ", size: " + wordCounts.getSize());
+
+        int iterated = 0;
+        for (final Iterator<Map.Entry<String, Long>> entries = wordCounts.entryIterator(); entries.hasNext(); ) {
+            final Map.Entry<String, Long> entry = entries.next();
+            if (entry.getKey().startsWith("t"))
+                entries.remove();
+            ++iterated;
+        }
+        System.out.println("iterated: " + iterated + ", left after removing t*: " + wordCounts.getSize());
+
+        final ConcurrentHashMap<Integer, Integer> large = new ConcurrentHashMap<>(1 << 22);
+        final Thread[] fillers = new Thread[4];
+        for (int w = 0; w < fillers.length; ++w) {
+            final int offset = w;
+            fillers[w] = new Thread(() -> {
+                for (int i = offset; i < 4_000_000; i += fillers.length)
+                    large.put(i, i);
+            });
+            fillers[w].start();
+        }
+        for (final Thread filler : fillers)
+            filler.join();
+        for (final long threshold : new long[] {Long.MAX_VALUE, 10_000}) {
+            final long scanStart = System.nanoTime();
+            final long sum = large.mapReduceToLong(threshold, (k, v) -> v, 0L, Long::sum);
+            final Integer max = large.reduce(threshold, (k, v) -> v, Math::max);
+            final Integer hit = large.search(threshold, (k, v) -> v == 3_999_999 ? k : null);
+            System.out.println("threshold " + threshold + ": sum " + sum + ", max " + max + ", search " + hit
+                    + " in " + (System.nanoTime() - scanStart) / 1_000_000 + " ms");
+        }
+
+        final Path snapshot = Files.createTempFile("concurrent-hash-map", ".snapshot");
+        try {
+            final ConcurrentHashMap<String, Long> counts = new ConcurrentHashMap<>(16);
+            for (int i = 0; i < 1_000_000; ++i)
+                counts.put("key-" + i, (long) i);
+
+            long snapshotStart = System.nanoTime();
+            final long written = counts.writeSnapshot(snapshot, Serializer.STRING, Serializer.LONG);
+            System.out.println("snapshot of " + written + " entries, " + Files.size(snapshot) + " bytes in "
+                    + (System.nanoTime() - snapshotStart) / 1_000_000 + " ms");
+
+            snapshotStart = System.nanoTime();
+            final ConcurrentHashMap<String, Long> reloaded =
+                    ConcurrentHashMap.readSnapshot(snapshot, Serializer.STRING, Serializer.LONG);
+            final long reloadMillis = (System.nanoTime() - snapshotStart) / 1_000_000;
+            int mismatches = 0;
+            for (int i = 0; i < 1_000_000; ++i)
+                if (!Long.valueOf(i).equals(reloaded.get("key-" + i)))
+                    ++mismatches;
+            System.out.println("reloaded " + reloaded.size() + " entries in " + reloadMillis + " ms, mismatches: "
+                    + mismatches);
+
+            // fewer buckets than stripes, then a table that keeps resizing while it is written
+            final ConcurrentHashMap<Integer, Integer> small = new ConcurrentHashMap<>(1);
+            for (int i = 0; i < 5; ++i)
+                small.put(i, i);
+            final long smallWritten = small.writeSnapshot(snapshot, Serializer.INTEGER, Serializer.INTEGER);
+            System.out.println("small map: wrote " + smallWritten + ", reloaded "
+                    + ConcurrentHashMap.readSnapshot(snapshot, Serializer.INTEGER, Serializer.INTEGER).size());
+
+            int lost = 0;
+            long resizingWritten = 0;
+            for (int round = 0; round < 20; ++round) {
+                final ConcurrentHashMap<Integer, Integer> resizing = new ConcurrentHashMap<>(1);
+                for (int i = 0; i < 5; ++i)
+                    resizing.put(i, i);
+                final Thread resizer = new Thread(() -> {
+                    for (int i = 5; i < 50_000; ++i)
+                        resizing.put(i, i);
+                });
+                resizer.start();
+                resizingWritten += resizing.writeSnapshot(snapshot, Serializer.INTEGER, Serializer.INTEGER);
+                resizer.join();
+                final ConcurrentHashMap<Integer, Integer> regrown =
+                        ConcurrentHashMap.readSnapshot(snapshot, Serializer.INTEGER, Serializer.INTEGER);
+                for (int i = 0; i < 5; ++i)
+                    if (!Integer.valueOf(i).equals(regrown.get(i)))
+                        ++lost;
+            }
+            System.out.println("resizing maps: wrote " + resizingWritten + " entries in 20 snapshots, missing from"
+                    + " before the snapshot: " + lost);
+        } finally {
+            Files.deleteIfExists(snapshot);
+        }
     }
 
 }
@@ -0,0 +1,117 @@
+package code.shubham.collections;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batches of {@code batchSize} random keys applied to {@link ConcurrentHashMap} one {@code put} or
+ * {@code remove} at a time versus through {@link ConcurrentHashMap#putAll} and
+ * {@link ConcurrentHashMap#removeAll}. Scores are batches per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-XX:-RestrictContended", "-XX:ContendedPaddingWidth=64"})
+@Threads(4)
+@State(Scope.Benchmark)
+public class ConcurrentHashMapBatchBenchmark {
+
+    private static final int KEY_SPACE = 1 << 20;
+    private static final int BATCHES = 64;
+
+    @Param({"16", "256", "4096"})
+    public int batchSize;
+
+    private ConcurrentHashMap<Integer, Integer> map;
+    private List<Map<Integer, Integer>> batches;
+    private List<List<Integer>> keyBatches;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        int next() {
+            return this.next++ & (BATCHES - 1);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final SplittableRandom random = new SplittableRandom(42);
+        this.batches = new ArrayList<>(BATCHES);
+        this.keyBatches = new ArrayList<>(BATCHES);
+        for (int b = 0; b < BATCHES; ++b) {
+            final Map<Integer, Integer> batch = new HashMap<>();
+            while (batch.size() < this.batchSize)
+                batch.put(random.nextInt(KEY_SPACE), b);
+            this.batches.add(batch);
+            this.keyBatches.add(new ArrayList<>(batch.keySet()));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void fill() {
+        this.map = new ConcurrentHashMap<>(KEY_SPACE);
+        for (final Map<Integer, Integer> batch : this.batches)
+            this.map.putAll(batch);
+    }
+
+    @Benchmark
+    public void putLoop(final Cursor cursor) {
+        for (final Map.Entry<Integer, Integer> entry : this.batches.get(cursor.next()).entrySet())
+            this.map.put(entry.getKey(), entry.getValue());
+    }
+
+    @Benchmark
+    public void putAll(final Cursor cursor) {
+        this.map.putAll(this.batches.get(cursor.next()));
+    }
+
+    @Benchmark
+    public int removeLoop(final Cursor cursor) {
+        final int batch = cursor.next();
+        int removed = 0;
+        for (final Integer key : this.keyBatches.get(batch))
+            if (this.map.remove(key) != null)
+                ++removed;
+        this.map.putAll(this.batches.get(batch));
+        return removed;
+    }
+
+    @Benchmark
+    public int removeAll(final Cursor cursor) {
+        final int batch = cursor.next();
+        final int removed = this.map.removeAll(this.keyBatches.get(batch));
+        this.map.putAll(this.batches.get(batch));
+        return removed;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ConcurrentHashMapBatchBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+}
@@ -0,0 +1,80 @@
+package code.shubham.collections;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.ref.Reference;
+import java.util.function.IntFunction;
+
+/**
+ * Reports the retained heap per entry of {@link ConcurrentHashMap} next to
+ * {@link java.util.concurrent.ConcurrentHashMap}. Keys and values are allocated up front and shared by
+ * both maps, so only the map structure itself (table, nodes, locks) is measured.
+ */
+public class ConcurrentHashMapFootprint {
+
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+    private static long usedHeap() {
+        for (int i = 0; i < 4; ++i) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return MEMORY.getHeapMemoryUsage().getUsed();
+    }
+
+    private static double bytesPerEntry(final Integer[] keys, final IntFunction<Object> factory) {
+        final long before = usedHeap();
+        final Object map = factory.apply(keys.length);
+        final long after = usedHeap();
+        Reference.reachabilityFence(map);
+        return (double) (after - before) / keys.length;
+    }
+
+    public static void main(String[] args) {
+        final int entries = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        final Integer[] keys = new Integer[entries];
+        for (int i = 0; i < entries; ++i)
+            keys[i] = i;
+
+        System.out.printf("%-55s %10s%n", "map (" + entries + " entries)", "bytes/entry");
+
+        System.out.printf("%-55s %10.1f%n", "code.shubham.collections.ConcurrentHashMap (presized)",
+                bytesPerEntry(keys, n -> {
+                    final ConcurrentHashMap<Integer, Integer> map = new ConcurrentHashMap<>(n * 4 / 3 + 1);
+                    for (final Integer key : keys)
+                        map.put(key, key);
+                    return map;
+                }));
+
+        System.out.printf("%-55s %10.1f%n", "code.shubham.collections.ConcurrentHashMap (grown)",
+                bytesPerEntry(keys, n -> {
+                    final ConcurrentHashMap<Integer, Integer> map = new ConcurrentHashMap<>(16);
+                    for (final Integer key : keys)
+                        map.put(key, key);
+                    return map;
+                }));
+
+        System.out.printf("%-55s %10.1f%n", "java.util.concurrent.ConcurrentHashMap (presized)",
+                bytesPerEntry(keys, n -> {
+                    final java.util.concurrent.ConcurrentHashMap<Integer, Integer> map =
+                            new java.util.concurrent.ConcurrentHashMap<>(n);
+                    for (final Integer key : keys)
+                        map.put(key, key);
+                    return map;
+                }));
+
+        System.out.printf("%-55s %10.1f%n", "java.util.concurrent.ConcurrentHashMap (grown)",
+                bytesPerEntry(keys, n -> {
+                    final java.util.concurrent.ConcurrentHashMap<Integer, Integer> map =
+                            new java.util.concurrent.ConcurrentHashMap<>();
+                    for (final Integer key : keys)
+                        map.put(key, key);
+                    return map;
+                }));
+    }
+
+}
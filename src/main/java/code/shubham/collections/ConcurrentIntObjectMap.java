@@ -0,0 +1,243 @@
+package code.shubham.collections;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Open addressing {@code int -> V} map with unboxed keys. Each segment keeps keys in an {@code int[]}
+ * and values in a parallel {@code Object[]}; a {@code null} value marks an empty slot and
+ * {@link #TOMBSTONE} a removed one, so every {@code int} is a valid key and {@code null} values are not
+ * allowed.
+ * <p>
+ * Locking follows {@link ConcurrentLongLongMap}: optimistic reads, a write lock per segment.
+ */
+public class ConcurrentIntObjectMap<V> {
+
+    private static final Object TOMBSTONE = new Object();
+
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+    private static final float LOAD_FACTOR = 0.6f;
+    private static final int MAXIMUM_SEGMENT_CAPACITY = 1 << 30;
+
+    @jdk.internal.vm.annotation.Contended
+    private static final class Segment extends StampedLock {
+        private int[] keys;
+        private Object[] values;
+        private int size;
+        /** live entries plus tombstones */
+        private int used;
+        private int threshold;
+
+        private Segment(final int capacity) {
+            this.allocate(capacity);
+        }
+
+        private void allocate(final int capacity) {
+            this.keys = new int[capacity];
+            this.values = new Object[capacity];
+            this.used = this.size;
+            this.threshold = (int) (capacity * LOAD_FACTOR);
+        }
+    }
+
+    private final Segment[] segments;
+    private final int segmentShift;
+
+    public ConcurrentIntObjectMap(final int capacity) {
+        this(capacity, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    public ConcurrentIntObjectMap(final int capacity, final int concurrencyLevel) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity cannot be negative");
+        if (concurrencyLevel <= 0)
+            throw new IllegalArgumentException("concurrencyLevel must be positive");
+
+        final int segmentCount = Integer.highestOneBit(Math.min(concurrencyLevel, 1 << 16) * 2 - 1);
+        final int segmentCapacity = ConcurrentLongLongMap.tableSizeFor((int) Math.min(MAXIMUM_SEGMENT_CAPACITY,
+                (long) (capacity / LOAD_FACTOR) / segmentCount + 1));
+
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; ++i)
+            this.segments[i] = new Segment(segmentCapacity);
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(segmentCount);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(final int key) {
+        final int hash = ConcurrentLongLongMap.hash(key);
+        final Segment segment = this.segmentFor(hash);
+
+        long stamp = segment.tryOptimisticRead();
+        final int[] keys = segment.keys;
+        final Object[] values = segment.values;
+        // a rehash between the two reads leaves arrays of different lengths; validate() catches it
+        Object value = keys.length == values.length ? find(keys, values, key, hash) : null;
+        if (!segment.validate(stamp)) {
+            stamp = segment.readLock();
+            try {
+                value = find(segment.keys, segment.values, key, hash);
+            } finally {
+                segment.unlockRead(stamp);
+            }
+        }
+        return (V) value;
+    }
+
+    public boolean containsKey(final int key) {
+        return this.get(key) != null;
+    }
+
+    public V put(final int key, final V value) {
+        return this.put(key, value, false);
+    }
+
+    public V putIfAbsent(final int key, final V value) {
+        return this.put(key, value, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V put(final int key, final V value, final boolean onlyIfAbsent) {
+        if (value == null)
+            throw new RuntimeException("value cannot be null");
+
+        final int hash = ConcurrentLongLongMap.hash(key);
+        final Segment segment = this.segmentFor(hash);
+
+        final long stamp = segment.writeLock();
+        try {
+            final int index = indexOf(segment.keys, segment.values, key, hash);
+            if (index >= 0) {
+                final V lastValue = (V) segment.values[index];
+                if (!onlyIfAbsent)
+                    segment.values[index] = value;
+                return lastValue;
+            }
+            insert(segment, key, value, hash);
+            return null;
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(final int key) {
+        final int hash = ConcurrentLongLongMap.hash(key);
+        final Segment segment = this.segmentFor(hash);
+
+        final long stamp = segment.writeLock();
+        try {
+            final int index = indexOf(segment.keys, segment.values, key, hash);
+            if (index < 0)
+                return null;
+            final V lastValue = (V) segment.values[index];
+            segment.values[index] = TOMBSTONE;
+            --segment.size;
+            return lastValue;
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Sum of the segment sizes read without locking; exact only while no writer is active.
+     */
+    public long size() {
+        long size = 0;
+        for (final Segment segment : this.segments)
+            size += segment.size;
+        return size;
+    }
+
+    private Segment segmentFor(final int hash) {
+        return this.segments[this.segments.length == 1 ? 0 : hash >>> this.segmentShift];
+    }
+
+    private static Object find(final int[] keys, final Object[] values, final int key, final int hash) {
+        final int index = indexOf(keys, values, key, hash);
+        return index >= 0 ? values[index] : null;
+    }
+
+    /**
+     * @return the slot of {@code key}, or -1; bounded by the table length for optimistic readers
+     */
+    private static int indexOf(final int[] keys, final Object[] values, final int key, final int hash) {
+        final int mask = keys.length - 1;
+        int slot = hash & mask;
+        for (int probes = 0; probes <= mask; ++probes) {
+            final Object value = values[slot];
+            if (value == null)
+                return -1;
+            if (value != TOMBSTONE && keys[slot] == key)
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static void insert(final Segment segment, final int key, final Object value, final int hash) {
+        if (segment.used + 1 > segment.threshold)
+            rehash(segment);
+
+        final Object[] values = segment.values;
+        final int mask = values.length - 1;
+        int slot = hash & mask;
+        while (values[slot] != null && values[slot] != TOMBSTONE)
+            slot = (slot + 1) & mask;
+
+        if (values[slot] == null)
+            ++segment.used;
+        segment.keys[slot] = key;
+        values[slot] = value;
+        ++segment.size;
+    }
+
+    private static void rehash(final Segment segment) {
+        final int[] oldKeys = segment.keys;
+        final Object[] oldValues = segment.values;
+        final int oldCapacity = oldKeys.length;
+        final int capacity = segment.size + 1 > segment.threshold / 2 && oldCapacity < MAXIMUM_SEGMENT_CAPACITY
+                ? oldCapacity << 1
+                : oldCapacity;
+
+        segment.allocate(capacity);
+        final int mask = capacity - 1;
+        for (int i = 0; i < oldCapacity; ++i) {
+            final Object value = oldValues[i];
+            if (value == null || value == TOMBSTONE)
+                continue;
+            int slot = ConcurrentLongLongMap.hash(oldKeys[i]) & mask;
+            while (segment.values[slot] != null)
+                slot = (slot + 1) & mask;
+            segment.keys[slot] = oldKeys[i];
+            segment.values[slot] = value;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final ConcurrentIntObjectMap<String> map = new ConcurrentIntObjectMap<>(16);
+        map.put(0, "zero");
+        map.put(-1, "minus one");
+        System.out.println(map.get(0) + " " + map.get(-1));
+        System.out.println(map.putIfAbsent(0, "nothing"));
+        System.out.println(map.remove(0) + " " + map.get(0));
+
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            final int offset = t;
+            threads[t] = new Thread(() -> {
+                for (int i = offset; i < 1_000_000; i += threads.length)
+                    map.put(i, "v" + i);
+            });
+            threads[t].start();
+        }
+        for (final Thread thread : threads)
+            thread.join();
+
+        int missing = 0;
+        for (int i = 0; i < 1_000_000; ++i)
+            if (!("v" + i).equals(map.get(i)))
+                ++missing;
+        System.out.println("size: " + map.size() + ", missing: " + missing);
+    }
+
+}
@@ -0,0 +1,316 @@
+package code.shubham.collections;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Open addressing {@code long -> long} map. Keys and values are stored interleaved in one flat
+ * {@code long[]} per segment, so {@link #get}, {@link #put} and {@link #addAndGet} never box and never
+ * allocate (apart from the occasional rehash of a segment).
+ * <p>
+ * Each segment is guarded by a {@link StampedLock}: writers take the write lock, readers probe under an
+ * optimistic stamp and only fall back to the read lock if a writer got in between.
+ * <p>
+ * {@link #EMPTY} and {@link #TOMBSTONE} mark free and removed slots and therefore cannot be used as keys.
+ */
+public class ConcurrentLongLongMap {
+
+    public static final long EMPTY = Long.MIN_VALUE;
+    public static final long TOMBSTONE = Long.MIN_VALUE + 1;
+
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+    private static final float LOAD_FACTOR = 0.6f;
+    private static final int MINIMUM_SEGMENT_CAPACITY = 8;
+    private static final int MAXIMUM_SEGMENT_CAPACITY = 1 << 29;
+
+    @jdk.internal.vm.annotation.Contended
+    private static final class Segment extends StampedLock {
+        /** key at {@code 2 * slot}, value at {@code 2 * slot + 1}. */
+        private long[] table;
+        private int size;
+        /** live entries plus tombstones, i.e. slots that are no longer {@link #EMPTY} */
+        private int used;
+        private int threshold;
+
+        private Segment(final int capacity) {
+            this.allocate(capacity);
+        }
+
+        private void allocate(final int capacity) {
+            this.table = new long[capacity << 1];
+            Arrays.fill(this.table, EMPTY);
+            this.used = this.size;
+            this.threshold = (int) (capacity * LOAD_FACTOR);
+        }
+    }
+
+    private final Segment[] segments;
+    private final int segmentShift;
+    private final long missingValue;
+
+    public ConcurrentLongLongMap(final int capacity) {
+        this(capacity, DEFAULT_CONCURRENCY_LEVEL, 0L);
+    }
+
+    public ConcurrentLongLongMap(final int capacity, final int concurrencyLevel, final long missingValue) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity cannot be negative");
+        if (concurrencyLevel <= 0)
+            throw new IllegalArgumentException("concurrencyLevel must be positive");
+
+        final int segmentCount = Integer.highestOneBit(Math.min(concurrencyLevel, 1 << 16) * 2 - 1);
+        final int segmentCapacity = tableSizeFor((int) Math.min(MAXIMUM_SEGMENT_CAPACITY,
+                (long) (capacity / LOAD_FACTOR) / segmentCount + 1));
+
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; ++i)
+            this.segments[i] = new Segment(segmentCapacity);
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(segmentCount);
+        this.missingValue = missingValue;
+    }
+
+    /**
+     * @return the value mapped to {@code key}, or the {@code missingValue} this map was created with
+     */
+    public long get(final long key) {
+        if (isReserved(key))
+            return this.missingValue;
+        final int hash = hash(key);
+        final Segment segment = this.segmentFor(hash);
+
+        long stamp = segment.tryOptimisticRead();
+        long value = this.find(segment.table, key, hash);
+        if (!segment.validate(stamp)) {
+            stamp = segment.readLock();
+            try {
+                value = this.find(segment.table, key, hash);
+            } finally {
+                segment.unlockRead(stamp);
+            }
+        }
+        return value;
+    }
+
+    public boolean containsKey(final long key) {
+        if (isReserved(key))
+            return false;
+        final int hash = hash(key);
+        final Segment segment = this.segmentFor(hash);
+
+        long stamp = segment.tryOptimisticRead();
+        boolean found = indexOf(segment.table, key, hash) >= 0;
+        if (!segment.validate(stamp)) {
+            stamp = segment.readLock();
+            try {
+                found = indexOf(segment.table, key, hash) >= 0;
+            } finally {
+                segment.unlockRead(stamp);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the previous value, or {@code missingValue} if there was none
+     */
+    public long put(final long key, final long value) {
+        checkKey(key);
+        final int hash = hash(key);
+        final Segment segment = this.segmentFor(hash);
+
+        final long stamp = segment.writeLock();
+        try {
+            final int index = indexOf(segment.table, key, hash);
+            if (index >= 0) {
+                final long lastValue = segment.table[index + 1];
+                segment.table[index + 1] = value;
+                return lastValue;
+            }
+            insert(segment, key, value, hash);
+            return this.missingValue;
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Adds {@code delta} to the value of {@code key}, treating an absent key as {@code 0}.
+     *
+     * @return the updated value
+     */
+    public long addAndGet(final long key, final long delta) {
+        checkKey(key);
+        final int hash = hash(key);
+        final Segment segment = this.segmentFor(hash);
+
+        final long stamp = segment.writeLock();
+        try {
+            final int index = indexOf(segment.table, key, hash);
+            if (index >= 0)
+                return segment.table[index + 1] += delta;
+            insert(segment, key, delta, hash);
+            return delta;
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return the removed value, or {@code missingValue} if there was none
+     */
+    public long remove(final long key) {
+        if (isReserved(key))
+            return this.missingValue;
+        final int hash = hash(key);
+        final Segment segment = this.segmentFor(hash);
+
+        final long stamp = segment.writeLock();
+        try {
+            final int index = indexOf(segment.table, key, hash);
+            if (index < 0)
+                return this.missingValue;
+            final long lastValue = segment.table[index + 1];
+            segment.table[index] = TOMBSTONE;
+            segment.table[index + 1] = 0L;
+            --segment.size;
+            return lastValue;
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Sum of the segment sizes read without locking; exact only while no writer is active.
+     */
+    public long size() {
+        long size = 0;
+        for (final Segment segment : this.segments)
+            size += segment.size;
+        return size;
+    }
+
+    public long getMissingValue() {
+        return this.missingValue;
+    }
+
+    private Segment segmentFor(final int hash) {
+        return this.segments[this.segments.length == 1 ? 0 : hash >>> this.segmentShift];
+    }
+
+    private long find(final long[] table, final long key, final int hash) {
+        final int index = indexOf(table, key, hash);
+        return index >= 0 ? table[index + 1] : this.missingValue;
+    }
+
+    /**
+     * Linear probe for {@code key}, which must not be reserved. Bounded by the table length so that an optimistic reader racing
+     * with a writer can never spin forever.
+     *
+     * @return the array index of the key, or -1
+     */
+    private static int indexOf(final long[] table, final long key, final int hash) {
+        final int mask = (table.length >> 1) - 1;
+        int slot = hash & mask;
+        for (int probes = 0; probes <= mask; ++probes) {
+            final long candidate = table[slot << 1];
+            if (candidate == key)
+                return slot << 1;
+            if (candidate == EMPTY)
+                return -1;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Inserts a key known to be absent, reusing the first tombstone on its probe path.
+     */
+    private static void insert(final Segment segment, final long key, final long value, final int hash) {
+        if (segment.used + 1 > segment.threshold)
+            rehash(segment);
+
+        final long[] table = segment.table;
+        final int mask = (table.length >> 1) - 1;
+        int slot = hash & mask;
+        while (table[slot << 1] != EMPTY && table[slot << 1] != TOMBSTONE)
+            slot = (slot + 1) & mask;
+
+        if (table[slot << 1] == EMPTY)
+            ++segment.used;
+        table[(slot << 1) + 1] = value;
+        table[slot << 1] = key;
+        ++segment.size;
+    }
+
+    /**
+     * Rebuilds the segment without tombstones, doubling it only if live entries alone need the room.
+     */
+    private static void rehash(final Segment segment) {
+        final long[] oldTable = segment.table;
+        final int oldCapacity = oldTable.length >> 1;
+        final int capacity = segment.size + 1 > segment.threshold / 2 && oldCapacity < MAXIMUM_SEGMENT_CAPACITY
+                ? oldCapacity << 1
+                : oldCapacity;
+
+        segment.allocate(capacity);
+        final long[] table = segment.table;
+        final int mask = capacity - 1;
+        for (int i = 0; i < oldTable.length; i += 2) {
+            final long key = oldTable[i];
+            if (key == EMPTY || key == TOMBSTONE)
+                continue;
+            int slot = hash(key) & mask;
+            while (table[slot << 1] != EMPTY)
+                slot = (slot + 1) & mask;
+            table[slot << 1] = key;
+            table[(slot << 1) + 1] = oldTable[i + 1];
+        }
+    }
+
+    /**
+     * Reserved keys are never mapped: reads treat them as absent and writes reject them.
+     */
+    private static boolean isReserved(final long key) {
+        return key == EMPTY || key == TOMBSTONE;
+    }
+
+    private static void checkKey(final long key) {
+        if (isReserved(key))
+            throw new IllegalArgumentException("key " + key + " is reserved");
+    }
+
+    static int hash(final long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    static int tableSizeFor(final int capacity) {
+        return Math.max(MINIMUM_SEGMENT_CAPACITY, Integer.highestOneBit(Math.max(1, capacity - 1) * 2));
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final ConcurrentLongLongMap map = new ConcurrentLongLongMap(16);
+        map.put(1L, 10L);
+        System.out.println(map.get(1L));
+        System.out.println(map.addAndGet(1L, 5L));
+        System.out.println(map.remove(1L));
+        System.out.println(map.get(1L));
+
+        final Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; ++t) {
+            threads[t] = new Thread(() -> {
+                for (long i = 0; i < 1_000_000; ++i)
+                    map.addAndGet(i & 1023, 1L);
+            });
+            threads[t].start();
+        }
+        for (final Thread thread : threads)
+            thread.join();
+
+        long total = 0;
+        for (long i = 0; i < 1024; ++i)
+            total += map.get(i);
+        System.out.println("keys: " + map.size() + ", total: " + total);
+    }
+
+}
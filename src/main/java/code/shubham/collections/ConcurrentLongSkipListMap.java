@@ -0,0 +1,806 @@
+package code.shubham.collections;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.NoSuchElementException;
+import java.util.OptionalLong;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Lock-free sorted map from primitive {@code long} keys, so time-keyed data is never boxed. The
+ * structure is the one of {@link java.util.concurrent.ConcurrentSkipListMap}: a sorted linked list of
+ * nodes with sparser index levels on top.
+ * <p>
+ * Removing a node takes three CASes, each of which any other thread can complete:
+ * <ol>
+ *     <li>its value is set to {@code null}, which is the linearization point;</li>
+ *     <li>a marker node is appended after it, so nothing can be inserted behind a dying node;</li>
+ *     <li>the node and its marker are unlinked from the predecessor.</li>
+ * </ol>
+ * A marker is recognised by a value that points to itself, the base header by {@link #BASE_HEADER}.
+ * <p>
+ * Range reads go through a {@link Cursor}, which walks the nodes in place; like every traversal of
+ * this map it is weakly consistent.
+ */
+public class ConcurrentLongSkipListMap<V> {
+
+    private static final Object BASE_HEADER = new Object();
+
+    /** Flags of {@link #findNear}. */
+    private static final int EQ = 1;
+    private static final int LT = 2;
+    private static final int GT = 0;
+
+    private static final class Node<V> {
+        private static final VarHandle VALUE;
+        private static final VarHandle NEXT;
+
+        static {
+            try {
+                final MethodHandles.Lookup lookup = MethodHandles.lookup();
+                VALUE = lookup.findVarHandle(Node.class, "value", Object.class);
+                NEXT = lookup.findVarHandle(Node.class, "next", Node.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final long key;
+        private volatile Object value;
+        private volatile Node<V> next;
+
+        private Node(final long key, final Object value, final Node<V> next) {
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+
+        /** a marker, see the class comment */
+        private Node(final Node<V> next) {
+            this.key = 0;
+            this.value = this;
+            this.next = next;
+        }
+
+        private boolean casValue(final Object expected, final Object value) {
+            return VALUE.compareAndSet(this, expected, value);
+        }
+
+        private boolean casNext(final Node<V> expected, final Node<V> next) {
+            return NEXT.compareAndSet(this, expected, next);
+        }
+
+        private boolean isMarker() {
+            return this.value == this;
+        }
+
+        private boolean isBaseHeader() {
+            return this.value == BASE_HEADER;
+        }
+
+        /**
+         * Moves the removal of this node, whose value is already {@code null}, one step forward:
+         * appends the marker if it is missing, otherwise unlinks this node and its marker from
+         * {@code predecessor}. Does nothing if {@code predecessor -> this -> next} has changed.
+         */
+        private void helpDelete(final Node<V> predecessor, final Node<V> next) {
+            if (next == this.next && this == predecessor.next) {
+                if (next == null || next.value != next)
+                    this.casNext(next, new Node<>(next));
+                else
+                    predecessor.casNext(this, next.next);
+            }
+        }
+
+        /**
+         * @return the value, or {@code null} for removed nodes, markers and the header
+         */
+        @SuppressWarnings("unchecked")
+        private V validValue() {
+            final Object value = this.value;
+            return value == this || value == BASE_HEADER ? null : (V) value;
+        }
+    }
+
+    private static class Index<V> {
+        private static final VarHandle RIGHT;
+
+        static {
+            try {
+                RIGHT = MethodHandles.lookup().findVarHandle(Index.class, "right", Index.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        final Node<V> node;
+        final Index<V> down;
+        volatile Index<V> right;
+
+        private Index(final Node<V> node, final Index<V> down, final Index<V> right) {
+            this.node = node;
+            this.down = down;
+            this.right = right;
+        }
+
+        private boolean indexesDeletedNode() {
+            return this.node.value == null;
+        }
+
+        /**
+         * Inserts {@code newSuccessor} between this index and {@code successor}, unless this index's
+         * node is being deleted.
+         */
+        private boolean link(final Index<V> successor, final Index<V> newSuccessor) {
+            newSuccessor.right = successor;
+            return this.node.value != null && RIGHT.compareAndSet(this, successor, newSuccessor);
+        }
+
+        private boolean unlink(final Index<V> successor) {
+            return this.node.value != null && RIGHT.compareAndSet(this, successor, successor.right);
+        }
+    }
+
+    private static final class HeadIndex<V> extends Index<V> {
+        private final int level;
+
+        private HeadIndex(final Node<V> node, final Index<V> down, final Index<V> right, final int level) {
+            super(node, down, right);
+            this.level = level;
+        }
+    }
+
+    /**
+     * Streams the entries of a range without copying or allocating per entry:
+     * <pre>
+     *   for (Cursor&lt;V&gt; cursor = map.cursor(from, to); cursor.advance(); )
+     *       use(cursor.key(), cursor.value());
+     * </pre>
+     * An entry is reported with the value it had when the cursor reached it.
+     */
+    public interface Cursor<V> {
+        /**
+         * @return {@code false} once the range is exhausted
+         */
+        boolean advance();
+
+        long key();
+
+        V value();
+    }
+
+    private static final VarHandle HEAD;
+
+    static {
+        try {
+            HEAD = MethodHandles.lookup().findVarHandle(ConcurrentLongSkipListMap.class, "head", HeadIndex.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private volatile HeadIndex<V> head = new HeadIndex<>(new Node<>(0, BASE_HEADER, null), null, null, 1);
+
+    public V get(final long key) {
+        final Node<V> node = this.findNode(key);
+        return node == null ? null : node.validValue();
+    }
+
+    public boolean containsKey(final long key) {
+        return this.get(key) != null;
+    }
+
+    /**
+     * @return the previous value, or {@code null}
+     */
+    public V put(final long key, final V value) {
+        if (value == null)
+            throw new RuntimeException("value cannot be null");
+        return this.doPut(key, value, false);
+    }
+
+    public V putIfAbsent(final long key, final V value) {
+        if (value == null)
+            throw new RuntimeException("value cannot be null");
+        return this.doPut(key, value, true);
+    }
+
+    /**
+     * @return the removed value, or {@code null}
+     */
+    public V remove(final long key) {
+        return this.doRemove(key);
+    }
+
+    public boolean isEmpty() {
+        return this.findFirst() == null;
+    }
+
+    /**
+     * Counts the entries, which takes a full traversal.
+     */
+    public long size() {
+        long count = 0;
+        for (Node<V> node = this.findFirst(); node != null; node = node.next)
+            if (node.validValue() != null)
+                ++count;
+        return count;
+    }
+
+    public long firstKey() {
+        final Node<V> node = this.findFirst();
+        if (node == null)
+            throw new NoSuchElementException();
+        return node.key;
+    }
+
+    public long lastKey() {
+        final Node<V> node = this.findLast();
+        if (node == null)
+            throw new NoSuchElementException();
+        return node.key;
+    }
+
+    /** least key greater than or equal to {@code key} */
+    public OptionalLong ceilingKey(final long key) {
+        return keyOf(this.findNear(key, GT | EQ));
+    }
+
+    /** least key strictly greater than {@code key} */
+    public OptionalLong higherKey(final long key) {
+        return keyOf(this.findNear(key, GT));
+    }
+
+    /** greatest key less than or equal to {@code key} */
+    public OptionalLong floorKey(final long key) {
+        return keyOf(this.findNear(key, LT | EQ));
+    }
+
+    /** greatest key strictly less than {@code key} */
+    public OptionalLong lowerKey(final long key) {
+        return keyOf(this.findNear(key, LT));
+    }
+
+    /**
+     * Cursor over {@code [fromInclusive, toExclusive)} in ascending order.
+     */
+    public Cursor<V> cursor(final long fromInclusive, final long toExclusive) {
+        return this.subMap(fromInclusive, toExclusive).cursor();
+    }
+
+    /**
+     * Cursor over the whole map in descending order.
+     */
+    public Cursor<V> descendingCursor() {
+        return this.subMap(Long.MIN_VALUE, true, Long.MAX_VALUE, true).descendingCursor();
+    }
+
+    /**
+     * View of the keys in {@code [fromInclusive, toExclusive)}; reads and writes go to this map.
+     */
+    public SubMap subMap(final long fromInclusive, final long toExclusive) {
+        return this.subMap(fromInclusive, true, toExclusive, false);
+    }
+
+    public SubMap subMap(final long from, final boolean fromInclusive, final long to, final boolean toInclusive) {
+        if (from > to || (from == to && !(fromInclusive && toInclusive)))
+            throw new IllegalArgumentException("empty or inverted range");
+        return new SubMap(from, fromInclusive, to, toInclusive);
+    }
+
+    public SubMap headMap(final long toExclusive) {
+        return this.subMap(Long.MIN_VALUE, true, toExclusive, false);
+    }
+
+    public SubMap tailMap(final long fromInclusive) {
+        return this.subMap(fromInclusive, true, Long.MAX_VALUE, true);
+    }
+
+    /**
+     * A key range of the map. Holds no entries itself: every call searches the map, so the view
+     * stays current.
+     */
+    public final class SubMap {
+        private final long low;
+        private final boolean lowInclusive;
+        private final long high;
+        private final boolean highInclusive;
+
+        private SubMap(final long low, final boolean lowInclusive, final long high, final boolean highInclusive) {
+            this.low = low;
+            this.lowInclusive = lowInclusive;
+            this.high = high;
+            this.highInclusive = highInclusive;
+        }
+
+        public boolean inRange(final long key) {
+            return this.aboveLow(key) && this.belowHigh(key);
+        }
+
+        public V get(final long key) {
+            return this.inRange(key) ? ConcurrentLongSkipListMap.this.get(key) : null;
+        }
+
+        public V put(final long key, final V value) {
+            if (!this.inRange(key))
+                throw new IllegalArgumentException("key out of range: " + key);
+            return ConcurrentLongSkipListMap.this.put(key, value);
+        }
+
+        public V remove(final long key) {
+            return this.inRange(key) ? ConcurrentLongSkipListMap.this.remove(key) : null;
+        }
+
+        public OptionalLong firstKey() {
+            return keyOf(this.lowestNode());
+        }
+
+        public OptionalLong lastKey() {
+            return keyOf(this.highestNode());
+        }
+
+        public long size() {
+            long count = 0;
+            for (final Cursor<V> cursor = this.cursor(); cursor.advance(); )
+                ++count;
+            return count;
+        }
+
+        public Cursor<V> cursor() {
+            return new Cursor<>() {
+                private Node<V> next = SubMap.this.lowestNode();
+                private long key;
+                private V value;
+
+                @Override
+                public boolean advance() {
+                    for (Node<V> node = this.next; node != null; node = node.next) {
+                        if (!SubMap.this.belowHigh(node.key) && !node.isMarker())
+                            break;
+                        final V value = node.validValue();
+                        if (value != null) {
+                            this.key = node.key;
+                            this.value = value;
+                            this.next = node.next;
+                            return true;
+                        }
+                    }
+                    this.next = null;
+                    return false;
+                }
+
+                @Override
+                public long key() {
+                    return this.key;
+                }
+
+                @Override
+                public V value() {
+                    return this.value;
+                }
+            };
+        }
+
+        /**
+         * Nodes only link forward, so each step is a {@link #lowerKey}-style search from the top
+         * index: O(log n) per entry instead of O(1).
+         */
+        public Cursor<V> descendingCursor() {
+            return new Cursor<>() {
+                private Node<V> next = SubMap.this.highestNode();
+                private long key;
+                private V value;
+
+                @Override
+                public boolean advance() {
+                    for (Node<V> node = this.next; node != null && SubMap.this.aboveLow(node.key);
+                         node = ConcurrentLongSkipListMap.this.findNear(node.key, LT)) {
+                        final V value = node.validValue();
+                        if (value != null) {
+                            this.key = node.key;
+                            this.value = value;
+                            this.next = ConcurrentLongSkipListMap.this.findNear(node.key, LT);
+                            return true;
+                        }
+                    }
+                    this.next = null;
+                    return false;
+                }
+
+                @Override
+                public long key() {
+                    return this.key;
+                }
+
+                @Override
+                public V value() {
+                    return this.value;
+                }
+            };
+        }
+
+        private boolean aboveLow(final long key) {
+            return this.lowInclusive ? key >= this.low : key > this.low;
+        }
+
+        private boolean belowHigh(final long key) {
+            return this.highInclusive ? key <= this.high : key < this.high;
+        }
+
+        private Node<V> lowestNode() {
+            final Node<V> node = ConcurrentLongSkipListMap.this.findNear(this.low, this.lowInclusive ? GT | EQ : GT);
+            return node == null || !this.belowHigh(node.key) ? null : node;
+        }
+
+        private Node<V> highestNode() {
+            final Node<V> node = ConcurrentLongSkipListMap.this.findNear(this.high, this.highInclusive ? LT | EQ : LT);
+            return node == null || !this.aboveLow(node.key) ? null : node;
+        }
+    }
+
+    private static OptionalLong keyOf(final Node<?> node) {
+        return node == null ? OptionalLong.empty() : OptionalLong.of(node.key);
+    }
+
+    /**
+     * @return a base-level node whose key is less than {@code key} (possibly the header), unlinking
+     * the indices of deleted nodes on the way down
+     */
+    private Node<V> findPredecessor(final long key) {
+        while (true) {
+            restart:
+            for (Index<V> q = this.head, r = q.right, d; ; ) {
+                if (r != null) {
+                    final Node<V> n = r.node;
+                    if (n.value == null) {
+                        if (!q.unlink(r))
+                            break restart;
+                        r = q.right;
+                        continue;
+                    }
+                    if (key > n.key) {
+                        q = r;
+                        r = r.right;
+                        continue;
+                    }
+                }
+                if ((d = q.down) == null)
+                    return q.node;
+                q = d;
+                r = d.right;
+            }
+        }
+    }
+
+    /**
+     * @return the node holding {@code key}, or {@code null}; helps deletions it runs into
+     */
+    private Node<V> findNode(final long key) {
+        outer:
+        while (true) {
+            for (Node<V> b = this.findPredecessor(key), n = b.next; ; ) {
+                if (n == null)
+                    break outer;
+                final Node<V> f = n.next;
+                if (n != b.next)
+                    break;
+                final Object v = n.value;
+                if (v == null) {
+                    n.helpDelete(b, f);
+                    break;
+                }
+                if (b.value == null || v == n)
+                    break;
+                if (key == n.key)
+                    return n;
+                if (key < n.key)
+                    break outer;
+                b = n;
+                n = f;
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V doPut(final long key, final V value, final boolean onlyIfAbsent) {
+        Node<V> z;
+        outer:
+        while (true) {
+            for (Node<V> b = this.findPredecessor(key), n = b.next; ; ) {
+                if (n != null) {
+                    final Node<V> f = n.next;
+                    if (n != b.next)
+                        break;
+                    final Object v = n.value;
+                    if (v == null) {
+                        n.helpDelete(b, f);
+                        break;
+                    }
+                    if (b.value == null || v == n)
+                        break;
+                    if (key > n.key) {
+                        b = n;
+                        n = f;
+                        continue;
+                    }
+                    if (key == n.key) {
+                        if (onlyIfAbsent || n.casValue(v, value))
+                            return (V) v;
+                        break;
+                    }
+                }
+                z = new Node<>(key, value, n);
+                if (!b.casNext(n, z))
+                    break;
+                break outer;
+            }
+        }
+
+        // a tower of height h with probability 2^-h, for one in four insertions
+        int random = ThreadLocalRandom.current().nextInt();
+        if ((random & 0x80000001) != 0)
+            return null;
+        int level = 1;
+        while (((random >>>= 1) & 1) != 0)
+            ++level;
+        this.addIndices(z, level);
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addIndices(final Node<V> z, int level) {
+        Index<V> index = null;
+        HeadIndex<V> h = this.head;
+        final int max = h.level;
+        if (level <= max) {
+            for (int i = 1; i <= level; ++i)
+                index = new Index<>(z, index, null);
+        } else {
+            // grow by one level at most
+            level = max + 1;
+            final Index<V>[] indices = new Index[level + 1];
+            for (int i = 1; i <= level; ++i)
+                indices[i] = index = new Index<>(z, index, null);
+            while (true) {
+                h = this.head;
+                final int oldLevel = h.level;
+                if (level <= oldLevel)
+                    break;
+                HeadIndex<V> newHead = h;
+                final Node<V> baseHeader = h.node;
+                for (int j = oldLevel + 1; j <= level; ++j)
+                    newHead = new HeadIndex<>(baseHeader, newHead, indices[j], j);
+                if (HEAD.compareAndSet(this, h, newHead)) {
+                    h = newHead;
+                    index = indices[level = oldLevel];
+                    break;
+                }
+            }
+        }
+
+        // splice the tower in, top down
+        final long key = z.key;
+        splice:
+        for (int insertionLevel = level; ; ) {
+            int j = h.level;
+            for (Index<V> q = h, r = q.right, t = index; ; ) {
+                if (q == null || t == null)
+                    break splice;
+                if (r != null) {
+                    final Node<V> n = r.node;
+                    final boolean after = key > n.key;
+                    if (n.value == null) {
+                        if (!q.unlink(r))
+                            break;
+                        r = q.right;
+                        continue;
+                    }
+                    if (after) {
+                        q = r;
+                        r = r.right;
+                        continue;
+                    }
+                }
+                if (j == insertionLevel) {
+                    if (!q.link(r, t))
+                        break;
+                    if (t.node.value == null) {
+                        // deleted meanwhile; let a search clean up the index just added
+                        this.findNode(key);
+                        break splice;
+                    }
+                    if (--insertionLevel == 0)
+                        break splice;
+                }
+                if (--j >= insertionLevel && j < level)
+                    t = t.down;
+                q = q.down;
+                r = q.right;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V doRemove(final long key) {
+        outer:
+        while (true) {
+            for (Node<V> b = this.findPredecessor(key), n = b.next; ; ) {
+                if (n == null)
+                    break outer;
+                final Node<V> f = n.next;
+                if (n != b.next)
+                    break;
+                final Object v = n.value;
+                if (v == null) {
+                    n.helpDelete(b, f);
+                    break;
+                }
+                if (b.value == null || v == n)
+                    break;
+                if (key < n.key)
+                    break outer;
+                if (key > n.key) {
+                    b = n;
+                    n = f;
+                    continue;
+                }
+                if (!n.casValue(v, null))
+                    break;
+                if (!n.casNext(f, new Node<>(f)) || !b.casNext(n, f)) {
+                    this.findNode(key);
+                } else {
+                    this.findPredecessor(key);
+                    if (this.head.right == null)
+                        this.tryReduceLevel();
+                }
+                return (V) v;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Drops the top level if the three top levels look empty, and backs out if an insertion raced
+     * in. Requiring three empty levels keeps the head from flapping on a map that hovers around
+     * empty.
+     */
+    private void tryReduceLevel() {
+        final HeadIndex<V> h = this.head;
+        final HeadIndex<V> d, e;
+        if (h.level > 3
+                && (d = (HeadIndex<V>) h.down) != null
+                && (e = (HeadIndex<V>) d.down) != null
+                && e.right == null && d.right == null && h.right == null
+                && HEAD.compareAndSet(this, h, d)
+                && h.right != null)
+            HEAD.compareAndSet(this, d, h);
+    }
+
+    private Node<V> findFirst() {
+        for (Node<V> b, n; ; ) {
+            if ((n = (b = this.head.node).next) == null)
+                return null;
+            if (n.value != null)
+                return n;
+            n.helpDelete(b, n.next);
+        }
+    }
+
+    private Node<V> findLast() {
+        Index<V> q = this.head;
+        while (true) {
+            final Index<V> d, r;
+            if ((r = q.right) != null) {
+                if (r.indexesDeletedNode()) {
+                    q.unlink(r);
+                    q = this.head;
+                } else {
+                    q = r;
+                }
+            } else if ((d = q.down) != null) {
+                q = d;
+            } else {
+                for (Node<V> b = q.node, n = b.next; ; ) {
+                    if (n == null)
+                        return b.isBaseHeader() ? null : b;
+                    final Node<V> f = n.next;
+                    if (n != b.next)
+                        break;
+                    final Object v = n.value;
+                    if (v == null) {
+                        n.helpDelete(b, f);
+                        break;
+                    }
+                    if (b.value == null || v == n)
+                        break;
+                    b = n;
+                    n = f;
+                }
+                q = this.head;
+            }
+        }
+    }
+
+    /**
+     * @param relation {@link #GT} or {@link #LT}, optionally with {@link #EQ}
+     * @return the nearest live node in that relation to {@code key}, or {@code null}
+     */
+    private Node<V> findNear(final long key, final int relation) {
+        while (true) {
+            for (Node<V> b = this.findPredecessor(key), n = b.next; ; ) {
+                if (n == null)
+                    return (relation & LT) == 0 || b.isBaseHeader() ? null : b;
+                final Node<V> f = n.next;
+                if (n != b.next)
+                    break;
+                final Object v = n.value;
+                if (v == null) {
+                    n.helpDelete(b, f);
+                    break;
+                }
+                if (b.value == null || v == n)
+                    break;
+                if ((key == n.key && (relation & EQ) != 0) || (key < n.key && (relation & LT) == 0))
+                    return n;
+                if (key <= n.key && (relation & LT) != 0)
+                    return b.isBaseHeader() ? null : b;
+                b = n;
+                n = f;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final ConcurrentLongSkipListMap<String> map = new ConcurrentLongSkipListMap<>();
+        map.put(30, "thirty");
+        map.put(10, "ten");
+        map.put(20, "twenty");
+        map.put(Long.MIN_VALUE, "min");
+        System.out.println(map.firstKey() + " " + map.lastKey() + " " + map.ceilingKey(11) + " "
+                + map.floorKey(11) + " " + map.higherKey(30) + " " + map.get(20));
+        for (final Cursor<String> cursor = map.descendingCursor(); cursor.advance(); )
+            System.out.print(cursor.key() + "=" + cursor.value() + " ");
+        System.out.println();
+        map.remove(Long.MIN_VALUE);
+
+        // writers append increasing timestamps while a reader keeps scanning the last window
+        final ConcurrentLongSkipListMap<Long> events = new ConcurrentLongSkipListMap<>();
+        final int perWriter = 500_000;
+        final Thread[] writers = new Thread[4];
+        for (int w = 0; w < writers.length; ++w) {
+            final int offset = w;
+            writers[w] = new Thread(() -> {
+                for (long t = offset; t < (long) perWriter * writers.length; t += writers.length) {
+                    events.put(t, t);
+                    if (t % 3 == 0)
+                        events.remove(t - writers.length);
+                }
+            });
+            writers[w].start();
+        }
+        final long[] unordered = {0};
+        final Thread reader = new Thread(() -> {
+            for (int scan = 0; scan < 20; ++scan) {
+                long last = Long.MIN_VALUE;
+                for (final Cursor<Long> cursor = events.cursor(0, Long.MAX_VALUE); cursor.advance(); ) {
+                    if (cursor.key() <= last || cursor.value() != cursor.key())
+                        ++unordered[0];
+                    last = cursor.key();
+                }
+            }
+        });
+        reader.start();
+        for (final Thread writer : writers)
+            writer.join();
+        reader.join();
+
+        final ConcurrentLongSkipListMap<Long>.SubMap window = events.subMap(1_000, 1_100);
+        long sum = 0;
+        for (final Cursor<Long> cursor = window.cursor(); cursor.advance(); )
+            sum += cursor.value();
+        System.out.println("size: " + events.size() + ", window: " + window.size() + " entries summing to " + sum
+                + ", unordered during scans: " + unordered[0]);
+    }
+
+}
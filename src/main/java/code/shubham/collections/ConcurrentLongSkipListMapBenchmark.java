@@ -0,0 +1,146 @@
+package code.shubham.collections;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ConcurrentLongSkipListMap} versus {@link ConcurrentSkipListMap} with boxed {@link Long} keys,
+ * both holding the even keys of {@code [0, 2 * KEY_SPACE)}. Point lookups hit and miss half the time,
+ * writes replace or re-insert random keys, and range scans sum the values of {@code scanLength}
+ * consecutive keys. Scores are operations per microsecond.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ConcurrentLongSkipListMapBenchmark {
+
+    private static final int KEY_SPACE = 1 << 20;
+
+    @Param({"16", "1024"})
+    public int scanLength;
+
+    private ConcurrentLongSkipListMap<Long> longMap;
+    private ConcurrentSkipListMap<Long, Long> boxedMap;
+
+    @State(Scope.Thread)
+    public static class Keys {
+        private final SplittableRandom random = new SplittableRandom();
+
+        long next() {
+            return this.random.nextLong(2L * KEY_SPACE);
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        this.longMap = new ConcurrentLongSkipListMap<>();
+        this.boxedMap = new ConcurrentSkipListMap<>();
+        for (long key = 0; key < 2L * KEY_SPACE; key += 2) {
+            this.longMap.put(key, key);
+            this.boxedMap.put(key, key);
+        }
+    }
+
+    @Benchmark
+    public Long getLong(final Keys keys) {
+        return this.longMap.get(keys.next());
+    }
+
+    @Benchmark
+    public Long getBoxed(final Keys keys) {
+        return this.boxedMap.get(keys.next());
+    }
+
+    @Benchmark
+    public Long putLong(final Keys keys) {
+        final long key = keys.next() & ~1L;
+        return this.longMap.put(key, key);
+    }
+
+    @Benchmark
+    public Long putBoxed(final Keys keys) {
+        final long key = keys.next() & ~1L;
+        return this.boxedMap.put(key, key);
+    }
+
+    @Benchmark
+    public Long removeAndPutLong(final Keys keys) {
+        final long key = keys.next() & ~1L;
+        this.longMap.remove(key);
+        return this.longMap.put(key, key);
+    }
+
+    @Benchmark
+    public Long removeAndPutBoxed(final Keys keys) {
+        final long key = keys.next() & ~1L;
+        this.boxedMap.remove(key);
+        return this.boxedMap.put(key, key);
+    }
+
+    @Benchmark
+    public long scanLong(final Keys keys) {
+        final long from = keys.next();
+        long sum = 0;
+        for (final ConcurrentLongSkipListMap.Cursor<Long> cursor = this.longMap.cursor(from, from + 2L * this.scanLength);
+             cursor.advance(); )
+            sum += cursor.value();
+        return sum;
+    }
+
+    @Benchmark
+    public long scanBoxed(final Keys keys) {
+        final long from = keys.next();
+        long sum = 0;
+        for (final Map.Entry<Long, Long> entry : this.boxedMap.subMap(from, from + 2L * this.scanLength).entrySet())
+            sum += entry.getValue();
+        return sum;
+    }
+
+    @Benchmark
+    public long descendingScanLong(final Keys keys) {
+        final long from = keys.next();
+        long sum = 0;
+        for (final ConcurrentLongSkipListMap.Cursor<Long> cursor = this.longMap.subMap(from, from + 2L * this.scanLength)
+                .descendingCursor(); cursor.advance(); )
+            sum += cursor.value();
+        return sum;
+    }
+
+    @Benchmark
+    public long descendingScanBoxed(final Keys keys) {
+        final long from = keys.next();
+        long sum = 0;
+        for (final Long value : this.boxedMap.subMap(from, from + 2L * this.scanLength).descendingMap().values())
+            sum += value;
+        return sum;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ConcurrentLongSkipListMapBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+}
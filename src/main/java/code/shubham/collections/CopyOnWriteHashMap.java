@@ -0,0 +1,181 @@
+package code.shubham.collections;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * Read-mostly map for configuration and routing tables. The current version is an immutable
+ * {@link PersistentHashMap} behind an {@link AtomicReference}: readers get a consistent snapshot of
+ * the whole map with a single volatile read, and writers build a new version that shares all
+ * untouched nodes with the old one and publish it with a CAS.
+ * <p>
+ * Writers retry when another writer publishes first, so an update function may be applied more than
+ * once and should have no side effects. Writes cost O(log32 n) allocations each, which is why this
+ * map suits rare writes; {@link #updateAll} amortises a batch into one version.
+ */
+public class CopyOnWriteHashMap<K, V> {
+
+    private final AtomicReference<PersistentHashMap<K, V>> root;
+
+    public CopyOnWriteHashMap() {
+        this(PersistentHashMap.empty());
+    }
+
+    public CopyOnWriteHashMap(final PersistentHashMap<K, V> initial) {
+        if (initial == null)
+            throw new RuntimeException("initial cannot be null");
+        this.root = new AtomicReference<>(initial);
+    }
+
+    /**
+     * @return the current version, which never changes; iterate it as often as needed
+     */
+    public PersistentHashMap<K, V> snapshot() {
+        return this.root.get();
+    }
+
+    public V get(final K key) {
+        return this.root.get().get(key);
+    }
+
+    public boolean containsKey(final K key) {
+        return this.root.get().containsKey(key);
+    }
+
+    public int size() {
+        return this.root.get().size();
+    }
+
+    public V put(final K key, final V value) {
+        while (true) {
+            final PersistentHashMap<K, V> current = this.root.get();
+            final PersistentHashMap<K, V> next = current.plus(key, value);
+            if (next == current || this.root.compareAndSet(current, next))
+                return current.get(key);
+        }
+    }
+
+    public V putIfAbsent(final K key, final V value) {
+        while (true) {
+            final PersistentHashMap<K, V> current = this.root.get();
+            final V previous = current.get(key);
+            if (previous != null || this.root.compareAndSet(current, current.plus(key, value)))
+                return previous;
+        }
+    }
+
+    public V remove(final K key) {
+        while (true) {
+            final PersistentHashMap<K, V> current = this.root.get();
+            final PersistentHashMap<K, V> next = current.minus(key);
+            if (next == current || this.root.compareAndSet(current, next))
+                return current.get(key);
+        }
+    }
+
+    /**
+     * Like {@link java.util.Map#compute}: a {@code null} result removes the key.
+     *
+     * @return the new value, or {@code null}
+     */
+    public V compute(final K key, final BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        while (true) {
+            final PersistentHashMap<K, V> current = this.root.get();
+            final V value = remappingFunction.apply(key, current.get(key));
+            final PersistentHashMap<K, V> next = value == null ? current.minus(key) : current.plus(key, value);
+            if (next == current || this.root.compareAndSet(current, next))
+                return value;
+        }
+    }
+
+    /**
+     * Applies {@code batch} to an editor over the current version and publishes the result as one
+     * version, so readers see either none or all of its changes. The editor must not escape
+     * {@code batch}.
+     *
+     * @return the published version
+     */
+    public PersistentHashMap<K, V> updateAll(final Consumer<PersistentHashMap.Editor<K, V>> batch) {
+        while (true) {
+            final PersistentHashMap<K, V> current = this.root.get();
+            final PersistentHashMap.Editor<K, V> editor = current.edit();
+            batch.accept(editor);
+            final PersistentHashMap<K, V> next = editor.done();
+            if (this.root.compareAndSet(current, next))
+                return next;
+        }
+    }
+
+    public PersistentHashMap<K, V> putAll(final Map<? extends K, ? extends V> map) {
+        return this.updateAll(editor -> editor.putAll(map));
+    }
+
+    /**
+     * Publishes {@code next} only if the current version is still {@code expected}, for writers that
+     * derive a version with their own retry policy.
+     */
+    public boolean compareAndSet(final PersistentHashMap<K, V> expected, final PersistentHashMap<K, V> next) {
+        if (next == null)
+            throw new RuntimeException("next cannot be null");
+        return this.root.compareAndSet(expected, next);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final CopyOnWriteHashMap<String, String> routes = new CopyOnWriteHashMap<>();
+        routes.updateAll(editor -> {
+            for (int shard = 0; shard < 1024; ++shard)
+                editor.put("shard-" + shard, "node-0");
+        });
+
+        // a writer moves shards between nodes in batches; readers must never see a half-applied batch
+        final int batches = 2_000;
+        final Thread writer = new Thread(() -> {
+            for (int batch = 1; batch <= batches; ++batch) {
+                final String node = "node-" + (batch % 8);
+                routes.updateAll(editor -> {
+                    for (int shard = 0; shard < 1024; ++shard)
+                        editor.put("shard-" + shard, node);
+                });
+            }
+        });
+        final long[] torn = new long[4];
+        final long[] snapshots = new long[4];
+        final Thread[] readers = new Thread[4];
+        for (int r = 0; r < readers.length; ++r) {
+            final int id = r;
+            readers[r] = new Thread(() -> {
+                while (writer.isAlive()) {
+                    final PersistentHashMap<String, String> snapshot = routes.snapshot();
+                    final String first = snapshot.get("shard-0");
+                    for (final Map.Entry<String, String> entry : snapshot)
+                        if (!entry.getValue().equals(first)) {
+                            ++torn[id];
+                            break;
+                        }
+                    ++snapshots[id];
+                }
+            });
+        }
+        writer.start();
+        for (final Thread reader : readers)
+            reader.start();
+        writer.join();
+        for (final Thread reader : readers)
+            reader.join();
+
+        long totalTorn = 0, totalSnapshots = 0;
+        for (int r = 0; r < readers.length; ++r) {
+            totalTorn += torn[r];
+            totalSnapshots += snapshots[r];
+        }
+        System.out.println("size: " + routes.size() + ", snapshots iterated: " + totalSnapshots
+                + ", snapshots with mixed nodes: " + totalTorn);
+
+        final PersistentHashMap<String, String> before = routes.snapshot();
+        routes.remove("shard-0");
+        System.out.println("removed shard-0: " + routes.get("shard-0") + ", still in old snapshot: " + before.get("shard-0"));
+    }
+
+}
@@ -0,0 +1,96 @@
+package code.shubham.collections;
+
+/**
+ * Count-min sketch of 4-bit counters used by {@link ConcurrentCache} to estimate how often a key has
+ * been seen recently (TinyLFU). Each key maps to one {@code long} per row and to a counter inside it;
+ * its frequency is the minimum over the rows. Once {@code sampleSize} increments have been recorded
+ * every counter is halved, so the estimate follows the recent popularity of a key.
+ * <p>
+ * Not thread-safe: the cache only touches it while holding its eviction lock.
+ */
+final class FrequencySketch {
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final int MAXIMUM_COUNTER = 15;
+
+    private long[] table = new long[1];
+    private int tableMask;
+    private int sampleSize = 10;
+    private int size;
+
+    /**
+     * Grows the sketch to track about {@code maximumSize} keys. Growing discards the history.
+     */
+    void ensureCapacity(final long maximumSize) {
+        final int maximum = (int) Math.min(Math.max(1, maximumSize), Integer.MAX_VALUE >>> 1);
+        if (this.table.length >= maximum)
+            return;
+
+        this.table = new long[Integer.highestOneBit(maximum - 1) << 1];
+        this.tableMask = this.table.length - 1;
+        this.sampleSize = 10 * maximum;
+        this.size = 0;
+    }
+
+    /**
+     * @return the estimated number of occurrences of {@code key}, at most 15
+     */
+    int frequency(final Object key) {
+        final int hash = spread(key.hashCode());
+        final int start = (hash & 3) << 2;
+        int frequency = MAXIMUM_COUNTER;
+        for (int i = 0; i < SEEDS.length; ++i) {
+            final long word = this.table[this.indexOf(hash, i)];
+            frequency = Math.min(frequency, (int) ((word >>> ((start + i) << 2)) & 0xfL));
+        }
+        return frequency;
+    }
+
+    void increment(final Object key) {
+        final int hash = spread(key.hashCode());
+        final int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; ++i)
+            added |= this.incrementAt(this.indexOf(hash, i), start + i);
+
+        if (added && ++this.size == this.sampleSize)
+            this.reset();
+    }
+
+    private boolean incrementAt(final int index, final int counter) {
+        final int offset = counter << 2;
+        final long mask = 0xfL << offset;
+        if ((this.table[index] & mask) == mask)
+            return false;
+        this.table[index] += 1L << offset;
+        return true;
+    }
+
+    /**
+     * Halves every counter. Odd counters lose half an increment each, which is taken off the size.
+     */
+    private void reset() {
+        int odd = 0;
+        for (int i = 0; i < this.table.length; ++i) {
+            odd += Long.bitCount(this.table[i] & ONE_MASK);
+            this.table[i] = (this.table[i] >>> 1) & RESET_MASK;
+        }
+        this.size = (this.size >>> 1) - (odd >>> 2);
+    }
+
+    private int indexOf(final int hash, final int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return (int) h & this.tableMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+}
@@ -0,0 +1,86 @@
+package code.shubham.collections;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Allocation-free 64 bit hashing of bytes and characters, built from the mixing steps of
+ * MurmurHash3 (x64): input is consumed 8 bytes at a time and the result goes through its
+ * {@code fmix64} finalizer.
+ * <p>
+ * A {@link CharSequence} hashes like its UTF-16LE bytes, four characters to a block, so a string
+ * and its UTF-16LE encoding hash the same without the encoding ever being built.
+ */
+public final class Hash64 {
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private Hash64() {
+    }
+
+    public static long hash(final byte[] bytes) {
+        return hash(bytes, 0, bytes.length, 0);
+    }
+
+    public static long hash(final byte[] bytes, final int offset, final int length, final long seed) {
+        long h = seed;
+        int i = offset;
+        for (final int end = offset + (length & ~7); i < end; i += 8)
+            h = mixBlock(h, (long) LONGS.get(bytes, i));
+        long tail = 0;
+        for (int shift = 0; i < offset + length; ++i, shift += 8)
+            tail |= (bytes[i] & 0xffL) << shift;
+        return finish(h, tail, length);
+    }
+
+    public static long hash(final CharSequence chars) {
+        return hash(chars, 0);
+    }
+
+    public static long hash(final CharSequence chars, final long seed) {
+        final int length = chars.length();
+        long h = seed;
+        int i = 0;
+        for (final int end = length & ~3; i < end; i += 4)
+            h = mixBlock(h, chars.charAt(i)
+                    | (long) chars.charAt(i + 1) << 16
+                    | (long) chars.charAt(i + 2) << 32
+                    | (long) chars.charAt(i + 3) << 48);
+        long tail = 0;
+        for (int shift = 0; i < length; ++i, shift += 16)
+            tail |= (long) chars.charAt(i) << shift;
+        return finish(h, tail, 2 * length);
+    }
+
+    /**
+     * Murmur3's finalizer: every input bit affects every output bit. Also useful to derive a second
+     * independent-looking hash from a first one.
+     */
+    public static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long mixBlock(final long h, final long block) {
+        return Long.rotateLeft(h ^ scramble(block), 27) * 5 + 0x52dce729;
+    }
+
+    private static long scramble(final long block) {
+        return Long.rotateLeft(block * C1, 31) * C2;
+    }
+
+    private static long finish(long h, final long tail, final int byteLength) {
+        if ((byteLength & 7) != 0)
+            h ^= scramble(tail);
+        return mix(h ^ byteLength);
+    }
+
+}
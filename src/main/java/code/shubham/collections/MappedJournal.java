@@ -0,0 +1,668 @@
+package code.shubham.collections;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only journal of byte records in memory-mapped segment files, written without locks.
+ * <p>
+ * A segment file is mapped whole and starts with a {@value #SEGMENT_HEADER} byte header holding the
+ * tail, the offset where the next record goes. An append:
+ * <ol>
+ *     <li>claims its bytes with one {@code getAndAdd} on the mapped tail;</li>
+ *     <li>copies the payload and its CRC-32C into the claimed bytes;</li>
+ *     <li>commits by storing the length with release semantics.</li>
+ * </ol>
+ * A record whose length is still 0 is in flight, and readers wait at it. Records are 8 byte
+ * aligned: {@code [int length][int crc][payload][padding]}.
+ * <p>
+ * The append whose claim crosses the end of the segment rolls the journal. It fills the rest of the
+ * segment with a padding record of negative length, creates the next segment and publishes it.
+ * Appends that claimed past the end retry in the new segment. A segment is created under a
+ * temporary name and renamed once its header is written, so it never appears without one. If the
+ * roll fails, the journal fails with it: every append from then on throws.
+ * <p>
+ * After a crash, the tail of the last segment may count records that were claimed but never
+ * committed. {@link Builder#open} scans every record, checking lengths and CRCs. It truncates the
+ * journal at the first record that is not intact: the rest of that segment is zeroed and any later
+ * segments are deleted.
+ * <p>
+ * A {@link Reader} follows the journal through its own read-only mappings, handing out each record as
+ * a reusable {@link Record} view of the mapped bytes.
+ */
+public class MappedJournal implements Closeable {
+
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private static final int MAGIC = 0x4a524e4c;
+    private static final int VERSION = 1;
+    private static final int TAIL_OFFSET = 16;
+    /** a cache line, so that the tail does not share one with the first records */
+    private static final int SEGMENT_HEADER = 64;
+    private static final int RECORD_HEADER = 8;
+    private static final String SUFFIX = ".journal";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private static final ThreadLocal<CRC32C> CRC = ThreadLocal.withInitial(CRC32C::new);
+
+    private static final class Segment {
+        private final long index;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        private Segment(final long index, final FileChannel channel, final MappedByteBuffer buffer) {
+            this.index = index;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    public static final class Builder {
+        private final Path directory;
+        private int segmentSize = 64 << 20;
+        private long forceIntervalNanos;
+
+        private Builder(final Path directory) {
+            this.directory = directory;
+        }
+
+        /**
+         * Bytes per segment file, a multiple of 8; 64 MiB by default. Also bounds the record size.
+         */
+        public Builder segmentSize(final int segmentSize) {
+            if (segmentSize < 2 * SEGMENT_HEADER || (segmentSize & 7) != 0)
+                throw new IllegalArgumentException("segmentSize must be a multiple of 8 of at least "
+                        + 2 * SEGMENT_HEADER);
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * Forces the mapped segments to disk this often from a background thread, bounding what a
+         * power failure can lose. Without it, dirty pages are written back whenever the operating
+         * system decides, which survives a process crash but not a machine crash.
+         */
+        public Builder forceInterval(final Duration interval) {
+            if (interval == null || interval.isNegative() || interval.isZero())
+                throw new IllegalArgumentException("interval must be positive");
+            this.forceIntervalNanos = interval.toNanos();
+            return this;
+        }
+
+        /**
+         * Opens the journal in {@code directory}, creating it if needed and recovering it if the
+         * last writer crashed.
+         */
+        public MappedJournal open() throws IOException {
+            return new MappedJournal(this);
+        }
+    }
+
+    public static Builder builder(final Path directory) {
+        if (directory == null)
+            throw new RuntimeException("directory cannot be null");
+        return new Builder(directory);
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final ScheduledExecutorService forcer;
+    /** the segment appends go to; older ones are only kept open until they are forced */
+    private volatile Segment current;
+    private volatile boolean closed;
+    /** why the last roll failed; appends spinning for the segment it did not create give up on it */
+    private volatile IOException failure;
+
+    private MappedJournal(final Builder builder) throws IOException {
+        this.directory = builder.directory;
+        this.segmentSize = builder.segmentSize;
+        Files.createDirectories(this.directory);
+        this.current = this.recover();
+        if (builder.forceIntervalNanos > 0) {
+            this.forcer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "journal-force-" + this.directory.getFileName());
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.forcer.scheduleWithFixedDelay(this::force, builder.forceIntervalNanos, builder.forceIntervalNanos,
+                    TimeUnit.NANOSECONDS);
+        } else {
+            this.forcer = null;
+        }
+    }
+
+    /**
+     * Largest payload that fits in a segment.
+     */
+    public int maxRecordLength() {
+        return this.segmentSize - SEGMENT_HEADER - RECORD_HEADER;
+    }
+
+    public long append(final byte[] payload) {
+        return this.append(payload, 0, payload.length);
+    }
+
+    /**
+     * @return the position of the record, which a {@link Reader} can start from
+     */
+    public long append(final byte[] payload, final int offset, final int length) {
+        final CRC32C crc = CRC.get();
+        crc.reset();
+        crc.update(payload, offset, length);
+        return this.write(length, (int) crc.getValue(), payload, offset, null);
+    }
+
+    /**
+     * Appends the remaining bytes of {@code payload} and consumes them.
+     */
+    public long append(final ByteBuffer payload) {
+        final int start = payload.position();
+        final int length = payload.remaining();
+        final CRC32C crc = CRC.get();
+        crc.reset();
+        crc.update(payload);
+        return this.write(length, (int) crc.getValue(), null, start, payload);
+    }
+
+    /**
+     * Claims {@code length} bytes in the current segment, rolling it if this claim crosses its end,
+     * and copies in the payload from {@code array} or {@code source}.
+     */
+    private long write(final int length, final int crc, final byte[] array, final int offset, final ByteBuffer source) {
+        // a length of 0 marks a record in flight, so empty records cannot be told from one
+        if (length <= 0 || length > this.maxRecordLength())
+            throw new IllegalArgumentException("record length must be in [1, " + this.maxRecordLength() + "]");
+        final int size = align(RECORD_HEADER + length);
+        while (true) {
+            if (this.closed)
+                throw new IllegalStateException("journal closed");
+            if (this.failure != null)
+                throw new IllegalStateException("journal failed to roll", this.failure);
+            final Segment segment = this.current;
+            final long at = (long) LONG.getAndAdd(segment.buffer, TAIL_OFFSET, (long) size);
+            if (at + size <= this.segmentSize) {
+                final MappedByteBuffer buffer = segment.buffer;
+                if (array != null)
+                    buffer.put((int) at + RECORD_HEADER, array, offset, length);
+                else
+                    buffer.put((int) at + RECORD_HEADER, source, offset, length);
+                buffer.putInt((int) at + 4, crc);
+                // the length goes last: a reader that sees it sees the whole record
+                INT.setRelease(buffer, (int) at, length);
+                return segment.index * this.segmentSize + at;
+            }
+            if (at <= this.segmentSize) {
+                // this claim crossed the end, so it is this thread's turn to roll
+                if (at < this.segmentSize)
+                    INT.setRelease(segment.buffer, (int) at, (int) (at - this.segmentSize));
+                this.roll(segment);
+            } else {
+                while (this.current == segment && this.failure == null && !this.closed)
+                    Thread.onSpinWait();
+            }
+        }
+    }
+
+    private void roll(final Segment full) {
+        try {
+            final Segment next = this.create(full.index + 1);
+            this.current = next;
+        } catch (IOException e) {
+            this.failure = e;
+            throw new RuntimeException("cannot create segment " + (full.index + 1), e);
+        }
+        if (this.forcer != null)
+            this.forcer.execute(() -> this.release(full));
+        else
+            this.release(full);
+    }
+
+    private void release(final Segment segment) {
+        try {
+            segment.buffer.force();
+            segment.channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes the mapped pages of the current segment to disk.
+     */
+    public void force() {
+        final Segment segment = this.current;
+        if (segment.channel.isOpen())
+            segment.buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.closed = true;
+        if (this.forcer != null) {
+            this.forcer.shutdown();
+            try {
+                this.forcer.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        this.current.buffer.force();
+        this.current.channel.close();
+    }
+
+    private Path pathOf(final long index) {
+        return this.directory.resolve(String.format("%020d%s", index, SUFFIX));
+    }
+
+    /**
+     * Creates segment {@code index} under a temporary name and renames it into place once its header
+     * is on disk, so that a crash mid-roll leaves either no segment or a valid empty one.
+     */
+    private Segment create(final long index) throws IOException {
+        final Path path = this.pathOf(index);
+        final Path temporary = path.resolveSibling(path.getFileName() + TEMPORARY_SUFFIX);
+        final FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize);
+            buffer.order(ByteOrder.nativeOrder());
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(8, index);
+            LONG.setRelease(buffer, TAIL_OFFSET, (long) SEGMENT_HEADER);
+            buffer.force(0, SEGMENT_HEADER);
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+            return new Segment(index, channel, buffer);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+    }
+
+    private Segment map(final long index) throws IOException {
+        final FileChannel channel = FileChannel.open(this.pathOf(index), StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize);
+        buffer.order(ByteOrder.nativeOrder());
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getLong(8) != index) {
+            channel.close();
+            throw new IOException("not a journal segment: " + this.pathOf(index));
+        }
+        return new Segment(index, channel, buffer);
+    }
+
+    /**
+     * @return whether segment {@code index} was left by a writer that crashed before writing its
+     * header, and so holds no records
+     */
+    private boolean headerless(final long index) throws IOException {
+        try (FileChannel channel = FileChannel.open(this.pathOf(index), StandardOpenOption.READ)) {
+            final ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+            while (magic.hasRemaining() && channel.read(magic, magic.position()) > 0) ;
+            return magic.hasRemaining() || magic.getInt(0) == 0;
+        }
+    }
+
+    private static long[] segmentIndices(final Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SUFFIX))
+                    .mapToLong(name -> Long.parseLong(name.substring(0, name.length() - SUFFIX.length())))
+                    .sorted()
+                    .toArray();
+        }
+    }
+
+    /**
+     * @return the segment to append to, after truncating the journal at its first broken record
+     */
+    private Segment recover() throws IOException {
+        try (Stream<Path> files = Files.list(this.directory)) {
+            for (final Path file : (Iterable<Path>) files
+                    .filter(path -> path.getFileName().toString().endsWith(SUFFIX + TEMPORARY_SUFFIX))::iterator)
+                Files.deleteIfExists(file);
+        }
+        final long[] indices = segmentIndices(this.directory);
+        if (indices.length == 0)
+            return this.create(0);
+        final CRC32C crc = new CRC32C();
+        for (int i = 0; i < indices.length; ++i) {
+            final boolean last = i == indices.length - 1;
+            // journals written before segments were renamed into place may end in a headerless one
+            final Segment segment = last && this.headerless(indices[i])
+                    ? this.create(indices[i])
+                    : this.map(indices[i]);
+            final MappedByteBuffer buffer = segment.buffer;
+            int at = SEGMENT_HEADER;
+            while (at + RECORD_HEADER <= this.segmentSize) {
+                final int length = buffer.getInt(at);
+                if (length < 0 && at - length == this.segmentSize) {
+                    at = this.segmentSize;
+                    break;
+                }
+                if (length <= 0 || length > this.segmentSize - at - RECORD_HEADER || !intact(buffer, at, length, crc))
+                    break;
+                at += align(RECORD_HEADER + length);
+            }
+            if (at + RECORD_HEADER > this.segmentSize && !last) {
+                this.release(segment);
+                continue;
+            }
+            // zero what the broken records left behind, so that no stale length looks committed
+            final int tail = (int) Math.min((long) LONG.getVolatile(buffer, TAIL_OFFSET), this.segmentSize);
+            final byte[] zeros = new byte[4096];
+            for (int zero = at; zero < tail; zero += zeros.length)
+                buffer.put(zero, zeros, 0, Math.min(zeros.length, tail - zero));
+            LONG.setVolatile(buffer, TAIL_OFFSET, (long) at);
+            for (int j = i + 1; j < indices.length; ++j)
+                Files.deleteIfExists(this.pathOf(indices[j]));
+            buffer.force();
+            return segment;
+        }
+        throw new AssertionError("unreachable");
+    }
+
+    private static boolean intact(final ByteBuffer buffer, final int at, final int length, final CRC32C crc) {
+        crc.reset();
+        crc.update(buffer.slice(at + RECORD_HEADER, length));
+        return buffer.getInt(at + 4) == (int) crc.getValue();
+    }
+
+    private static int align(final int size) {
+        return (size + 7) & ~7;
+    }
+
+    /**
+     * A record under a {@link Reader}, valid until the handler it was passed to returns. The payload is
+     * read in place from the mapped segment.
+     */
+    public static final class Record {
+        private ByteBuffer buffer;
+        private int offset;
+        private int length;
+        private long position;
+
+        private Record() {
+        }
+
+        public long position() {
+            return this.position;
+        }
+
+        public int length() {
+            return this.length;
+        }
+
+        /**
+         * The read-only mapped segment; the payload is at {@link #offset()}.
+         */
+        public ByteBuffer buffer() {
+            return this.buffer;
+        }
+
+        public int offset() {
+            return this.offset;
+        }
+
+        public byte getByte(final int index) {
+            return this.buffer.get(this.offset + this.checkIndex(index, 1));
+        }
+
+        public int getInt(final int index) {
+            return this.buffer.getInt(this.offset + this.checkIndex(index, 4));
+        }
+
+        public long getLong(final int index) {
+            return this.buffer.getLong(this.offset + this.checkIndex(index, 8));
+        }
+
+        public void copyTo(final byte[] destination, final int destinationOffset) {
+            this.buffer.get(this.offset, destination, destinationOffset, this.length);
+        }
+
+        private int checkIndex(final int index, final int size) {
+            if (index < 0 || index > this.length - size)
+                throw new IndexOutOfBoundsException(index);
+            return index;
+        }
+    }
+
+    /**
+     * Follows a journal from a position. Confined to one thread; any number of readers can follow
+     * the same journal, in this process or another.
+     */
+    public static final class Reader implements Closeable {
+        private final Path directory;
+        private final int segmentSize;
+        private final Record record = new Record();
+        private long segmentIndex;
+        private int offset;
+        private FileChannel channel;
+        private ByteBuffer buffer;
+
+        private Reader(final Path directory, final int segmentSize, final long position) {
+            this.directory = directory;
+            this.segmentSize = segmentSize;
+            this.segmentIndex = position / segmentSize;
+            this.offset = Math.max(SEGMENT_HEADER, (int) (position % segmentSize));
+        }
+
+        /**
+         * @return the position of the next record to read
+         */
+        public long position() {
+            return this.segmentIndex * this.segmentSize + this.offset;
+        }
+
+        /**
+         * Hands up to {@code limit} committed records to {@code handler}, in journal order.
+         *
+         * @return the number of records read; 0 if the next record is not committed yet
+         */
+        public int poll(final Consumer<Record> handler, final int limit) throws IOException {
+            int read = 0;
+            while (read < limit) {
+                if (this.buffer == null && !this.mapSegment())
+                    break;
+                if (this.offset + RECORD_HEADER > this.segmentSize) {
+                    this.nextSegment();
+                    continue;
+                }
+                final int length = (int) INT.getAcquire(this.buffer, this.offset);
+                if (length == 0)
+                    break;
+                if (length < 0) {
+                    this.nextSegment();
+                    continue;
+                }
+                this.record.buffer = this.buffer;
+                this.record.offset = this.offset + RECORD_HEADER;
+                this.record.length = length;
+                this.record.position = this.position();
+                this.offset += align(RECORD_HEADER + length);
+                handler.accept(this.record);
+                ++read;
+            }
+            return read;
+        }
+
+        private void nextSegment() throws IOException {
+            this.channel.close();
+            this.channel = null;
+            this.buffer = null;
+            ++this.segmentIndex;
+            this.offset = SEGMENT_HEADER;
+        }
+
+        /**
+         * @return {@code false} if the segment does not exist yet or is still being created
+         */
+        private boolean mapSegment() throws IOException {
+            final Path path = this.directory.resolve(String.format("%020d%s", this.segmentIndex, SUFFIX));
+            final FileChannel channel;
+            try {
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                return false;
+            }
+            if (channel.size() < this.segmentSize) {
+                channel.close();
+                return false;
+            }
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, this.segmentSize)
+                    .order(ByteOrder.nativeOrder());
+            if (buffer.getInt(0) != MAGIC) {
+                channel.close();
+                return false;
+            }
+            this.channel = channel;
+            this.buffer = buffer.asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.channel != null)
+                this.channel.close();
+        }
+    }
+
+    /**
+     * @param position a position returned by {@link #append}, or 0 for the start of the journal
+     */
+    public Reader reader(final long position) {
+        return new Reader(this.directory, this.segmentSize, position);
+    }
+
+    /**
+     * Reader for a journal written by another process.
+     */
+    public static Reader reader(final Path directory, final int segmentSize, final long position) {
+        return new Reader(directory, segmentSize, position);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final Path directory = Files.createTempDirectory("journal");
+        final int producers = 4;
+        final int perProducer = 500_000;
+        final int segmentSize = 8 << 20;
+        final long[] lastSequence = new long[producers];
+        final long[] outOfOrder = {0};
+        final long[] read = {0};
+
+        try (MappedJournal journal = MappedJournal.builder(directory)
+                .segmentSize(segmentSize)
+                .forceInterval(Duration.ofMillis(100))
+                .open()) {
+            final Thread[] threads = new Thread[producers];
+            for (int p = 0; p < producers; ++p) {
+                final int producer = p;
+                threads[p] = new Thread(() -> {
+                    final ByteBuffer event = ByteBuffer.allocate(40).order(ByteOrder.nativeOrder());
+                    for (long sequence = 1; sequence <= perProducer; ++sequence) {
+                        event.clear();
+                        event.putInt(producer).putLong(sequence).putLong(System.nanoTime()).flip();
+                        journal.append(event);
+                    }
+                });
+            }
+            // a tailing reader checks that each producer's events arrive in order
+            final Thread tailer = new Thread(() -> {
+                try (Reader reader = journal.reader(0)) {
+                    final Consumer<Record> handler = record -> {
+                        final int producer = record.getInt(0);
+                        final long sequence = record.getLong(4);
+                        if (sequence != lastSequence[producer] + 1)
+                            ++outOfOrder[0];
+                        lastSequence[producer] = sequence;
+                        ++read[0];
+                    };
+                    while (read[0] < (long) producers * perProducer)
+                        if (reader.poll(handler, 1024) == 0)
+                            Thread.onSpinWait();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            final long start = System.nanoTime();
+            tailer.start();
+            for (final Thread thread : threads)
+                thread.start();
+            for (final Thread thread : threads)
+                thread.join();
+            final long appended = System.nanoTime() - start;
+            tailer.join();
+            System.out.println("appended " + (long) producers * perProducer + " events in " + appended / 1_000_000
+                    + " ms over " + segmentIndices(directory).length + " segments, tailed: " + read[0]
+                    + ", out of order: " + outOfOrder[0]);
+        }
+
+        // simulate a crash mid-write: break the last record's checksum, then reopen
+        final long[] indices = segmentIndices(directory);
+        final long lastRecord;
+        try (Reader reader = reader(directory, segmentSize, 0)) {
+            final long[] last = {0};
+            while (reader.poll(record -> last[0] = record.position(), 1 << 16) > 0) ;
+            lastRecord = last[0];
+        }
+        try (RandomAccessFile file = new RandomAccessFile(directory.resolve(
+                String.format("%020d%s", indices[indices.length - 1], SUFFIX)).toFile(), "rw")) {
+            final long at = lastRecord % segmentSize + RECORD_HEADER;
+            file.seek(at);
+            final int b = file.read();
+            file.seek(at);
+            file.write(b ^ 0xff);
+        }
+        try (MappedJournal journal = MappedJournal.builder(directory).segmentSize(segmentSize).open();
+             Reader reader = journal.reader(0)) {
+            long count = 0;
+            int polled;
+            while ((polled = reader.poll(record -> {
+            }, 1 << 16)) > 0)
+                count += polled;
+            journal.append(new byte[]{1, 2, 3});
+            System.out.println("after recovery: " + count + " records, next append at " + reader.position()
+                    + ", readable: " + reader.poll(record -> {
+            }, 1));
+        }
+
+        // simulate a crash between creating a segment file and writing its header
+        final long[] recovered = segmentIndices(directory);
+        Files.createFile(directory.resolve(String.format("%020d%s", recovered[recovered.length - 1] + 1, SUFFIX)));
+        try (MappedJournal journal = MappedJournal.builder(directory).segmentSize(segmentSize).open()) {
+            System.out.println("after a crash mid-roll: next append at " + journal.append(new byte[]{4, 5, 6}));
+        }
+
+        final List<Path> files = new ArrayList<>();
+        try (Stream<Path> list = Files.list(directory)) {
+            list.forEach(files::add);
+        }
+        for (final Path file : files)
+            Files.delete(file);
+        Files.delete(directory);
+    }
+
+}
@@ -0,0 +1,274 @@
+package code.shubham.collections;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Relaxed concurrent priority queue (Rihani, Sanders and Dementiev). Elements are spread over many
+ * binary heaps, each behind its own lock:
+ * <ul>
+ *     <li>{@link #offer} pushes into a random heap whose lock it can take without waiting;</li>
+ *     <li>{@link #poll} reads the minimum of {@code choices} random heaps without locking and
+ *     pops from the heap with the smaller one, again only if its lock is free.</li>
+ * </ul>
+ * Threads rarely meet on a lock, so throughput grows with the thread count instead of queueing
+ * behind the single lock of {@link java.util.concurrent.PriorityBlockingQueue}. In exchange {@link #poll}
+ * returns an element close to the minimum rather than the minimum: the expected rank of the result
+ * grows with the number of heaps and shrinks with {@code choices}.
+ */
+public class MultiQueue<E> {
+
+    @jdk.internal.vm.annotation.Contended
+    private static final class Heap extends ReentrantLock {
+        private Object[] elements = new Object[16];
+        private int size;
+        /** the root, published for lock-free sampling; {@code null} when empty */
+        private volatile Object top;
+    }
+
+    private final Heap[] heaps;
+    private final int choices;
+    private final Comparator<? super E> comparator;
+
+    /**
+     * Two heaps per available processor, sampled two at a time, ordered naturally.
+     */
+    public MultiQueue() {
+        this(2 * Runtime.getRuntime().availableProcessors(), 2, null);
+    }
+
+    /**
+     * @param heaps      more heaps mean less contention but looser ordering; c * P for P threads,
+     *                   with c between 2 and 4, is the usual choice
+     * @param choices    heaps compared per poll; 2 already gives most of the gain
+     * @param comparator {@code null} for natural ordering
+     */
+    @SuppressWarnings("unchecked")
+    public MultiQueue(final int heaps, final int choices, final Comparator<? super E> comparator) {
+        if (heaps <= 0)
+            throw new IllegalArgumentException("heaps must be positive");
+        if (choices <= 0 || choices > heaps)
+            throw new IllegalArgumentException("choices must be in [1, heaps]");
+        this.heaps = new Heap[heaps];
+        for (int i = 0; i < heaps; ++i)
+            this.heaps[i] = new Heap();
+        this.choices = choices;
+        this.comparator = comparator == null ? (Comparator<? super E>) Comparator.naturalOrder() : comparator;
+    }
+
+    public void offer(final E element) {
+        if (element == null)
+            throw new RuntimeException("element cannot be null");
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int attempt = 0; ; ++attempt) {
+            final Heap heap = this.heaps[random.nextInt(this.heaps.length)];
+            // after a round of busy heaps, wait for one instead of spinning on
+            if (attempt < this.heaps.length ? heap.tryLock() : lock(heap)) {
+                try {
+                    this.push(heap, element);
+                    return;
+                } finally {
+                    heap.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return an element near the minimum, or {@code null} if every heap was seen empty
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (true) {
+            Heap best = null;
+            Object bestTop = null;
+            for (int c = 0; c < this.choices; ++c) {
+                final Heap heap = this.heaps[random.nextInt(this.heaps.length)];
+                final Object top = heap.top;
+                if (top != null && (bestTop == null || this.comparator.compare((E) top, (E) bestTop) < 0)) {
+                    best = heap;
+                    bestTop = top;
+                }
+            }
+            if (best == null)
+                return this.pollAny(random.nextInt(this.heaps.length));
+            if (best.tryLock()) {
+                try {
+                    if (best.size > 0)
+                        return this.pop(best);
+                } finally {
+                    best.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * The sampled heaps were empty: scan every heap once so that a nearly empty queue still
+     * hands out what it holds.
+     */
+    private E pollAny(final int start) {
+        for (int i = 0; i < this.heaps.length; ++i) {
+            final Heap heap = this.heaps[(start + i) % this.heaps.length];
+            if (heap.top == null)
+                continue;
+            heap.lock();
+            try {
+                if (heap.size > 0)
+                    return this.pop(heap);
+            } finally {
+                heap.unlock();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the smallest of the heap minimums, without removing it; exact only when no thread
+     * is writing
+     */
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        Object best = null;
+        for (final Heap heap : this.heaps) {
+            final Object top = heap.top;
+            if (top != null && (best == null || this.comparator.compare((E) top, (E) best) < 0))
+                best = top;
+        }
+        return (E) best;
+    }
+
+    /**
+     * Sums the heap sizes one lock at a time, so the result is exact only when no thread is
+     * writing.
+     */
+    public int size() {
+        int size = 0;
+        for (final Heap heap : this.heaps) {
+            heap.lock();
+            try {
+                size += heap.size;
+            } finally {
+                heap.unlock();
+            }
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        for (final Heap heap : this.heaps)
+            if (heap.top != null)
+                return false;
+        return true;
+    }
+
+    private static boolean lock(final Heap heap) {
+        heap.lock();
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void push(final Heap heap, final E element) {
+        if (heap.size == heap.elements.length)
+            heap.elements = Arrays.copyOf(heap.elements, heap.size << 1);
+        final Object[] elements = heap.elements;
+        int i = heap.size++;
+        while (i > 0) {
+            final int parent = (i - 1) >>> 1;
+            final Object p = elements[parent];
+            if (this.comparator.compare(element, (E) p) >= 0)
+                break;
+            elements[i] = p;
+            i = parent;
+        }
+        elements[i] = element;
+        if (i == 0)
+            heap.top = element;
+    }
+
+    @SuppressWarnings("unchecked")
+    private E pop(final Heap heap) {
+        final Object[] elements = heap.elements;
+        final E result = (E) elements[0];
+        final int size = --heap.size;
+        final Object last = elements[size];
+        elements[size] = null;
+        if (size > 0) {
+            int i = 0;
+            for (int half = size >>> 1; i < half; ) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && this.comparator.compare((E) elements[child + 1], (E) elements[child]) < 0)
+                    ++child;
+                if (this.comparator.compare((E) last, (E) elements[child]) <= 0)
+                    break;
+                elements[i] = elements[child];
+                i = child;
+            }
+            elements[i] = last;
+        }
+        heap.top = size > 0 ? elements[0] : null;
+        return result;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final int threads = 4;
+        final int perThread = 1_000_000;
+
+        // producers and consumers run at once; every element must come out exactly once
+        final MultiQueue<Long> queue = new MultiQueue<>(2 * threads, 2, null);
+        final long[] sums = new long[threads];
+        final Thread[] workers = new Thread[2 * threads];
+        for (int t = 0; t < threads; ++t) {
+            final int id = t;
+            workers[t] = new Thread(() -> {
+                for (long i = id; i < (long) threads * perThread; i += threads)
+                    queue.offer(i);
+            });
+            workers[threads + t] = new Thread(() -> {
+                for (int taken = 0; taken < perThread; ) {
+                    final Long element = queue.poll();
+                    if (element != null) {
+                        sums[id] += element;
+                        ++taken;
+                    }
+                }
+            });
+        }
+        final long start = System.nanoTime();
+        for (final Thread worker : workers)
+            worker.start();
+        for (final Thread worker : workers)
+            worker.join();
+        final long n = (long) threads * perThread;
+        System.out.println("sum: " + Arrays.stream(sums).sum() + " (expected " + n * (n - 1) / 2 + ") in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms, empty: " + queue.isEmpty());
+
+        // ordering quality: mean rank of each polled element among the elements still queued
+        final int size = 1 << 17;
+        final int polls = 10_000;
+        for (final int[] config : new int[][]{{1, 1}, {8, 2}, {8, 4}, {32, 2}}) {
+            final MultiQueue<Integer> relaxed = new MultiQueue<>(config[0], config[1], null);
+            for (int i = 0; i < size; ++i)
+                relaxed.offer(Integer.reverse(i) >>> 15);
+            // Fenwick tree over the values 0 .. size - 1 counting those not yet polled
+            final int[] tree = new int[size + 1];
+            for (int v = 1; v <= size; ++v)
+                for (int j = v; j <= size; j += j & -j)
+                    ++tree[j];
+            long rankSum = 0;
+            for (int i = 0; i < polls; ++i) {
+                final int polled = relaxed.poll();
+                for (int j = polled; j > 0; j -= j & -j)
+                    rankSum += tree[j];
+                for (int j = polled + 1; j <= size; j += j & -j)
+                    --tree[j];
+            }
+            System.out.printf("heaps: %d, choices: %d, mean rank error: %.1f%n", config[0], config[1],
+                    (double) rankSum / polls);
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+package code.shubham.collections;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link MultiQueue} versus {@link PriorityBlockingQueue} under a steady state of timed work: each
+ * operation offers an element with a random deadline and polls one, on a queue holding
+ * {@code QUEUED} elements. {@link #main} runs the suite with 1 to 8 threads to show scaling; the
+ * multi queue gets {@code heapsPerThread} heaps per thread. Scores are operations per microsecond.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-XX:-RestrictContended", "-XX:ContendedPaddingWidth=64"})
+@State(Scope.Benchmark)
+public class MultiQueueBenchmark {
+
+    private static final int QUEUED = 1 << 16;
+
+    @Param({"2", "4"})
+    public int heapsPerThread;
+
+    private MultiQueue<Long> multiQueue;
+    private PriorityBlockingQueue<Long> blockingQueue;
+
+    @State(Scope.Thread)
+    public static class Deadlines {
+        private final SplittableRandom random = new SplittableRandom();
+
+        long next() {
+            return this.random.nextLong(1L << 40);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp(final BenchmarkParams params) {
+        this.multiQueue = new MultiQueue<>(this.heapsPerThread * params.getThreads(), 2, null);
+        this.blockingQueue = new PriorityBlockingQueue<>(2 * QUEUED);
+        final Deadlines deadlines = new Deadlines();
+        for (int i = 0; i < QUEUED; ++i) {
+            final long deadline = deadlines.next();
+            this.multiQueue.offer(deadline);
+            this.blockingQueue.offer(deadline);
+        }
+    }
+
+    @Benchmark
+    public Long multiQueue(final Deadlines deadlines) {
+        this.multiQueue.offer(deadlines.next());
+        return this.multiQueue.poll();
+    }
+
+    @Benchmark
+    public Long priorityBlockingQueue(final Deadlines deadlines) {
+        this.blockingQueue.offer(deadlines.next());
+        return this.blockingQueue.poll();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (final int threads : new int[]{1, 2, 4, 8})
+            new Runner(new OptionsBuilder()
+                    .include(MultiQueueBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build()).run();
+    }
+
+}
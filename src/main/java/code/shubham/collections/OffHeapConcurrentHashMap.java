@@ -0,0 +1,556 @@
+package code.shubham.collections;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Off-heap sibling of {@link ConcurrentHashMap} for many small fixed-size entries. All slots live in
+ * one {@link MemorySegment} of a shared {@link Arena}, so the heap only holds this object and a fixed
+ * set of locks no matter how many entries the map has. Memory is released by {@link #close()}.
+ * <p>
+ * A slot is {@code [int control][int hash][key][value]}, padded to 8 bytes. The control word packs
+ * a state into its low two bits and a version into the rest, and every transition is a CAS on it:
+ * <pre>
+ *   EMPTY -> BUSY -> FULL -> BUSY -> FULL ...
+ *                    FULL -> REMOVED -> BUSY -> FULL      (the same key, or any other)
+ *                            REMOVED -> EMPTY             (when the next slot is EMPTY)
+ * </pre>
+ * The hash, key and value of a slot only change while it is BUSY, and each change ends with a new
+ * version, so readers compare keys and copy values seqlock style, re-checking the control word.
+ * <p>
+ * Reads, removals and updates of present keys take no lock. Inserting an absent key holds a lock
+ * picked by its hash, so the same key is never inserted into two slots, and reuses the first
+ * REMOVED slot on its probe path. A REMOVED slot followed by an EMPTY one ends no probe path and is
+ * returned to EMPTY, cascading backwards. That and claiming an EMPTY slot hold locks picked by slot
+ * region, so a probe path is never cut while a key is being placed at its end.
+ * <p>
+ * Tombstones in the middle of a run of slots are only freed by {@link #compact}, which runs once
+ * fewer than an eighth of the slots are EMPTY, so that churn never leaves absent keys to probe the
+ * whole table. It holds every lock, pausing inserts of absent keys for one pass over the slots;
+ * reads, updates and removals carry on.
+ */
+public class OffHeapConcurrentHashMap implements AutoCloseable {
+
+    private static final int EMPTY = 0;
+    private static final int BUSY = 1;
+    private static final int FULL = 2;
+    private static final int REMOVED = 3;
+
+    private static final int STATE_MASK = 3;
+    private static final int VERSION_INCREMENT = 4;
+
+    private static final long CONTROL_OFFSET = 0;
+    private static final long HASH_OFFSET = 4;
+    private static final long KEY_OFFSET = 8;
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private static final int LOCK_COUNT = 64;
+    /** consecutive slots that share a region lock */
+    private static final int REGION_SHIFT = 6;
+    /** one in this many inserts of an absent key checks whether to compact */
+    private static final int COMPACTION_SAMPLE_MASK = 63;
+
+    private static final VarHandle CONTROL = ValueLayout.JAVA_INT.varHandle();
+
+    private final Arena arena;
+    private final MemorySegment slots;
+    private final int keySize;
+    private final int valueSize;
+    private final long slotSize;
+    private final long mask;
+    private final LongAdder size = new LongAdder();
+    /** slots that are not EMPTY */
+    private final LongAdder used = new LongAdder();
+    /** {@link #used} at which to compact next */
+    private volatile long compactionThreshold;
+    private final ReentrantLock compactionLock = new ReentrantLock();
+    private final ReentrantLock[] keyLocks = new ReentrantLock[LOCK_COUNT];
+    private final ReentrantLock[] regionLocks = new ReentrantLock[LOCK_COUNT];
+
+    public OffHeapConcurrentHashMap(final long capacity, final int keySize, final int valueSize) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+        if (keySize <= 0 || valueSize <= 0)
+            throw new IllegalArgumentException("keySize and valueSize must be positive");
+
+        final long slotCount = Long.highestOneBit(Math.max(2L, (long) (capacity / LOAD_FACTOR) - 1) << 1);
+        this.keySize = keySize;
+        this.valueSize = valueSize;
+        this.slotSize = (KEY_OFFSET + keySize + valueSize + 7) & ~7L;
+        this.mask = slotCount - 1;
+        this.arena = Arena.ofShared();
+        this.slots = this.arena.allocate(slotCount * this.slotSize, Long.BYTES);
+        this.compactionThreshold = slotCount - slotCount / 8;
+        for (int i = 0; i < LOCK_COUNT; ++i) {
+            this.keyLocks[i] = new ReentrantLock();
+            this.regionLocks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * @return {@code true} if an existing value was replaced
+     */
+    public boolean put(final MemorySegment key, final MemorySegment value) {
+        this.checkKey(key);
+        if (value.byteSize() != this.valueSize)
+            throw new IllegalArgumentException("value must be " + this.valueSize + " bytes");
+
+        final int hash = hash(key);
+        if (this.replace(key, hash, value))
+            return true;
+        final ReentrantLock lock = this.keyLocks[hash & (LOCK_COUNT - 1)];
+        final boolean replaced;
+        lock.lock();
+        try {
+            replaced = this.insert(key, hash, value);
+        } finally {
+            lock.unlock();
+        }
+        if ((hash & COMPACTION_SAMPLE_MASK) == 0 && this.used.sum() >= this.compactionThreshold)
+            this.compact();
+        return replaced;
+    }
+
+    /**
+     * Copies the value of {@code key} into {@code valueOut}.
+     *
+     * @return {@code false} if the key is absent, in which case {@code valueOut} is untouched
+     */
+    public boolean get(final MemorySegment key, final MemorySegment valueOut) {
+        this.checkKey(key);
+        if (valueOut.byteSize() < this.valueSize)
+            throw new IllegalArgumentException("valueOut must hold " + this.valueSize + " bytes");
+        return this.lookup(key, hash(key), valueOut);
+    }
+
+    public boolean containsKey(final MemorySegment key) {
+        this.checkKey(key);
+        return this.lookup(key, hash(key), null);
+    }
+
+    /**
+     * @return {@code true} if the key was present
+     */
+    public boolean remove(final MemorySegment key) {
+        this.checkKey(key);
+        final int hash = hash(key);
+        long index = hash & this.mask;
+        for (long probes = 0; probes <= this.mask; ) {
+            final long slot = index * this.slotSize;
+            final int control = (int) CONTROL.getVolatile(this.slots, slot + CONTROL_OFFSET);
+            final int state = control & STATE_MASK;
+
+            if (state == EMPTY)
+                return false;
+            if (state == BUSY) {
+                Thread.onSpinWait();
+                continue;
+            }
+            final boolean match = this.keyEquals(slot, hash, key);
+            if (!this.unchanged(slot, control))
+                continue;
+            if (!match) {
+                index = (index + 1) & this.mask;
+                ++probes;
+                continue;
+            }
+            if (state == REMOVED)
+                return false;
+            if (CONTROL.compareAndSet(this.slots, slot + CONTROL_OFFSET, control,
+                    ((control & ~STATE_MASK) + VERSION_INCREMENT) | REMOVED)) {
+                this.size.decrement();
+                this.reclaim(index);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long size() {
+        return this.size.sum();
+    }
+
+    public long capacity() {
+        return (long) ((this.mask + 1) * LOAD_FACTOR);
+    }
+
+    /**
+     * Off-heap bytes reserved for the slots.
+     */
+    public long byteSize() {
+        return this.slots.byteSize();
+    }
+
+    /**
+     * Frees the off-heap memory. Concurrent or later accesses fail with {@link IllegalStateException}.
+     */
+    @Override
+    public void close() {
+        this.arena.close();
+    }
+
+    /**
+     * Copies the value of {@code key} into {@code valueOut} unless it is {@code null}.
+     */
+    private boolean lookup(final MemorySegment key, final int hash, final MemorySegment valueOut) {
+        long index = hash & this.mask;
+        for (long probes = 0; probes <= this.mask; ) {
+            final long slot = index * this.slotSize;
+            final int control = (int) CONTROL.getVolatile(this.slots, slot + CONTROL_OFFSET);
+            final int state = control & STATE_MASK;
+
+            if (state == EMPTY)
+                return false;
+            if (state == BUSY) {
+                Thread.onSpinWait();
+                continue;
+            }
+            final boolean match = this.keyEquals(slot, hash, key);
+            if (!this.unchanged(slot, control))
+                continue;
+            if (!match) {
+                index = (index + 1) & this.mask;
+                ++probes;
+                continue;
+            }
+            // a key is in at most one slot, so a REMOVED match means it is absent
+            if (state == REMOVED)
+                return false;
+            if (valueOut == null)
+                return true;
+            MemorySegment.copy(this.slots, slot + KEY_OFFSET + this.keySize, valueOut, 0, this.valueSize);
+            if (this.unchanged(slot, control))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Overwrites the value of {@code key} if it is present, without locking.
+     */
+    private boolean replace(final MemorySegment key, final int hash, final MemorySegment value) {
+        long index = hash & this.mask;
+        for (long probes = 0; probes <= this.mask; ) {
+            final long slot = index * this.slotSize;
+            final int control = (int) CONTROL.getVolatile(this.slots, slot + CONTROL_OFFSET);
+            final int state = control & STATE_MASK;
+
+            if (state == EMPTY)
+                return false;
+            if (state == BUSY) {
+                Thread.onSpinWait();
+                continue;
+            }
+            final boolean match = this.keyEquals(slot, hash, key);
+            if (!this.unchanged(slot, control))
+                continue;
+            if (!match) {
+                index = (index + 1) & this.mask;
+                ++probes;
+                continue;
+            }
+            if (state == REMOVED)
+                return false;
+            if (CONTROL.compareAndSet(this.slots, slot + CONTROL_OFFSET, control, (control & ~STATE_MASK) | BUSY)) {
+                this.writeValue(slot, control, value);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Under the key lock of {@code hash}: revives the slot of {@code key} if it still has one, or
+     * claims the first REMOVED or EMPTY slot of its probe path.
+     */
+    private boolean insert(final MemorySegment key, final int hash, final MemorySegment value) {
+        while (true) {
+            long index = hash & this.mask, free = -1;
+            int freeControl = 0;
+            for (long probes = 0; probes <= this.mask; ) {
+                final long slot = index * this.slotSize;
+                final int control = (int) CONTROL.getVolatile(this.slots, slot + CONTROL_OFFSET);
+                final int state = control & STATE_MASK;
+
+                if (state == EMPTY) {
+                    if (free < 0) {
+                        free = index;
+                        freeControl = control;
+                    }
+                    break;
+                }
+                if (state == BUSY) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                final boolean match = this.keyEquals(slot, hash, key);
+                if (!this.unchanged(slot, control))
+                    continue;
+                if (match) {
+                    // put by another thread since the lock-free attempt, or removed and still here
+                    if (!CONTROL.compareAndSet(this.slots, slot + CONTROL_OFFSET, control,
+                            (control & ~STATE_MASK) | BUSY))
+                        continue;
+                    this.writeValue(slot, control, value);
+                    if (state == REMOVED)
+                        this.size.increment();
+                    return state == FULL;
+                }
+                if (state == REMOVED && free < 0) {
+                    free = index;
+                    freeControl = control;
+                }
+                index = (index + 1) & this.mask;
+                ++probes;
+            }
+            if (free < 0)
+                throw new IllegalStateException("map is full");
+            if (this.claim(key, hash, value, free, freeControl))
+                return false;
+        }
+    }
+
+    /**
+     * Takes slot {@code index}, REMOVED or EMPTY with {@code control}, for {@code key}. A REMOVED
+     * slot keeps the probe path up to it intact for as long as it is not EMPTY. Taking an EMPTY slot
+     * holds its region lock, which {@link #reclaim} of the slot before it needs too; the path is
+     * checked again under it, since a slot on it may have been removed and reclaimed meanwhile.
+     *
+     * @return {@code false} if the probe path changed and the caller must look again
+     */
+    private boolean claim(final MemorySegment key, final int hash, final MemorySegment value,
+                          final long index, final int control) {
+        final long slot = index * this.slotSize;
+        if ((control & STATE_MASK) == REMOVED)
+            return this.claimSlot(key, hash, value, slot, control);
+
+        final ReentrantLock lock = this.regionLock(index);
+        lock.lock();
+        try {
+            for (long path = hash & this.mask; path != index; path = (path + 1) & this.mask) {
+                final int state = this.stateOf(path);
+                if (state == EMPTY || state == REMOVED)
+                    return false;
+            }
+            return this.claimSlot(key, hash, value, slot, control);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean claimSlot(final MemorySegment key, final int hash, final MemorySegment value,
+                              final long slot, final int control) {
+        if (!CONTROL.compareAndSet(this.slots, slot + CONTROL_OFFSET, control, (control & ~STATE_MASK) | BUSY))
+            return false;
+        if ((control & STATE_MASK) == EMPTY)
+            this.used.increment();
+        this.slots.set(ValueLayout.JAVA_INT, slot + HASH_OFFSET, hash);
+        MemorySegment.copy(key, 0, this.slots, slot + KEY_OFFSET, this.keySize);
+        this.writeValue(slot, control, value);
+        this.size.increment();
+        return true;
+    }
+
+    /**
+     * Returns REMOVED slot {@code index} to EMPTY while the slot after it is EMPTY, then does the same
+     * for the slots before it. No key sits past an EMPTY slot on its probe path, so such a slot ends
+     * no path; both region locks keep an insertion from claiming the next slot meanwhile.
+     */
+    private void reclaim(long index) {
+        for (long reclaimed = 0; reclaimed <= this.mask; ++reclaimed) {
+            final long next = (index + 1) & this.mask;
+            if (this.stateOf(next) != EMPTY)
+                return;
+            // in lock order; both slots often share a region, and the lock is reentrant
+            final int lock = regionLockIndex(index), nextLock = regionLockIndex(next);
+            final ReentrantLock first = this.regionLocks[Math.min(lock, nextLock)];
+            final ReentrantLock second = this.regionLocks[Math.max(lock, nextLock)];
+            first.lock();
+            second.lock();
+            try {
+                final long slot = index * this.slotSize;
+                final int control = (int) CONTROL.getVolatile(this.slots, slot + CONTROL_OFFSET);
+                if ((control & STATE_MASK) != REMOVED
+                        || this.stateOf(next) != EMPTY
+                        || !CONTROL.compareAndSet(this.slots, slot + CONTROL_OFFSET, control,
+                        (control & ~STATE_MASK) + VERSION_INCREMENT))
+                    return;
+                this.used.decrement();
+            } finally {
+                second.unlock();
+                first.unlock();
+            }
+            index = (index - 1) & this.mask;
+            if (this.stateOf(index) != REMOVED)
+                return;
+        }
+    }
+
+    /**
+     * Returns to EMPTY every REMOVED slot that no present key's probe path crosses, that is with no
+     * FULL or BUSY slot after it in its run of slots whose key hashes to it or before it. Holding
+     * every key and region lock leaves only removals, which make fewer keys present, and value
+     * updates, which move none, running meanwhile. Readers of a present key never meet a slot
+     * freed here, and readers of an absent one may just stop sooner.
+     */
+    private void compact() {
+        if (!this.compactionLock.tryLock())
+            return;
+        try {
+            if (this.used.sum() < this.compactionThreshold)
+                return;
+            for (final ReentrantLock lock : this.keyLocks)
+                lock.lock();
+            for (final ReentrantLock lock : this.regionLocks)
+                lock.lock();
+            try {
+                long start = 0;
+                while (start <= this.mask && this.stateOf(start) != EMPTY)
+                    ++start;
+                // runs do not wrap around an EMPTY slot, so walk them from one
+                if (start <= this.mask) {
+                    long end = start;
+                    for (long offset = 1; offset <= this.mask + 1; ++offset) {
+                        final long index = (start + offset) & this.mask;
+                        if (this.stateOf(index) != EMPTY)
+                            continue;
+                        if (((end + 1) & this.mask) != index)
+                            this.compactRun((end + 1) & this.mask, (index - 1) & this.mask);
+                        end = index;
+                    }
+                }
+            } finally {
+                for (int i = LOCK_COUNT - 1; i >= 0; --i)
+                    this.regionLocks[i].unlock();
+                for (int i = LOCK_COUNT - 1; i >= 0; --i)
+                    this.keyLocks[i].unlock();
+            }
+            final long slotCount = this.mask + 1;
+            // a pass that freed little is not repeated by the next few inserts, nor put off for good
+            this.compactionThreshold = Math.max(slotCount - slotCount / 8,
+                    Math.min(this.used.sum() + slotCount / 16, slotCount - slotCount / 32));
+        } finally {
+            this.compactionLock.unlock();
+        }
+    }
+
+    /**
+     * Frees the REMOVED slots of the run from {@code first} to {@code last} that no present key's
+     * probe path crosses, walking it backwards from {@code last}.
+     */
+    private void compactRun(final long first, final long last) {
+        // distance from first of the earliest home of a present key seen so far
+        long earliestHome = Long.MAX_VALUE;
+        for (long index = last; ; index = (index - 1) & this.mask) {
+            final long slot = index * this.slotSize;
+            final int control = (int) CONTROL.getVolatile(this.slots, slot + CONTROL_OFFSET);
+            final long distance = (index - first) & this.mask;
+            if ((control & STATE_MASK) != REMOVED) {
+                final long home = this.slots.get(ValueLayout.JAVA_INT, slot + HASH_OFFSET) & this.mask;
+                earliestHome = Math.min(earliestHome, (home - first) & this.mask);
+            } else if (distance < earliestHome && CONTROL.compareAndSet(this.slots, slot + CONTROL_OFFSET,
+                    control, (control & ~STATE_MASK) + VERSION_INCREMENT)) {
+                this.used.decrement();
+            }
+            if (index == first)
+                return;
+        }
+    }
+
+    private int stateOf(final long index) {
+        return (int) CONTROL.getVolatile(this.slots, index * this.slotSize + CONTROL_OFFSET) & STATE_MASK;
+    }
+
+    private ReentrantLock regionLock(final long index) {
+        return this.regionLocks[regionLockIndex(index)];
+    }
+
+    private static int regionLockIndex(final long index) {
+        return (int) (index >>> REGION_SHIFT) & (LOCK_COUNT - 1);
+    }
+
+    /**
+     * Whether the control word of {@code slot} is still {@code control}, i.e. what was read from the
+     * slot since belongs to it.
+     */
+    private boolean unchanged(final long slot, final int control) {
+        VarHandle.loadLoadFence();
+        return (int) CONTROL.getVolatile(this.slots, slot + CONTROL_OFFSET) == control;
+    }
+
+    /**
+     * Called while holding the slot in BUSY; publishes the value with the next version.
+     */
+    private void writeValue(final long slot, final int control, final MemorySegment value) {
+        MemorySegment.copy(value, 0, this.slots, slot + KEY_OFFSET + this.keySize, this.valueSize);
+        CONTROL.setRelease(this.slots, slot + CONTROL_OFFSET, ((control & ~STATE_MASK) + VERSION_INCREMENT) | FULL);
+    }
+
+    private boolean keyEquals(final long slot, final int hash, final MemorySegment key) {
+        return this.slots.get(ValueLayout.JAVA_INT, slot + HASH_OFFSET) == hash
+                && MemorySegment.mismatch(this.slots, slot + KEY_OFFSET, slot + KEY_OFFSET + this.keySize,
+                key, 0, this.keySize) == -1;
+    }
+
+    private void checkKey(final MemorySegment key) {
+        if (key.byteSize() != this.keySize)
+            throw new IllegalArgumentException("key must be " + this.keySize + " bytes");
+    }
+
+    private static int hash(final MemorySegment key) {
+        final long length = key.byteSize();
+        long h = length * 0x9E3779B97F4A7C15L;
+        long offset = 0;
+        for (; offset + Long.BYTES <= length; offset += Long.BYTES)
+            h = (h ^ key.get(ValueLayout.JAVA_LONG_UNALIGNED, offset)) * 0xBF58476D1CE4E5B9L;
+        for (; offset < length; ++offset)
+            h = (h ^ key.get(ValueLayout.JAVA_BYTE, offset)) * 0x94D049BB133111EBL;
+        h ^= h >>> 31;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final int entries = 4_000_000;
+        try (OffHeapConcurrentHashMap map = new OffHeapConcurrentHashMap(entries, Long.BYTES, Long.BYTES)) {
+            final Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; ++t) {
+                final int offset = t;
+                threads[t] = new Thread(() -> {
+                    try (Arena scratch = Arena.ofConfined()) {
+                        final MemorySegment key = scratch.allocate(ValueLayout.JAVA_LONG);
+                        final MemorySegment value = scratch.allocate(ValueLayout.JAVA_LONG);
+                        for (long i = offset; i < entries; i += threads.length) {
+                            key.set(ValueLayout.JAVA_LONG, 0, i);
+                            value.set(ValueLayout.JAVA_LONG, 0, i * i);
+                            map.put(key, value);
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            for (final Thread thread : threads)
+                thread.join();
+
+            try (Arena scratch = Arena.ofConfined()) {
+                final MemorySegment key = scratch.allocate(ValueLayout.JAVA_LONG);
+                final MemorySegment value = scratch.allocate(ValueLayout.JAVA_LONG);
+                int missing = 0;
+                for (long i = 0; i < entries; ++i) {
+                    key.set(ValueLayout.JAVA_LONG, 0, i);
+                    if (!map.get(key, value) || value.get(ValueLayout.JAVA_LONG, 0) != i * i)
+                        ++missing;
+                }
+                key.set(ValueLayout.JAVA_LONG, 0, 7L);
+                map.remove(key);
+                System.out.println("size: " + map.size() + ", off-heap bytes: " + map.byteSize()
+                        + ", missing: " + missing + ", 7 present: " + map.containsKey(key));
+            }
+        }
+    }
+
+}
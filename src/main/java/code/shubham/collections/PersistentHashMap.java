@@ -0,0 +1,566 @@
+package code.shubham.collections;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable hash array mapped trie. Every level consumes 5 bits of the hash. A node keeps a 32 bit
+ * bitmap of its occupied slots and a dense array of pairs: a key and its value, or {@code null} and
+ * a child node. Keys whose full hashes are equal share a collision node.
+ * <p>
+ * {@link #plus} and {@link #minus} copy the O(log32 n) nodes on the path to the key and share the
+ * rest with the original map. Nothing is ever modified after publication, so any thread can read or
+ * iterate a map without locking and without {@link java.util.ConcurrentModificationException}.
+ * <p>
+ * An {@link Editor} applies many changes at once. The nodes it creates are stamped with its token
+ * and modified in place until {@link Editor#done}, so a batch copies each shared node at most once.
+ */
+public final class PersistentHashMap<K, V> implements Iterable<Map.Entry<K, V>> {
+
+    private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(null, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentHashMap(final Node root, final int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public V get(final K key) {
+        return this.getOrDefault(key, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V getOrDefault(final K key, final V defaultValue) {
+        if (key == null)
+            throw new RuntimeException("key cannot be null");
+        return this.root == null ? defaultValue : (V) this.root.find(0, hash(key), key, defaultValue);
+    }
+
+    public boolean containsKey(final K key) {
+        if (key == null)
+            throw new RuntimeException("key cannot be null");
+        return this.root != null && this.root.find(0, hash(key), key, NOT_FOUND) != NOT_FOUND;
+    }
+
+    /**
+     * @return a map with {@code key} mapped to {@code value}, or this map if it already is
+     */
+    public PersistentHashMap<K, V> plus(final K key, final V value) {
+        checkEntry(key, value);
+        final Change change = new Change();
+        final Node root = (this.root == null ? BitmapNode.EMPTY : this.root)
+                .put(null, 0, hash(key), key, value, change);
+        return root == this.root ? this : new PersistentHashMap<>(root, change.added ? this.size + 1 : this.size);
+    }
+
+    /**
+     * @return a map without {@code key}, or this map if it has no such key
+     */
+    public PersistentHashMap<K, V> minus(final K key) {
+        if (key == null)
+            throw new RuntimeException("key cannot be null");
+        if (this.root == null)
+            return this;
+        final Node root = this.root.remove(null, 0, hash(key), key, new Change());
+        if (root == this.root)
+            return this;
+        return root == null ? empty() : new PersistentHashMap<>(root, this.size - 1);
+    }
+
+    /**
+     * @return an editor starting from this map, which stays unchanged
+     */
+    public Editor<K, V> edit() {
+        return new Editor<>(this);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(final BiConsumer<? super K, ? super V> action) {
+        if (this.root != null)
+            this.root.forEach((BiConsumer<Object, Object>) action);
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, V>> iterator() {
+        return new EntryIterator<>(this.root);
+    }
+
+    public Map<K, V> toMap() {
+        final Map<K, V> map = new java.util.HashMap<>(this.size * 4 / 3 + 1);
+        this.forEach(map::put);
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("{");
+        this.forEach((key, value) -> {
+            if (builder.length() > 1)
+                builder.append(", ");
+            builder.append(key).append('=').append(value);
+        });
+        return builder.append('}').toString();
+    }
+
+    /**
+     * Batch of changes to a map. Confined to one thread, and unusable after {@link #done}, since
+     * the nodes it edits in place are shared by the map returned from there.
+     */
+    public static final class Editor<K, V> {
+        private Node root;
+        private int size;
+        private Object token = new Object();
+        private final Change change = new Change();
+
+        private Editor(final PersistentHashMap<K, V> map) {
+            this.root = map.root;
+            this.size = map.size;
+        }
+
+        @SuppressWarnings("unchecked")
+        public V get(final K key) {
+            this.checkOpen();
+            if (key == null)
+                throw new RuntimeException("key cannot be null");
+            return this.root == null ? null : (V) this.root.find(0, hash(key), key, null);
+        }
+
+        public int size() {
+            this.checkOpen();
+            return this.size;
+        }
+
+        public Editor<K, V> put(final K key, final V value) {
+            this.checkOpen();
+            checkEntry(key, value);
+            this.change.added = false;
+            this.root = (this.root == null ? BitmapNode.EMPTY : this.root)
+                    .put(this.token, 0, hash(key), key, value, this.change);
+            if (this.change.added)
+                ++this.size;
+            return this;
+        }
+
+        public Editor<K, V> remove(final K key) {
+            this.checkOpen();
+            if (key == null)
+                throw new RuntimeException("key cannot be null");
+            if (this.root == null)
+                return this;
+            this.change.removed = false;
+            this.root = this.root.remove(this.token, 0, hash(key), key, this.change);
+            if (this.change.removed)
+                --this.size;
+            return this;
+        }
+
+        public Editor<K, V> putAll(final Map<? extends K, ? extends V> map) {
+            for (final Map.Entry<? extends K, ? extends V> entry : map.entrySet())
+                this.put(entry.getKey(), entry.getValue());
+            return this;
+        }
+
+        /**
+         * Seals the nodes edited so far and returns them as an immutable map.
+         */
+        public PersistentHashMap<K, V> done() {
+            this.checkOpen();
+            this.token = null;
+            return this.root == null ? empty() : new PersistentHashMap<>(this.root, this.size);
+        }
+
+        private void checkOpen() {
+            if (this.token == null)
+                throw new IllegalStateException("editor already done");
+        }
+    }
+
+    private static final Object NOT_FOUND = new Object();
+
+    private static final class Change {
+        private boolean added;
+        private boolean removed;
+    }
+
+    private static void checkEntry(final Object key, final Object value) {
+        if (key == null)
+            throw new RuntimeException("key cannot be null");
+        if (value == null)
+            throw new RuntimeException("value cannot be null");
+    }
+
+    private static int hash(final Object key) {
+        final int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int bit(final int hash, final int shift) {
+        return 1 << ((hash >>> shift) & 31);
+    }
+
+    private abstract static class Node {
+        /** token of the editor allowed to modify this node in place, {@code null} once published */
+        final Object token;
+
+        Node(final Object token) {
+            this.token = token;
+        }
+
+        abstract Object find(int shift, int hash, Object key, Object notFound);
+
+        /**
+         * @param token the editor's token, or {@code null} to copy every changed node
+         * @return the changed node, or this node if nothing changed
+         */
+        abstract Node put(Object token, int shift, int hash, Object key, Object value, Change change);
+
+        /**
+         * @return the changed node, this node if nothing changed, or {@code null} if it became empty
+         */
+        abstract Node remove(Object token, int shift, int hash, Object key, Change change);
+
+        abstract void forEach(BiConsumer<Object, Object> action);
+
+        /** pairs of {@link #array()} in use */
+        abstract int pairs();
+
+        abstract Object[] array();
+
+        final boolean editable(final Object token) {
+            return token != null && token == this.token;
+        }
+    }
+
+    private static final class BitmapNode extends Node {
+        private static final BitmapNode EMPTY = new BitmapNode(null, 0, new Object[0]);
+
+        private int bitmap;
+        private Object[] array;
+
+        private BitmapNode(final Object token, final int bitmap, final Object[] array) {
+            super(token);
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        private int index(final int bit) {
+            return Integer.bitCount(this.bitmap & (bit - 1));
+        }
+
+        @Override
+        Object find(final int shift, final int hash, final Object key, final Object notFound) {
+            final int bit = bit(hash, shift);
+            if ((this.bitmap & bit) == 0)
+                return notFound;
+            final int i = 2 * this.index(bit);
+            final Object k = this.array[i];
+            final Object v = this.array[i + 1];
+            if (k == null)
+                return ((Node) v).find(shift + 5, hash, key, notFound);
+            return key.equals(k) ? v : notFound;
+        }
+
+        @Override
+        Node put(final Object token, final int shift, final int hash, final Object key, final Object value,
+                 final Change change) {
+            final int bit = bit(hash, shift);
+            final int i = 2 * this.index(bit);
+            if ((this.bitmap & bit) != 0) {
+                final Object k = this.array[i];
+                final Object v = this.array[i + 1];
+                if (k == null) {
+                    final Node child = ((Node) v).put(token, shift + 5, hash, key, value, change);
+                    return child == v ? this : this.set(token, i + 1, child);
+                }
+                if (key.equals(k))
+                    return v == value ? this : this.set(token, i + 1, value);
+                change.added = true;
+                final BitmapNode node = this.set(token, i, null);
+                node.array[i + 1] = split(token, shift + 5, k, v, hash, key, value);
+                return node;
+            }
+
+            change.added = true;
+            final int pairs = Integer.bitCount(this.bitmap);
+            if (this.editable(token) && 2 * pairs < this.array.length) {
+                System.arraycopy(this.array, i, this.array, i + 2, 2 * pairs - i);
+                this.array[i] = key;
+                this.array[i + 1] = value;
+                this.bitmap |= bit;
+                return this;
+            }
+            // an editor is likely to add more, so leave it room for a few
+            final Object[] array = new Object[2 * (token == null ? pairs + 1 : Math.min(32, pairs + 4))];
+            System.arraycopy(this.array, 0, array, 0, i);
+            array[i] = key;
+            array[i + 1] = value;
+            System.arraycopy(this.array, i, array, i + 2, 2 * pairs - i);
+            return new BitmapNode(token, this.bitmap | bit, array);
+        }
+
+        @Override
+        Node remove(final Object token, final int shift, final int hash, final Object key, final Change change) {
+            final int bit = bit(hash, shift);
+            if ((this.bitmap & bit) == 0)
+                return this;
+            final int i = 2 * this.index(bit);
+            final Object k = this.array[i];
+            final Object v = this.array[i + 1];
+            if (k == null) {
+                final Node child = ((Node) v).remove(token, shift + 5, hash, key, change);
+                if (child == v)
+                    return this;
+                if (child != null) {
+                    // pull a lone entry up so that removals leave the trie as shallow as insertions would
+                    if (child.pairs() == 1 && child.array()[0] != null) {
+                        final BitmapNode node = this.set(token, i, child.array()[0]);
+                        node.array[i + 1] = child.array()[1];
+                        return node;
+                    }
+                    return this.set(token, i + 1, child);
+                }
+            } else if (!key.equals(k)) {
+                return this;
+            } else {
+                change.removed = true;
+            }
+
+            if (this.bitmap == bit)
+                return null;
+            final int pairs = Integer.bitCount(this.bitmap);
+            if (this.editable(token)) {
+                System.arraycopy(this.array, i + 2, this.array, i, 2 * pairs - i - 2);
+                this.array[2 * pairs - 2] = null;
+                this.array[2 * pairs - 1] = null;
+                this.bitmap ^= bit;
+                return this;
+            }
+            final Object[] array = new Object[2 * pairs - 2];
+            System.arraycopy(this.array, 0, array, 0, i);
+            System.arraycopy(this.array, i + 2, array, i, 2 * pairs - i - 2);
+            return new BitmapNode(token, this.bitmap ^ bit, array);
+        }
+
+        /**
+         * @return this node with {@code array[i] = value} if the editor owns it, else a copy
+         */
+        private BitmapNode set(final Object token, final int i, final Object value) {
+            if (this.editable(token)) {
+                this.array[i] = value;
+                return this;
+            }
+            final BitmapNode node = new BitmapNode(token, this.bitmap, this.array.clone());
+            node.array[i] = value;
+            return node;
+        }
+
+        @Override
+        void forEach(final BiConsumer<Object, Object> action) {
+            for (int i = 0, end = 2 * Integer.bitCount(this.bitmap); i < end; i += 2) {
+                if (this.array[i] == null)
+                    ((Node) this.array[i + 1]).forEach(action);
+                else
+                    action.accept(this.array[i], this.array[i + 1]);
+            }
+        }
+
+        @Override
+        int pairs() {
+            return Integer.bitCount(this.bitmap);
+        }
+
+        @Override
+        Object[] array() {
+            return this.array;
+        }
+    }
+
+    /**
+     * Entries whose keys have the same full hash, which only a hash of 32 bits leaves apart.
+     */
+    private static final class CollisionNode extends Node {
+        private final int hash;
+        private int pairs;
+        private Object[] array;
+
+        private CollisionNode(final Object token, final int hash, final int pairs, final Object[] array) {
+            super(token);
+            this.hash = hash;
+            this.pairs = pairs;
+            this.array = array;
+        }
+
+        private int indexOf(final Object key) {
+            for (int i = 0; i < 2 * this.pairs; i += 2)
+                if (key.equals(this.array[i]))
+                    return i;
+            return -1;
+        }
+
+        @Override
+        Object find(final int shift, final int hash, final Object key, final Object notFound) {
+            final int i = this.indexOf(key);
+            return i < 0 ? notFound : this.array[i + 1];
+        }
+
+        @Override
+        Node put(final Object token, final int shift, final int hash, final Object key, final Object value,
+                 final Change change) {
+            if (hash != this.hash) {
+                // nest under a bitmap node at this level, which then separates the two hashes
+                return new BitmapNode(token, bit(this.hash, shift), new Object[]{null, this})
+                        .put(token, shift, hash, key, value, change);
+            }
+            final int i = this.indexOf(key);
+            if (i >= 0) {
+                if (this.array[i + 1] == value)
+                    return this;
+                final CollisionNode node = this.editable(token)
+                        ? this
+                        : new CollisionNode(token, hash, this.pairs, this.array.clone());
+                node.array[i + 1] = value;
+                return node;
+            }
+            change.added = true;
+            final CollisionNode node;
+            if (this.editable(token) && 2 * this.pairs < this.array.length) {
+                node = this;
+            } else {
+                final Object[] array = new Object[2 * this.pairs + 2];
+                System.arraycopy(this.array, 0, array, 0, 2 * this.pairs);
+                node = this.editable(token) ? this : new CollisionNode(token, hash, this.pairs, array);
+                node.array = array;
+            }
+            node.array[2 * node.pairs] = key;
+            node.array[2 * node.pairs + 1] = value;
+            ++node.pairs;
+            return node;
+        }
+
+        @Override
+        Node remove(final Object token, final int shift, final int hash, final Object key, final Change change) {
+            final int i = this.indexOf(key);
+            if (i < 0)
+                return this;
+            change.removed = true;
+            if (this.pairs == 1)
+                return null;
+            final int last = 2 * this.pairs - 2;
+            final CollisionNode node = this.editable(token)
+                    ? this
+                    : new CollisionNode(token, hash, this.pairs, this.array.clone());
+            // order within a collision node does not matter
+            node.array[i] = node.array[last];
+            node.array[i + 1] = node.array[last + 1];
+            node.array[last] = null;
+            node.array[last + 1] = null;
+            --node.pairs;
+            return node;
+        }
+
+        @Override
+        void forEach(final BiConsumer<Object, Object> action) {
+            for (int i = 0; i < 2 * this.pairs; i += 2)
+                action.accept(this.array[i], this.array[i + 1]);
+        }
+
+        @Override
+        int pairs() {
+            return this.pairs;
+        }
+
+        @Override
+        Object[] array() {
+            return this.array;
+        }
+    }
+
+    /**
+     * @return a node at level {@code shift} holding both entries, whose keys differ
+     */
+    private static Node split(final Object token, final int shift, final Object key1, final Object value1,
+                              final int hash2, final Object key2, final Object value2) {
+        final int hash1 = hash(key1);
+        if (hash1 == hash2)
+            return new CollisionNode(token, hash1, 2, new Object[]{key1, value1, key2, value2});
+        final Change change = new Change();
+        return BitmapNode.EMPTY
+                .put(token, shift, hash1, key1, value1, change)
+                .put(token, shift, hash2, key2, value2, change);
+    }
+
+    /**
+     * Depth-first walk with an explicit stack: 7 bitmap levels cover 32 bits of hash, plus one for
+     * a collision node.
+     */
+    private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+        private final Node[] nodes = new Node[8];
+        private final int[] positions = new int[8];
+        private int depth = -1;
+        private Object key;
+        private Object value;
+
+        private EntryIterator(final Node root) {
+            if (root != null) {
+                this.nodes[0] = root;
+                this.depth = 0;
+            }
+            this.advance();
+        }
+
+        private void advance() {
+            this.key = null;
+            while (this.depth >= 0) {
+                final Node node = this.nodes[this.depth];
+                final int i = this.positions[this.depth];
+                if (i == 2 * node.pairs()) {
+                    this.positions[this.depth--] = 0;
+                    continue;
+                }
+                this.positions[this.depth] = i + 2;
+                final Object[] array = node.array();
+                if (array[i] == null) {
+                    this.nodes[++this.depth] = (Node) array[i + 1];
+                } else {
+                    this.key = array[i];
+                    this.value = array[i + 1];
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.key != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> next() {
+            if (this.key == null)
+                throw new NoSuchElementException();
+            final Map.Entry<K, V> entry = new AbstractMap.SimpleImmutableEntry<>((K) this.key, (V) this.value);
+            this.advance();
+            return entry;
+        }
+    }
+
+}
@@ -0,0 +1,64 @@
+package code.shubham.collections;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary encoding of keys or values for {@link ConcurrentHashMap#writeSnapshot}. Records are length
+ * prefixed by the map, so an implementation does not need to encode its own length.
+ */
+public interface Serializer<T> {
+
+    /**
+     * Writes {@code value} at the position of {@code buffer}. Throwing
+     * {@link java.nio.BufferOverflowException} is fine: the caller flushes or grows the buffer and
+     * calls again.
+     */
+    void write(T value, ByteBuffer buffer);
+
+    /**
+     * Reads a value from the remaining bytes of {@code buffer}, which are exactly the bytes written by
+     * {@link #write}. The buffer may be backed by a mapped file that is unmapped afterwards, so the
+     * result must not keep a reference to it.
+     */
+    T read(ByteBuffer buffer);
+
+    Serializer<String> STRING = new Serializer<>() {
+        @Override
+        public void write(final String value, final ByteBuffer buffer) {
+            buffer.put(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String read(final ByteBuffer buffer) {
+            final byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    Serializer<Integer> INTEGER = new Serializer<>() {
+        @Override
+        public void write(final Integer value, final ByteBuffer buffer) {
+            buffer.putInt(value);
+        }
+
+        @Override
+        public Integer read(final ByteBuffer buffer) {
+            return buffer.getInt();
+        }
+    };
+
+    Serializer<Long> LONG = new Serializer<>() {
+        @Override
+        public void write(final Long value, final ByteBuffer buffer) {
+            buffer.putLong(value);
+        }
+
+        @Override
+        public Long read(final ByteBuffer buffer) {
+            return buffer.getLong();
+        }
+    };
+
+}
@@ -1,12 +1,13 @@
 package code.shubham.multithreading.locks;
 
-import java.util.Stack;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class ReentrantLockWithCondition {
 
-    Stack<String> stack = new Stack<>();
+    Deque<String> stack = new ArrayDeque<>();
     int CAPACITY = 5;
 
     ReentrantLock lock = new ReentrantLock();
@@ -14,28 +15,30 @@ public class ReentrantLockWithCondition {
     Condition stackFullCondition = lock.newCondition();
 
     public void pushToStack(String item) throws InterruptedException {
+        lock.lock();
         try {
-            lock.lock();
             while (stack.size() == CAPACITY)
                 stackFullCondition.await();
 
             stack.push(item);
-            stackEmptyCondition.signalAll();
+            // one item frees exactly one popper
+            stackEmptyCondition.signal();
         } finally {
             lock.unlock();
         }
     }
 
     public String popFromStack() throws InterruptedException {
+        lock.lock();
         try {
-            lock.lock();
-            while(stack.isEmpty())
+            while (stack.isEmpty())
                 stackEmptyCondition.await();
 
-            return stack.pop();
+            final String item = stack.pop();
+            stackFullCondition.signal();
+            return item;
         } finally {
-            stackFullCondition.signalAll();
             lock.unlock();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,339 @@
+package code.shubham.multithreading.threadpool;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background controller that resizes a {@link ThreadPool} to keep the time tasks wait in its queues
+ * near a target.
+ * <p>
+ * Every {@code sampleInterval} it measures the completion rate, the mean service time from the
+ * pool's task timing, the number of queued tasks, and the CPU load. The arrival rate is the
+ * completion rate plus the growth of the queue. By Little's law the queueing delay is the queue
+ * length over the completion rate, and the pool needs
+ * <pre>
+ *     arrival rate * service time                                    workers to keep up, plus
+ *     (queued - arrival rate * target delay) * service time / interval   to drain the excess backlog
+ * </pre>
+ * within one interval. Each interval smooths the rates with an exponential moving average before
+ * using them.
+ * <ul>
+ *     <li>The pool grows, at most doubling per interval, when the delay is above the target by more
+ *     than the hysteresis band and the estimate asks for more workers. It does not grow while the
+ *     CPU load is above {@code cpuCeiling}: more threads for CPU-bound work only queue on the CPU
+ *     instead.</li>
+ *     <li>It shrinks, halfway towards the estimate, only after the delay has stayed below the band
+ *     and the estimate below the current size for {@code shrinkAfter} intervals in a row.</li>
+ * </ul>
+ * The band and the delayed, halved shrinking keep noisy samples from making the size oscillate.
+ * The controller sets the pool's core and maximum sizes together; in
+ * {@link ExecutionMode#VIRTUAL} mode that is the number of permits.
+ */
+public class AdaptivePoolSizer implements AutoCloseable {
+
+    public static final class Builder {
+        private final ThreadPool pool;
+        private long targetQueueDelayNanos = TimeUnit.MILLISECONDS.toNanos(10);
+        private long sampleIntervalNanos = TimeUnit.MILLISECONDS.toNanos(100);
+        private int minPoolSize = 1;
+        private int maxPoolSize = 16 * Runtime.getRuntime().availableProcessors();
+        private double cpuCeiling = 0.9;
+        private double hysteresis = 0.25;
+        private int shrinkAfter = 5;
+
+        private Builder(final ThreadPool pool) {
+            this.pool = pool;
+        }
+
+        /**
+         * Queueing delay to aim for; 10 ms by default.
+         */
+        public Builder targetQueueDelay(final Duration targetQueueDelay) {
+            if (targetQueueDelay == null || targetQueueDelay.isNegative() || targetQueueDelay.isZero())
+                throw new IllegalArgumentException("targetQueueDelay must be positive");
+            this.targetQueueDelayNanos = targetQueueDelay.toNanos();
+            return this;
+        }
+
+        /**
+         * How often to sample and resize; 100 ms by default.
+         */
+        public Builder sampleInterval(final Duration sampleInterval) {
+            if (sampleInterval == null || sampleInterval.isNegative() || sampleInterval.isZero())
+                throw new IllegalArgumentException("sampleInterval must be positive");
+            this.sampleIntervalNanos = sampleInterval.toNanos();
+            return this;
+        }
+
+        /**
+         * Bounds of the pool size; 1 to 16 per processor by default.
+         */
+        public Builder bounds(final int minPoolSize, final int maxPoolSize) {
+            if (minPoolSize <= 0 || maxPoolSize < minPoolSize)
+                throw new IllegalArgumentException("bounds must satisfy 0 < min <= max");
+            this.minPoolSize = minPoolSize;
+            this.maxPoolSize = maxPoolSize;
+            return this;
+        }
+
+        /**
+         * Machine CPU load, between 0 and 1, above which the pool does not grow; 0.9 by default.
+         */
+        public Builder cpuCeiling(final double cpuCeiling) {
+            if (cpuCeiling <= 0 || cpuCeiling > 1)
+                throw new IllegalArgumentException("cpuCeiling must be in (0, 1]");
+            this.cpuCeiling = cpuCeiling;
+            return this;
+        }
+
+        /**
+         * Relative band around the target, and around the current size, within which nothing
+         * changes; 0.25 by default.
+         */
+        public Builder hysteresis(final double hysteresis) {
+            if (hysteresis < 0 || hysteresis >= 1)
+                throw new IllegalArgumentException("hysteresis must be in [0, 1)");
+            this.hysteresis = hysteresis;
+            return this;
+        }
+
+        /**
+         * Consecutive intervals of low delay before shrinking; 5 by default.
+         */
+        public Builder shrinkAfter(final int intervals) {
+            if (intervals <= 0)
+                throw new IllegalArgumentException("intervals must be positive");
+            this.shrinkAfter = intervals;
+            return this;
+        }
+
+        /**
+         * Turns on the pool's task timing and starts sampling.
+         */
+        public AdaptivePoolSizer start() {
+            return new AdaptivePoolSizer(this);
+        }
+    }
+
+    public static Builder builder(final ThreadPool pool) {
+        if (pool == null)
+            throw new RuntimeException("pool cannot be null");
+        return new Builder(pool);
+    }
+
+    /** weight of the newest sample in the moving averages */
+    private static final double SMOOTHING = 0.5;
+
+    private static final AtomicInteger sizerNumber = new AtomicInteger(1);
+
+    private final ThreadPool pool;
+    private final long targetQueueDelayNanos;
+    private final long sampleIntervalNanos;
+    private final int minPoolSize;
+    private final int maxPoolSize;
+    private final double cpuCeiling;
+    private final double hysteresis;
+    private final int shrinkAfter;
+    private final ScheduledExecutorService sampler;
+
+    // sampler thread only
+    private long lastNanos;
+    private long lastCompleted;
+    private long lastBusyNanos;
+    private int lastQueued;
+    private int lowDelayStreak;
+
+    // last sample, for monitoring
+    private volatile double arrivalRate;
+    private volatile double serviceNanos;
+    private volatile double queueDelayNanos;
+    private volatile double cpuLoad = -1;
+
+    private AdaptivePoolSizer(final Builder builder) {
+        this.pool = builder.pool;
+        this.targetQueueDelayNanos = builder.targetQueueDelayNanos;
+        this.sampleIntervalNanos = builder.sampleIntervalNanos;
+        this.minPoolSize = builder.minPoolSize;
+        this.maxPoolSize = builder.maxPoolSize;
+        this.cpuCeiling = builder.cpuCeiling;
+        this.hysteresis = builder.hysteresis;
+        this.shrinkAfter = builder.shrinkAfter;
+
+        this.pool.enableTaskTiming();
+        this.lastNanos = System.nanoTime();
+        this.lastCompleted = this.pool.completedTaskCount();
+        this.lastBusyNanos = this.pool.busyNanos();
+        this.lastQueued = this.pool.queuedTaskCount();
+        this.resize(Math.max(this.minPoolSize, Math.min(this.maxPoolSize, this.pool.getMaximumPoolSize())));
+
+        this.sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "pool-sizer-" + sizerNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sampler.scheduleWithFixedDelay(this::sample, this.sampleIntervalNanos, this.sampleIntervalNanos,
+                TimeUnit.NANOSECONDS);
+    }
+
+    public int poolSize() {
+        return this.pool.getMaximumPoolSize();
+    }
+
+    /**
+     * @return tasks per second, smoothed
+     */
+    public double arrivalRate() {
+        return this.arrivalRate;
+    }
+
+    public double serviceNanos() {
+        return this.serviceNanos;
+    }
+
+    public double queueDelayNanos() {
+        return this.queueDelayNanos;
+    }
+
+    /**
+     * @return the last machine CPU load, between 0 and 1, or a negative value if unavailable
+     */
+    public double cpuLoad() {
+        return this.cpuLoad;
+    }
+
+    /**
+     * Stops resizing; the pool keeps its last size and its task timing.
+     */
+    @Override
+    public void close() {
+        this.sampler.shutdownNow();
+    }
+
+    private void sample() {
+        try {
+            this.control();
+        } catch (RuntimeException e) {
+            // a failed sample must not cancel the ones after it
+            System.out.println("Pool sizer failed to sample: " + e.getMessage());
+        }
+    }
+
+    private void control() {
+        final long now = System.nanoTime();
+        final long completed = this.pool.completedTaskCount();
+        final long busyNanos = this.pool.busyNanos();
+        final int queued = this.pool.queuedTaskCount();
+        final double seconds = (now - this.lastNanos) / 1e9;
+        final long done = completed - this.lastCompleted;
+        final double throughput = done / seconds;
+        final double arrival = Math.max(0, (done + queued - this.lastQueued) / seconds);
+        this.arrivalRate = smooth(this.arrivalRate, arrival);
+        if (done > 0)
+            this.serviceNanos = smooth(this.serviceNanos, (busyNanos - this.lastBusyNanos) / (double) done);
+        this.queueDelayNanos = throughput > 0 ? queued / throughput * 1e9
+                : queued > 0 ? Double.POSITIVE_INFINITY : 0;
+        this.cpuLoad = cpuLoadOf(ManagementFactory.getOperatingSystemMXBean());
+        this.lastNanos = now;
+        this.lastCompleted = completed;
+        this.lastBusyNanos = busyNanos;
+        this.lastQueued = queued;
+
+        final int current = this.pool.getMaximumPoolSize();
+        final int desired;
+        if (done == 0 && queued > 0) {
+            // every worker is stuck in a task that has not finished: nothing to estimate from
+            desired = 2 * current;
+        } else {
+            final double arrivalPerNano = this.arrivalRate / 1e9;
+            final double busyWorkers = arrivalPerNano * this.serviceNanos;
+            final double backlog = Math.max(0, queued - arrivalPerNano * this.targetQueueDelayNanos);
+            desired = (int) Math.ceil(busyWorkers + backlog * this.serviceNanos / this.sampleIntervalNanos);
+        }
+
+        if (this.queueDelayNanos > this.targetQueueDelayNanos * (1 + this.hysteresis) && desired > current) {
+            this.lowDelayStreak = 0;
+            if (this.cpuLoad < this.cpuCeiling)
+                this.resize(Math.min(desired, 2 * current));
+        } else if (this.queueDelayNanos < this.targetQueueDelayNanos * (1 - this.hysteresis)
+                && desired < current * (1 - this.hysteresis)) {
+            if (++this.lowDelayStreak >= this.shrinkAfter) {
+                this.lowDelayStreak = 0;
+                this.resize(current - (current - desired + 1) / 2);
+            }
+        } else {
+            this.lowDelayStreak = 0;
+        }
+    }
+
+    private void resize(final int size) {
+        final int bounded = Math.max(this.minPoolSize, Math.min(this.maxPoolSize, size));
+        // keep core <= maximum at every step
+        if (bounded > this.pool.getMaximumPoolSize()) {
+            this.pool.setMaximumPoolSize(bounded);
+            this.pool.setCorePoolSize(bounded);
+        } else {
+            this.pool.setCorePoolSize(bounded);
+            this.pool.setMaximumPoolSize(bounded);
+        }
+    }
+
+    private static double smooth(final double average, final double sample) {
+        return average == 0 ? sample : SMOOTHING * sample + (1 - SMOOTHING) * average;
+    }
+
+    private static double cpuLoadOf(final OperatingSystemMXBean os) {
+        if (os instanceof com.sun.management.OperatingSystemMXBean)
+            return ((com.sun.management.OperatingSystemMXBean) os).getCpuLoad();
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + this.poolSize() + " arrivals/s=" + Math.round(this.arrivalRate) + " service="
+                + Math.round(this.serviceNanos / 1_000) + "us queueDelay=" + (Double.isInfinite(this.queueDelayNanos)
+                ? "inf" : Math.round(this.queueDelayNanos / 1_000) + "us") + " cpu=" + Math.round(this.cpuLoad * 100) + "%";
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        // tasks that mostly wait on I/O, at a rate that changes every few seconds
+        final ThreadPool pool = new ThreadPool(1, 1, -1, null, 1 << 16, null);
+        try (AdaptivePoolSizer sizer = AdaptivePoolSizer.builder(pool)
+                .targetQueueDelay(Duration.ofMillis(20))
+                .bounds(1, 256)
+                .start()) {
+            final long[][] phases = {
+                    // tasks per second, blocking time in microseconds, seconds
+                    {2_000, 5_000, 3},
+                    {5_000, 10_000, 3},
+                    {200, 5_000, 4},
+            };
+            for (final long[] phase : phases) {
+                System.out.println("load: " + phase[0] + " tasks/s blocking " + phase[1] / 1_000 + " ms each"
+                        + " (Little's law: ~" + phase[0] * phase[1] / 1_000_000 + " busy workers)");
+                final long blockNanos = TimeUnit.MICROSECONDS.toNanos(phase[1]);
+                final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(phase[2]);
+                long next = System.nanoTime();
+                long report = next;
+                long submitted = 0;
+                for (long millis = 1; next - end < 0; ++millis) {
+                    // submit in 1 ms batches
+                    for (; submitted < phase[0] * millis / 1_000; ++submitted)
+                        pool.execute(() -> LockSupport.parkNanos(blockNanos));
+                    next += 1_000_000;
+                    LockSupport.parkNanos(next - System.nanoTime());
+                    if (next - report >= 500_000_000) {
+                        report = next;
+                        System.out.println("  " + sizer);
+                    }
+                }
+            }
+        }
+        pool.shutdown();
+    }
+}
@@ -7,6 +7,7 @@ public class CustomThreadFactory implements ThreadFactory {
 
     private ThreadGroup threadGroup;
     private String threadNamePrefix;
+    private final boolean virtual;
 
     private final AtomicInteger threadNumber = new AtomicInteger(1);
     private static final AtomicInteger poolNumber = new AtomicInteger(1);
@@ -14,13 +15,25 @@ public class CustomThreadFactory implements ThreadFactory {
     private static final int DEFAULT_STACK_SIZE = 0;
 
     public CustomThreadFactory() {
+        this(false);
+    }
+
+    /**
+     * @param virtual whether to create virtual threads; those are always daemon threads of normal
+     *                priority
+     */
+    public CustomThreadFactory(final boolean virtual) {
+        this.virtual = virtual;
 //        this.threadGroup = System.getSecurityManager() != null ?
 //                System.getSecurityManager().getThreadGroup() : Thread.currentThread().getThreadGroup();
-        this.threadNamePrefix = "pool-" + poolNumber.getAndIncrement() + "-thread-";
+        this.threadNamePrefix = "pool-" + poolNumber.getAndIncrement() + (virtual ? "-virtual-" : "-thread-");
     }
 
     @Override
     public Thread newThread(Runnable runnable) {
+        if (this.virtual)
+            return Thread.ofVirtual().name(threadNamePrefix + threadNumber.getAndIncrement()).unstarted(runnable);
+
         Thread thread = new Thread(this.threadGroup, runnable, threadNamePrefix + threadNumber.getAndIncrement(),
                 DEFAULT_STACK_SIZE);
 
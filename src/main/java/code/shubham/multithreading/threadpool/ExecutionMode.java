@@ -0,0 +1,11 @@
+package code.shubham.multithreading.threadpool;
+
+/**
+ * How a {@link ThreadPool} runs its tasks.
+ */
+public enum ExecutionMode {
+    /** long-lived workers, at most {@code maximumPoolSize}, each running many tasks */
+    PLATFORM,
+    /** a fresh thread per task, virtual by default, with at most {@code maximumPoolSize} running at once */
+    VIRTUAL
+}
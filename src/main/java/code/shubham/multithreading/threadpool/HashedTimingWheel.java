@@ -0,0 +1,504 @@
+package code.shubham.multithreading.threadpool;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hierarchical hashed timing wheel (Varghese and Lauck) for large numbers of delayed and periodic
+ * tasks, most of which are cancelled before they fire, such as request timeouts.
+ * <ul>
+ *     <li>Time is counted in ticks. A timer sits in one of {@code wheelSize} buckets of one level:
+ *     level 0 spans {@code wheelSize} ticks, each further level {@code wheelSize} times the one
+ *     below. The level is the highest digit, in base {@code wheelSize}, where the deadline differs
+ *     from the current tick, and the bucket is that digit of the deadline. When the current tick
+ *     reaches a bucket of a higher level, its timers cascade down. Scheduling and cancelling are
+ *     O(1) whatever the number of timers, where a heap is O(log n) under one lock.</li>
+ *     <li>Buckets are only touched by the tick thread. {@link #schedule} and {@link Timeout#cancel}
+ *     push the timer on a lock-free stack that the tick thread takes whole at each tick, linking
+ *     through a field of the timer itself, so neither allocates beyond the timer.</li>
+ *     <li>Expired timers run on a {@link ThreadPool}, never on the tick thread. A periodic timer
+ *     goes back to the wheel after each run, so its runs never overlap.</li>
+ * </ul>
+ * Each pending timer costs one object of about 56 bytes besides its task, and levels are allocated
+ * only when a deadline needs them; {@code maxPendingTimers} bounds the total, so 10 million timers
+ * fit in about 600 MB. A timer fires on the first tick at or after its deadline, never before.
+ */
+public class HashedTimingWheel implements AutoCloseable {
+
+    public interface Timeout {
+        /**
+         * @return {@code false} if the timer already fired, for a one-shot timer, or was cancelled
+         */
+        boolean cancel();
+
+        boolean isCancelled();
+
+        /**
+         * @return whether a one-shot timer has been handed to the pool
+         */
+        boolean isExpired();
+    }
+
+    public static final class Builder {
+        private final ThreadPool executor;
+        private long tickNanos = TimeUnit.MILLISECONDS.toNanos(1);
+        private int wheelSize = 512;
+        private long maxPendingTimers = 1 << 24;
+
+        private Builder(final ThreadPool executor) {
+            this.executor = executor;
+        }
+
+        /**
+         * Resolution of the wheel; 1 ms by default.
+         */
+        public Builder tickDuration(final Duration tickDuration) {
+            if (tickDuration == null || tickDuration.isNegative() || tickDuration.isZero())
+                throw new IllegalArgumentException("tickDuration must be positive");
+            this.tickNanos = tickDuration.toNanos();
+            return this;
+        }
+
+        /**
+         * Buckets per level, a power of two; 512 by default.
+         */
+        public Builder wheelSize(final int wheelSize) {
+            if (wheelSize < 2 || Integer.bitCount(wheelSize) != 1)
+                throw new IllegalArgumentException("wheelSize must be a power of two of at least 2");
+            this.wheelSize = wheelSize;
+            return this;
+        }
+
+        /**
+         * Timers scheduled and not yet fired or cancelled beyond which {@link #schedule} rejects;
+         * 2^24 by default.
+         */
+        public Builder maxPendingTimers(final long maxPendingTimers) {
+            if (maxPendingTimers <= 0)
+                throw new IllegalArgumentException("maxPendingTimers must be positive");
+            this.maxPendingTimers = maxPendingTimers;
+            return this;
+        }
+
+        /**
+         * Starts the tick thread.
+         */
+        public HashedTimingWheel start() {
+            return new HashedTimingWheel(this);
+        }
+    }
+
+    public static Builder builder(final ThreadPool executor) {
+        if (executor == null)
+            throw new RuntimeException("executor cannot be null");
+        return new Builder(executor);
+    }
+
+    private static final int PENDING = 0;
+    private static final int EXPIRED = 1;
+    private static final int CANCELLED = 2;
+
+    private static final VarHandle SUBMISSIONS;
+    private static final VarHandle CANCELLATIONS;
+    private static final VarHandle TIMER_STATE;
+
+    static {
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            SUBMISSIONS = lookup.findVarHandle(HashedTimingWheel.class, "submissions", Timer.class);
+            CANCELLATIONS = lookup.findVarHandle(HashedTimingWheel.class, "cancellations", Timer.class);
+            TIMER_STATE = lookup.findVarHandle(Timer.class, "state", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final AtomicInteger wheelNumber = new AtomicInteger(1);
+
+    /**
+     * A timer, linked into a bucket through {@link #prev} and {@link #next}. Before it is in a
+     * bucket, {@link #next} links it into the submission stack instead.
+     */
+    private final class Timer implements Timeout, Runnable {
+        private final Runnable task;
+        /** in ticks; 0 for a one-shot timer */
+        private final long period;
+        /** in ticks; advanced by the pool thread that ran a periodic timer, before it resubmits */
+        private long deadline;
+        private volatile int state = PENDING;
+        /** level in the high bits, slot in the low ones; -1 when in no bucket */
+        private int bucket = -1;
+        private Timer prev;
+        private Timer next;
+        private Timer nextCancelled;
+
+        private Timer(final Runnable task, final long deadline, final long period) {
+            this.task = task;
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!TIMER_STATE.compareAndSet(this, PENDING, CANCELLED))
+                return false;
+            Timer head;
+            do {
+                head = cancellations;
+                this.nextCancelled = head;
+            } while (!CANCELLATIONS.compareAndSet(HashedTimingWheel.this, head, this));
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return this.state == CANCELLED;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return this.state == EXPIRED;
+        }
+
+        @Override
+        public void run() {
+            try {
+                this.task.run();
+            } finally {
+                // the tick thread drops it if it was cancelled meanwhile
+                if (this.period != 0) {
+                    this.deadline += Math.min(this.period, Long.MAX_VALUE - this.deadline);
+                    submit(this);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return this.task.toString();
+        }
+    }
+
+    private final ThreadPool executor;
+    private final long tickNanos;
+    private final int wheelBits;
+    private final int mask;
+    private final long maxPendingTimers;
+    private final long startNanos;
+    private final Thread tickThread;
+    /** bucket heads by level, then slot; a level is allocated when a timer first needs it */
+    private final Timer[][] levels;
+    /** scheduled and neither fired, for one-shot timers, nor dropped */
+    private final AtomicLong pendingTimers = new AtomicLong();
+    private final LongAdder dispatched = new LongAdder();
+    private volatile Timer submissions;
+    private volatile Timer cancellations;
+    private volatile boolean closed;
+    /** the last tick processed; tick thread only */
+    private long currentTick;
+
+    private HashedTimingWheel(final Builder builder) {
+        this.executor = builder.executor;
+        this.tickNanos = builder.tickNanos;
+        this.wheelBits = Integer.numberOfTrailingZeros(builder.wheelSize);
+        this.mask = builder.wheelSize - 1;
+        this.maxPendingTimers = builder.maxPendingTimers;
+        // enough levels for any non-negative tick
+        this.levels = new Timer[(Long.SIZE - 2) / this.wheelBits + 1][];
+        this.startNanos = System.nanoTime();
+        this.tickThread = new Thread(this::tickLoop, "timing-wheel-" + wheelNumber.getAndIncrement());
+        this.tickThread.setDaemon(true);
+        this.tickThread.start();
+    }
+
+    public Timeout schedule(final Runnable task, final Duration delay) {
+        if (delay == null)
+            throw new RuntimeException("delay cannot be null");
+        return this.schedule(task, TimeUnit.NANOSECONDS.convert(delay), TimeUnit.NANOSECONDS);
+    }
+
+    public Timeout schedule(final Runnable task, final long delay, final TimeUnit unit) {
+        if (task == null)
+            throw new RuntimeException("task cannot be null");
+        return this.add(new Timer(task, this.deadlineAfter(unit.toNanos(delay)), 0));
+    }
+
+    /**
+     * Runs {@code task} after {@code initialDelay} and then every {@code period}, counted from the
+     * scheduled start of each run, as long as a run does not take longer than the period; a late
+     * run is followed by the next one at the next tick.
+     */
+    public Timeout scheduleAtFixedRate(final Runnable task, final Duration initialDelay, final Duration period) {
+        if (task == null)
+            throw new RuntimeException("task cannot be null");
+        if (initialDelay == null || period == null)
+            throw new RuntimeException("initialDelay and period cannot be null");
+        if (period.isNegative() || period.isZero())
+            throw new IllegalArgumentException("period must be positive");
+        final long periodTicks = Math.ceilDiv(TimeUnit.NANOSECONDS.convert(period), this.tickNanos);
+        return this.add(new Timer(task, this.deadlineAfter(TimeUnit.NANOSECONDS.convert(initialDelay)), periodTicks));
+    }
+
+    public long pendingTimers() {
+        return this.pendingTimers.get();
+    }
+
+    /**
+     * @return timers handed to the pool so far, periodic runs included
+     */
+    public long dispatched() {
+        return this.dispatched.sum();
+    }
+
+    /**
+     * Stops the tick thread; pending timers never fire. Tasks already handed to the pool still
+     * run.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        LockSupport.unpark(this.tickThread);
+        boolean interrupted = false;
+        while (this.tickThread.isAlive()) {
+            try {
+                this.tickThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * The first tick at or after {@code delayNanos} from now. Like the JDK's schedulers, a delay too
+     * long to represent saturates, so that {@code Long.MAX_VALUE} still means practically never.
+     */
+    private long deadlineAfter(final long delayNanos) {
+        final long elapsed = System.nanoTime() - this.startNanos;
+        return Math.ceilDiv(elapsed + Math.min(Math.max(0, delayNanos), Long.MAX_VALUE - elapsed), this.tickNanos);
+    }
+
+    private Timer add(final Timer timer) {
+        if (this.closed)
+            throw new RejectedExecutionException("timing wheel is closed");
+        if (this.pendingTimers.incrementAndGet() > this.maxPendingTimers) {
+            this.pendingTimers.decrementAndGet();
+            throw new RejectedExecutionException("more than " + this.maxPendingTimers + " pending timers");
+        }
+        this.submit(timer);
+        return timer;
+    }
+
+    private void submit(final Timer timer) {
+        Timer head;
+        do {
+            head = this.submissions;
+            timer.next = head;
+        } while (!SUBMISSIONS.compareAndSet(this, head, timer));
+    }
+
+    private void tickLoop() {
+        while (!this.closed) {
+            this.transferSubmissions();
+            this.processCancellations();
+            final long now = (System.nanoTime() - this.startNanos) / this.tickNanos;
+            while (this.currentTick < now)
+                this.advance(++this.currentTick);
+            final long nextTickNanos = this.startNanos + (this.currentTick + 1) * this.tickNanos;
+            LockSupport.parkNanos(this, nextTickNanos - System.nanoTime());
+        }
+    }
+
+    private void transferSubmissions() {
+        Timer timer = (Timer) SUBMISSIONS.getAndSet(this, null);
+        while (timer != null) {
+            final Timer next = timer.next;
+            timer.next = null;
+            if (timer.state == CANCELLED)
+                this.pendingTimers.decrementAndGet();
+            else
+                this.place(timer);
+            timer = next;
+        }
+    }
+
+    /**
+     * Unlinks cancelled timers that are in a bucket. The others are dropped where the tick thread
+     * next meets them: on submission, on cascading, or on expiry.
+     */
+    private void processCancellations() {
+        Timer timer = (Timer) CANCELLATIONS.getAndSet(this, null);
+        while (timer != null) {
+            final Timer next = timer.nextCancelled;
+            timer.nextCancelled = null;
+            if (timer.bucket != -1) {
+                this.unlink(timer);
+                this.pendingTimers.decrementAndGet();
+            }
+            timer = next;
+        }
+    }
+
+    /**
+     * Processes {@code tick}: cascades the buckets of the higher levels that start at it, then
+     * expires its bucket of level 0.
+     */
+    private void advance(final long tick) {
+        for (int level = this.levels.length - 1; level > 0; --level) {
+            final int shift = level * this.wheelBits;
+            if (this.levels[level] != null && (tick & ((1L << shift) - 1)) == 0) {
+                final Timer timer = this.detach(level, (int) (tick >>> shift) & this.mask);
+                this.forEach(timer, this::place);
+            }
+        }
+        if (this.levels[0] != null)
+            this.forEach(this.detach(0, (int) tick & this.mask), this::expire);
+    }
+
+    private interface TimerAction {
+        void apply(Timer timer);
+    }
+
+    private void forEach(Timer timer, final TimerAction action) {
+        while (timer != null) {
+            final Timer next = timer.next;
+            timer.next = null;
+            timer.prev = null;
+            timer.bucket = -1;
+            action.apply(timer);
+            timer = next;
+        }
+    }
+
+    /**
+     * Links {@code timer} into its bucket relative to {@link #currentTick}, or expires it if its
+     * deadline has passed.
+     */
+    private void place(final Timer timer) {
+        if (timer.state == CANCELLED) {
+            this.pendingTimers.decrementAndGet();
+            return;
+        }
+        final long deadline = timer.deadline;
+        if (deadline <= this.currentTick) {
+            this.expire(timer);
+            return;
+        }
+        final int level = (Long.SIZE - 1 - Long.numberOfLeadingZeros(deadline ^ this.currentTick)) / this.wheelBits;
+        final int slot = (int) (deadline >>> (level * this.wheelBits)) & this.mask;
+        Timer[] buckets = this.levels[level];
+        if (buckets == null)
+            buckets = this.levels[level] = new Timer[this.mask + 1];
+        final Timer head = buckets[slot];
+        timer.next = head;
+        if (head != null)
+            head.prev = timer;
+        buckets[slot] = timer;
+        timer.bucket = level << 24 | slot;
+    }
+
+    private Timer detach(final int level, final int slot) {
+        final Timer head = this.levels[level][slot];
+        this.levels[level][slot] = null;
+        return head;
+    }
+
+    private void unlink(final Timer timer) {
+        final Timer[] buckets = this.levels[timer.bucket >>> 24];
+        final int slot = timer.bucket & ((1 << 24) - 1);
+        if (timer.prev != null)
+            timer.prev.next = timer.next;
+        else
+            buckets[slot] = timer.next;
+        if (timer.next != null)
+            timer.next.prev = timer.prev;
+        timer.prev = null;
+        timer.next = null;
+        timer.bucket = -1;
+    }
+
+    private void expire(final Timer timer) {
+        if (timer.period == 0) {
+            this.pendingTimers.decrementAndGet();
+            if (!TIMER_STATE.compareAndSet(timer, PENDING, EXPIRED))
+                return;
+        } else if (timer.state == CANCELLED) {
+            this.pendingTimers.decrementAndGet();
+            return;
+        }
+        this.dispatched.increment();
+        this.executor.execute(timer, this::rejected);
+    }
+
+    private void rejected(final Runnable command) {
+        final Timer timer = (Timer) command;
+        // a periodic timer the pool refuses never comes back to the wheel
+        if (timer.period != 0 && TIMER_STATE.compareAndSet(timer, PENDING, CANCELLED))
+            this.pendingTimers.decrementAndGet();
+        System.out.println("Timer rejected: " + timer);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final ThreadPool pool = new ThreadPool(2, 2, -1, null, 1 << 20, null);
+        final LongAdder fired = new LongAdder();
+        final Runnable fire = fired::increment;
+        final int timers = 10_000_000;
+        // replies arrive about 1000 requests later, well before the timeouts of 1 to 10 s; one in ten
+        // never arrives
+        final int inFlight = 1_000;
+
+        try (HashedTimingWheel wheel = HashedTimingWheel.builder(pool).start()) {
+            final Timeout[] timeouts = new Timeout[inFlight];
+            final long start = System.nanoTime();
+            for (int i = 0; i < timers + inFlight; ++i) {
+                final int slot = i % inFlight;
+                if (i >= inFlight && (i - inFlight) % 10 != 0)
+                    timeouts[slot].cancel();
+                if (i < timers)
+                    timeouts[slot] = wheel.schedule(fire, 1_000 + ThreadLocalRandom.current().nextInt(9_000),
+                            TimeUnit.MILLISECONDS);
+            }
+            final long scheduled = System.nanoTime();
+            System.out.println("wheel: " + timers + " timers scheduled and 90% cancelled in "
+                    + (scheduled - start) / 1_000_000 + " ms, " + wheel.pendingTimers() + " pending");
+
+            final LongAdder ticks = new LongAdder();
+            final Timeout periodic = wheel.scheduleAtFixedRate(ticks::increment, Duration.ZERO,
+                    Duration.ofMillis(100));
+            while (wheel.pendingTimers() > 1)
+                Thread.sleep(100);
+            periodic.cancel();
+            System.out.println("wheel: fired " + fired.sum() + " (expected " + timers / 10 + "), periodic ran "
+                    + ticks.sum() + " times in " + (System.nanoTime() - scheduled) / 1_000_000 + " ms");
+        }
+
+        // the same pattern on the JDK's heap-based scheduler
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(2);
+        executor.setRemoveOnCancelPolicy(true);
+        final ScheduledFuture<?>[] futures = new ScheduledFuture<?>[inFlight];
+        final long start = System.nanoTime();
+        for (int i = 0; i < timers + inFlight; ++i) {
+            final int slot = i % inFlight;
+            if (i >= inFlight && (i - inFlight) % 10 != 0)
+                futures[slot].cancel(false);
+            if (i < timers)
+                futures[slot] = executor.schedule(fire, 1_000 + ThreadLocalRandom.current().nextInt(9_000),
+                        TimeUnit.MILLISECONDS);
+        }
+        System.out.println("ScheduledThreadPoolExecutor: " + timers + " timers scheduled and 90% cancelled in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms, " + executor.getQueue().size() + " pending");
+        executor.shutdownNow();
+        pool.shutdown();
+    }
+}
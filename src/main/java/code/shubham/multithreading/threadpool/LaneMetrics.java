@@ -0,0 +1,54 @@
+package code.shubham.multithreading.threadpool;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latencies of one {@link Priority} lane of a {@link ThreadPool}. Latencies are
+ * measured from submission: {@link #queueLatency} to the start of the task, {@link #latency} to
+ * its end.
+ */
+public final class LaneMetrics {
+
+    final LongAdder submitted = new LongAdder();
+    final LongAdder completed = new LongAdder();
+    final LongAdder shed = new LongAdder();
+    final LongAdder rejected = new LongAdder();
+    final LatencyHistogram queueLatency = new LatencyHistogram();
+    final LatencyHistogram latency = new LatencyHistogram();
+
+    LaneMetrics() {
+    }
+
+    public long submitted() {
+        return this.submitted.sum();
+    }
+
+    public long completed() {
+        return this.completed.sum();
+    }
+
+    /**
+     * @return tasks dropped because their deadline passed before a worker got to them
+     */
+    public long shed() {
+        return this.shed.sum();
+    }
+
+    public long rejected() {
+        return this.rejected.sum();
+    }
+
+    public LatencyHistogram queueLatency() {
+        return this.queueLatency;
+    }
+
+    public LatencyHistogram latency() {
+        return this.latency;
+    }
+
+    @Override
+    public String toString() {
+        return "submitted=" + this.submitted() + " completed=" + this.completed() + " shed=" + this.shed()
+                + " rejected=" + this.rejected() + " queue[" + this.queueLatency + "] total[" + this.latency + "]";
+    }
+}
@@ -0,0 +1,85 @@
+package code.shubham.multithreading.threadpool;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Concurrent histogram of nanosecond latencies in log-linear buckets: each power of two is split
+ * into {@code 1 << SUB_BUCKET_BITS} buckets, so a percentile is reported to within 12.5% whatever
+ * its magnitude, in a fixed 4 KB of counters.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(Long.SIZE * SUB_BUCKETS);
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(final long nanos) {
+        final long value = Math.max(0, nanos);
+        this.counts.getAndIncrement(bucketOf(value));
+        this.max.accumulate(value);
+    }
+
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < this.counts.length(); ++i)
+            count += this.counts.get(i);
+        return count;
+    }
+
+    public long max() {
+        return this.max.get();
+    }
+
+    /**
+     * @param quantile between 0 and 1, e.g. 0.99
+     * @return the upper bound of the bucket holding that quantile, or 0 if nothing was recorded
+     */
+    public long percentile(final double quantile) {
+        if (quantile < 0 || quantile > 1)
+            throw new IllegalArgumentException("quantile must be between 0 and 1");
+        final long[] counts = new long[this.counts.length()];
+        long total = 0;
+        for (int i = 0; i < counts.length; ++i)
+            total += counts[i] = this.counts.get(i);
+        if (total == 0)
+            return 0;
+        final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(lowerBoundOf(i + 1) - 1, this.max());
+        }
+        return this.max();
+    }
+
+    /**
+     * Values below {@code SUB_BUCKETS} get a bucket each; above, the bucket is the exponent and the
+     * {@code SUB_BUCKET_BITS} bits below the leading one.
+     */
+    private static int bucketOf(final long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long lowerBoundOf(final int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        if (exponent >= Long.SIZE - 1)
+            return Long.MAX_VALUE;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    @Override
+    public String toString() {
+        return "p50=" + this.percentile(0.5) / 1_000 + "us p99=" + this.percentile(0.99) / 1_000
+                + "us p99.9=" + this.percentile(0.999) / 1_000 + "us max=" + this.max() / 1_000 + "us";
+    }
+}
@@ -0,0 +1,23 @@
+package code.shubham.multithreading.threadpool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scheduling lane of a task submitted to a {@link ThreadPool}. Workers take the lane task that is
+ * due first, and a task submitted at {@code t} is due at {@code t + aging} unless its deadline is
+ * earlier. So a higher lane goes first among tasks submitted around the same time, but a task that
+ * has waited longer than the gap between two lanes' aging outranks newer tasks of the higher lane:
+ * no lane starves.
+ */
+public enum Priority {
+    CRITICAL(0),
+    HIGH(TimeUnit.MILLISECONDS.toNanos(10)),
+    NORMAL(TimeUnit.MILLISECONDS.toNanos(100)),
+    BULK(TimeUnit.SECONDS.toNanos(1));
+
+    final long agingNanos;
+
+    Priority(final long agingNanos) {
+        this.agingNanos = agingNanos;
+    }
+}
@@ -1,116 +1,1280 @@
 package code.shubham.multithreading.threadpool;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Queue;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
-public class ThreadPool {
+/**
+ * Thread pool with a work queue per worker instead of one shared queue.
+ * <ul>
+ *     <li>A submitter pushes onto the queue of the worker it runs on, or else onto the next queue in
+ *     its own round-robin order, so submitters rarely meet on a queue.</li>
+ *     <li>A worker pops its own queue from the top, newest first; a worker whose queue is empty
+ *     steals from the bottom of the others, oldest first.</li>
+ *     <li>A worker that finds nothing anywhere pushes itself on a stack of idle workers and parks.
+ *     Each submission unparks exactly one idle worker, if there is one.</li>
+ * </ul>
+ * {@code maxWorkQueueSize} is split evenly over the queues of {@code maximumPoolSize} workers, or of
+ * the workers there are while a shrunk pool still has more, and split again whenever either
+ * changes, so the pool holds about {@code maxWorkQueueSize} queued tasks whatever its size, and at
+ * least one per queue; a queue left above its share by a split takes nothing until it drains below
+ * it. Queues allocate their slots as they fill. A submission that finds every queue full starts a
+ * new worker if there is room, and is rejected otherwise.
+ * <p>
+ * While there are more than {@code corePoolSize} workers, a worker idle for
+ * {@code ttlInMilliseconds} retires; a non-positive TTL keeps every worker. A worker retires by
+ * closing its queue to submitters and running what is left in it, so no queued task is lost.
+ * <p>
+ * The run state and the worker count share one atomic word, {@code ctl}, as in
+ * {@link java.util.concurrent.ThreadPoolExecutor}: submitting reads it once and takes no lock.
+ * {@link #shutdown} closes every queue, so a submission either lands before the close and runs, or
+ * is rejected; the workers then run out the queues and exit. {@link #shutdownNow} also interrupts
+ * the workers and hands back the queued tasks instead.
+ * <p>
+ * In {@link ExecutionMode#VIRTUAL} mode there are no workers: each task runs on a fresh thread from
+ * the factory, virtual unless the factory says otherwise, and the worker count in {@code ctl}
+ * becomes a permit count that caps the running tasks at {@code maximumPoolSize}. A submission that
+ * gets no permit waits in one queue of {@code maxWorkQueueSize} and is rejected when that is full; a
+ * finishing task hands its permit to the next waiting one. {@code corePoolSize} and
+ * {@code ttlInMilliseconds} have no effect, as there is no thread to keep.
+ * <p>
+ * Tasks submitted with a {@link Priority} or a deadline go to one of the priority lanes instead:
+ * each lane is a heap ordered by when its tasks are due, and a worker takes the task due first
+ * across all lanes (earliest deadline first, with the aging described in {@link Priority}). A task
+ * whose deadline has passed when it is taken is shed: it never runs, and a {@link Future} for it is
+ * cancelled. Workers look at the lanes before their own queue, but after {@code LANE_STREAK} lane
+ * tasks in a row they take one plain task, so plain submissions are not starved either. Each lane
+ * keeps {@link LaneMetrics}.
+ */
+public class ThreadPool extends AbstractExecutorService {
 
-    private int corePoolSize;
-    private int maximumPoolSize;
+    private static final int COUNT_BITS = Integer.SIZE - 3;
+    private static final int COUNT_MASK = (1 << COUNT_BITS) - 1;
+
+    private static final int RUNNING = -1 << COUNT_BITS;
+    private static final int SHUTDOWN = 0;
+    private static final int STOP = 1 << COUNT_BITS;
+    private static final int TERMINATED = 2 << COUNT_BITS;
+
+    private static int runStateOf(final int c) {
+        return c & ~COUNT_MASK;
+    }
+
+    private static int workerCountOf(final int c) {
+        return c & COUNT_MASK;
+    }
+
+    /** run state in the high 3 bits, workers counted against the pool sizes in the rest */
+    private final AtomicInteger ctl = new AtomicInteger(RUNNING);
+
+    private volatile int corePoolSize;
+    private volatile int maximumPoolSize;
     private int ttlInMilliseconds;
     private ThreadFactory threadFactory;
-    private Queue<Runnable> workQueue;
-    private List<Thread> workers = new CopyOnWriteArrayList<>();
     private CommandRejectionHandler commandRejectionHandler;
 
+    private final ExecutionMode executionMode;
+    /** tasks the worker queues hold in all, see {@link #splitQueueCapacity} */
+    private final int workQueueSize;
+    /** tasks waiting for a permit in {@link ExecutionMode#VIRTUAL} mode */
+    private final BlockingQueue<Runnable> pending;
+    /** threads running a task in {@link ExecutionMode#VIRTUAL} mode, for {@link #shutdownNow} */
+    private final Set<Thread> running;
+    /** indexed by {@link Priority#ordinal} */
+    private final Lane[] lanes;
+    private final ReentrantLock mainLock = new ReentrantLock();
+    private final Condition termination = this.mainLock.newCondition();
+    /** whether {@link #runTask} times tasks, for {@link AdaptivePoolSizer} */
+    private volatile boolean taskTiming;
+    private final LongAdder completedTasks = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+    /**
+     * Every live worker, including retiring ones that are no longer counted in {@link #ctl}; copied
+     * on write under {@link #mainLock}, read without it to pick queues.
+     */
+    private volatile Worker[] workers = new Worker[0];
+    /** Treiber stack of workers about to park; see {@link Worker#awaitWork} */
+    private volatile IdleNode idleWorkers;
+    private final ThreadLocal<Worker> currentWorker = new ThreadLocal<>();
+
+    private static final ThreadLocal<int[]> NEXT_QUEUE = ThreadLocal.withInitial(
+            () -> new int[]{ThreadLocalRandom.current().nextInt(1 << 16)});
+
     private static final int DEFAULT_MAX_WORKER_POOL_SIZE = 100;
 
-    public ThreadPool(final int corePoolSize, final int maximumPoolSize, final int ttlInMilliseconds,
-                      final ThreadFactory threadFactory, final int maxWorkQueueSize,
-                      final CommandRejectionHandler commandRejectionHandler) {
-        this(corePoolSize, maximumPoolSize, ttlInMilliseconds, threadFactory, commandRejectionHandler);
-        this.workQueue = new LinkedBlockingQueue<>(maxWorkQueueSize);
+    /** deadline of a lane task that has none */
+    public static final long NO_DEADLINE = Long.MIN_VALUE;
+
+    /** lane tasks a worker takes in a row before it takes a plain one */
+    private static final int LANE_STREAK = 16;
+
+    private static final VarHandle IDLE_WORKERS;
+
+    static {
+        try {
+            IDLE_WORKERS = MethodHandles.lookup().findVarHandle(ThreadPool.class, "idleWorkers", IdleNode.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
     }
 
     public ThreadPool(final int corePoolSize, final int maximumPoolSize, final int ttlInMilliseconds,
-                      final ThreadFactory threadFactory,  final Queue<Runnable> workQueue,
+                      final ThreadFactory threadFactory, final int maxWorkQueueSize,
                       final CommandRejectionHandler commandRejectionHandler) {
-        this(corePoolSize, maximumPoolSize, ttlInMilliseconds, threadFactory, commandRejectionHandler);
-        this.workQueue = workQueue != null ? workQueue : new LinkedBlockingQueue<>(DEFAULT_MAX_WORKER_POOL_SIZE);
+        this(corePoolSize, maximumPoolSize, ttlInMilliseconds, threadFactory, maxWorkQueueSize,
+                commandRejectionHandler, ExecutionMode.PLATFORM);
     }
 
-    private ThreadPool(final int corePoolSize, final int maximumPoolSize, final int ttlInMilliseconds,
-                       final ThreadFactory threadFactory, final CommandRejectionHandler commandRejectionHandler) {
+    public ThreadPool(final int corePoolSize, final int maximumPoolSize, final int ttlInMilliseconds,
+                      final ThreadFactory threadFactory, final int maxWorkQueueSize,
+                      final CommandRejectionHandler commandRejectionHandler, final ExecutionMode executionMode) {
+        if (corePoolSize < 0 || maximumPoolSize <= 0 || maximumPoolSize < corePoolSize)
+            throw new IllegalArgumentException("pool sizes must satisfy 0 <= core <= maximum, 0 < maximum");
+        if (executionMode == null)
+            throw new RuntimeException("executionMode cannot be null");
+        final int workQueueSize = maxWorkQueueSize > 0 ? maxWorkQueueSize : DEFAULT_MAX_WORKER_POOL_SIZE;
+        this.workQueueSize = workQueueSize;
         this.corePoolSize = corePoolSize;
         this.maximumPoolSize = maximumPoolSize;
         this.ttlInMilliseconds = ttlInMilliseconds;
-        this.threadFactory = threadFactory != null ? threadFactory : new CustomThreadFactory();
         this.commandRejectionHandler = commandRejectionHandler;
+        this.executionMode = executionMode;
+        this.lanes = new Lane[Priority.values().length];
+        for (final Priority priority : Priority.values())
+            this.lanes[priority.ordinal()] = new Lane(priority, workQueueSize);
+        if (executionMode == ExecutionMode.VIRTUAL) {
+            this.threadFactory = threadFactory != null ? threadFactory : new CustomThreadFactory(true);
+            this.pending = new LinkedBlockingQueue<>(workQueueSize);
+            this.running = ConcurrentHashMap.newKeySet();
+        } else {
+            this.threadFactory = threadFactory != null ? threadFactory : new CustomThreadFactory();
+            this.pending = null;
+            this.running = null;
+        }
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        this.execute(command, null);
     }
 
     public <T> Future<T> submit(Callable<T> task, CommandRejectionHandler commandRejectionHandler) {
-        FutureTask futureTask = new FutureTask<T>(task);
+        FutureTask<T> futureTask = new FutureTask<T>(task);
         execute(futureTask, commandRejectionHandler);
         return futureTask;
     }
 
-    public void execute(Runnable command, CommandRejectionHandler commandRejectionHandler) {
-        boolean isRejected;
-        synchronized(workQueue) {
-            if (workers.size() < corePoolSize || ((isRejected = !workQueue.offer(command)) && workers.size() < maximumPoolSize)) {
-                Thread thread = this.threadFactory.newThread(new ThreadPool.Worker(command));
-                this.workers.add(thread);
-                thread.start();
-                isRejected = false;
-                workQueue.notify();
-            }
+    /**
+     * Submits {@code task} on the {@link Priority#NORMAL} lane.
+     *
+     * @param deadlineNanos in {@link System#nanoTime} terms; the task is shed if it has not started
+     *                      by then
+     */
+    public <T> Future<T> submit(final Callable<T> task, final long deadlineNanos) {
+        return this.submit(task, Priority.NORMAL, deadlineNanos);
+    }
+
+    /**
+     * @param deadlineNanos in {@link System#nanoTime} terms, or {@link #NO_DEADLINE}; the task is
+     *                      shed if it has not started by then
+     */
+    public <T> Future<T> submit(final Callable<T> task, final Priority priority, final long deadlineNanos) {
+        if (task == null)
+            throw new RuntimeException("task cannot be null");
+        final FutureTask<T> futureTask = new FutureTask<T>(task);
+        this.execute(futureTask, priority, deadlineNanos, null);
+        return futureTask;
+    }
+
+    /**
+     * Queues {@code command} on the lane of {@code priority}; see {@link Priority} for the order
+     * lanes are served in.
+     *
+     * @param deadlineNanos in {@link System#nanoTime} terms, or {@link #NO_DEADLINE}
+     */
+    public void execute(final Runnable command, final Priority priority, final long deadlineNanos,
+                        final CommandRejectionHandler commandRejectionHandler) {
+        if (command == null)
+            throw new RuntimeException("command cannot be null");
+        if (priority == null)
+            throw new RuntimeException("priority cannot be null");
+        final Lane lane = this.lanes[priority.ordinal()];
+        final LaneTask task = new LaneTask(command, lane, deadlineNanos);
+        lane.metrics.submitted.increment();
+        if (this.ctl.get() >= SHUTDOWN) {
+            this.rejectLaneTask(task, commandRejectionHandler);
+            return;
         }
-        if (isRejected) {
-            reject(command, commandRejectionHandler);
+        if (this.executionMode == ExecutionMode.VIRTUAL) {
+            if (this.tryAcquirePermit(false))
+                this.startVirtual(task);
+            else if (lane.offer(task))
+                this.dispatchPending();
+            else
+                this.rejectLaneTask(task, commandRejectionHandler);
+            return;
+        }
+        if (workerCountOf(this.ctl.get()) < this.corePoolSize)
+            this.addWorker(null, true);
+        // shutdown closes the lanes, so an offer after it fails
+        if (lane.offer(task)) {
+            if (workerCountOf(this.ctl.get()) == 0)
+                this.addWorker(null, false);
+            this.signalIdleWorker();
+            return;
         }
+        // the lane is full: a new worker starts with the task, as for a full work queue
+        if (this.addWorker(task, false))
+            return;
+        this.rejectLaneTask(task, commandRejectionHandler);
+    }
+
+    public LaneMetrics getLaneMetrics(final Priority priority) {
+        if (priority == null)
+            throw new RuntimeException("priority cannot be null");
+        return this.lanes[priority.ordinal()].metrics;
+    }
+
+    private void rejectLaneTask(final LaneTask task, final CommandRejectionHandler commandRejectionHandler) {
+        task.lane.metrics.rejected.increment();
+        reject(task.command, commandRejectionHandler);
+    }
+
+    public void execute(Runnable command, CommandRejectionHandler commandRejectionHandler) {
+        if (command == null)
+            throw new RuntimeException("command cannot be null");
+        if (this.executionMode == ExecutionMode.VIRTUAL) {
+            this.executeVirtual(command, commandRejectionHandler);
+            return;
+        }
+        final int c = this.ctl.get();
+        if (workerCountOf(c) < this.corePoolSize && this.addWorker(command, true))
+            return;
+        // after shutdown the queues are closed, so this check only saves the attempt
+        if (c < SHUTDOWN && this.enqueue(command))
+            return;
+        if (this.addWorker(command, false))
+            return;
+        reject(command, commandRejectionHandler);
     }
 
     private void reject(Runnable command, CommandRejectionHandler commandRejectionHandler) {
         if (commandRejectionHandler != null) {
             commandRejectionHandler.handle(command);
         } else if (this.commandRejectionHandler != null) {
-            commandRejectionHandler.handle(command);
+            this.commandRejectionHandler.handle(command);
         } else {
             // log
             System.out.println("Command Rejected: " + command.toString());
         }
     }
 
-    private class Worker extends Thread {
+    private void executeVirtual(final Runnable command, final CommandRejectionHandler commandRejectionHandler) {
+        if (this.ctl.get() >= SHUTDOWN) {
+            reject(command, commandRejectionHandler);
+            return;
+        }
+        if (this.tryAcquirePermit(false)) {
+            this.startVirtual(command);
+            return;
+        }
+        if (!this.pending.offer(command)) {
+            reject(command, commandRejectionHandler);
+            return;
+        }
+        // shutdown may have found the queue empty and terminated before this offer
+        if (this.ctl.get() >= SHUTDOWN && this.pending.remove(command)) {
+            reject(command, commandRejectionHandler);
+            return;
+        }
+        // a task that finished after the failed acquire may have missed this one
+        this.dispatchPending();
+    }
+
+    /**
+     * Takes one of {@code maximumPoolSize} permits. After {@link #shutdown} only {@code draining}
+     * callers, which start tasks queued before it, get one; after {@link #shutdownNow} none do.
+     * Refusing submitters at {@code SHUTDOWN} keeps a permit from being taken once
+     * {@link #tryTerminate} has seen none outstanding.
+     */
+    private boolean tryAcquirePermit(final boolean draining) {
+        while (true) {
+            final int c = this.ctl.get();
+            if (c >= (draining ? STOP : SHUTDOWN) || workerCountOf(c) >= this.maximumPoolSize)
+                return false;
+            if (this.ctl.compareAndSet(c, c + 1))
+                return true;
+        }
+    }
+
+    /**
+     * Starts waiting tasks while permits are free. Every offer and every released permit is
+     * followed by this, so a waiting task is never left behind a free permit.
+     */
+    private void dispatchPending() {
+        while (this.hasQueuedTasks() && this.tryAcquirePermit(true)) {
+            final Runnable next = this.pollWaiting();
+            if (next == null) {
+                this.ctl.decrementAndGet();
+                return;
+            }
+            this.startVirtual(next);
+        }
+    }
+
+    /**
+     * Runs {@code task} on a fresh thread, holding a permit already taken.
+     */
+    private void startVirtual(final Runnable task) {
+        final Thread thread = this.threadFactory.newThread(() -> this.runVirtual(task));
+        if (thread == null) {
+            this.releasePermit();
+            reject(task, null);
+            return;
+        }
+        thread.start();
+    }
+
+    private void runVirtual(final Runnable task) {
+        final Thread self = Thread.currentThread();
+        this.running.add(self);
+        try {
+            // shutdownNow may have missed this thread before it was added
+            if (this.ctl.get() >= STOP)
+                self.interrupt();
+            this.runTask(task);
+        } finally {
+            this.running.remove(self);
+        }
+        // hand the permit to the next waiting task
+        final Runnable next = this.ctl.get() < STOP ? this.pollWaiting() : null;
+        if (next != null)
+            this.startVirtual(next);
+        else
+            this.releasePermit();
+    }
+
+    /**
+     * In {@link ExecutionMode#VIRTUAL} mode: the next lane task, else the oldest plain one.
+     */
+    private Runnable pollWaiting() {
+        final Runnable scheduled = this.pollLanes();
+        return scheduled != null ? scheduled : this.pending.poll();
+    }
+
+    /**
+     * Takes the lane task due first, shedding the ones whose deadline has passed on the way.
+     * Lanes are compared by the due time of their head without locking; if a lane's head is taken
+     * meanwhile, its next task is taken instead, which is at worst a little less urgent.
+     */
+    private Runnable pollLanes() {
+        while (true) {
+            Lane earliest = null;
+            for (final Lane lane : this.lanes)
+                if (lane.size != 0 && (earliest == null || lane.headDue - earliest.headDue < 0))
+                    earliest = lane;
+            if (earliest == null)
+                return null;
+            final LaneTask task = earliest.poll();
+            if (task == null)
+                continue;
+            if (task.deadline != NO_DEADLINE && task.deadline - System.nanoTime() < 0) {
+                task.shed();
+                continue;
+            }
+            return task;
+        }
+    }
+
+    private boolean hasLaneTasks() {
+        for (final Lane lane : this.lanes)
+            if (lane.size != 0)
+                return true;
+        return false;
+    }
+
+    private void releasePermit() {
+        this.ctl.decrementAndGet();
+        this.dispatchPending();
+        if (this.ctl.get() >= SHUTDOWN) {
+            this.mainLock.lock();
+            try {
+                this.tryTerminate();
+            } finally {
+                this.mainLock.unlock();
+            }
+        }
+    }
+
+    private void runTask(final Runnable task) {
+        // an interrupt left over from shutdownNow racing with the last task is not for this one
+        if (this.ctl.get() < STOP)
+            Thread.interrupted();
+        final boolean timed = this.taskTiming;
+        final long start = timed ? System.nanoTime() : 0;
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            System.out.println("Thread pool is interrupted due to an issue: " + e.getMessage());
+        } finally {
+            if (timed) {
+                this.busyNanos.add(System.nanoTime() - start);
+                this.completedTasks.increment();
+            }
+        }
+    }
+
+    /**
+     * Makes {@link #completedTaskCount} and {@link #busyNanos} count from now on; off by default, to
+     * keep two clock reads per task off the path of pools nobody measures.
+     */
+    void enableTaskTiming() {
+        this.taskTiming = true;
+    }
+
+    long completedTaskCount() {
+        return this.completedTasks.sum();
+    }
+
+    /**
+     * @return total time spent running tasks
+     */
+    long busyNanos() {
+        return this.busyNanos.sum();
+    }
+
+    /**
+     * @return tasks queued and not started, a moment's estimate while submissions race
+     */
+    int queuedTaskCount() {
+        int queued = 0;
+        for (final Lane lane : this.lanes)
+            queued += lane.size;
+        if (this.executionMode == ExecutionMode.VIRTUAL)
+            return queued + this.pending.size();
+        for (final Worker worker : this.workers)
+            queued += worker.queue.size();
+        return queued;
+    }
+
+    /**
+     * Pushes onto the caller's own queue if it is a worker of this pool, else onto the next queue
+     * in the caller's round-robin order; if that one is full, onto the first queue after it that is
+     * not.
+     */
+    private boolean enqueue(final Runnable command) {
+        final Worker self = this.currentWorker.get();
+        if (self != null && self.queue.push(command)) {
+            this.signalIdleWorker();
+            return true;
+        }
+        final Worker[] workers = this.workers;
+        if (workers.length == 0)
+            return false;
+        final int start = Math.floorMod(NEXT_QUEUE.get()[0]++, workers.length);
+        for (int i = 0; i < workers.length; ++i) {
+            if (workers[(start + i) % workers.length].queue.push(command)) {
+                this.signalIdleWorker();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Under {@link #mainLock}: the share of {@code workQueueSize} of each of {@code workerCount}
+     * queues, or of {@code maximumPoolSize} queues if there is room for more.
+     */
+    private int queueShare(final int workerCount) {
+        return Math.max(1, this.workQueueSize / Math.max(this.maximumPoolSize, workerCount));
+    }
+
+    /**
+     * Under {@link #mainLock}: gives every queue its share again after the maximum or the number of
+     * workers changed.
+     */
+    private void splitQueueCapacity() {
+        final int share = this.queueShare(this.workers.length);
+        for (final Worker worker : this.workers)
+            worker.queue.capacity = share;
+    }
+
+    private boolean addWorker(final Runnable firstTask, final boolean core) {
+        if (this.executionMode == ExecutionMode.VIRTUAL)
+            return false;
+        this.mainLock.lock();
+        try {
+            final int c = this.ctl.get();
+            // after shutdown, only a worker to run out the lanes
+            if (c >= STOP || (c >= SHUTDOWN && (firstTask != null || !this.hasLaneTasks())))
+                return false;
+            if (workerCountOf(c) >= (core ? this.corePoolSize : this.maximumPoolSize))
+                return false;
+            final Worker[] workers = this.workers;
+            final Worker worker = new Worker(firstTask, this.queueShare(workers.length + 1));
+            if (c >= SHUTDOWN)
+                worker.queue.close();
+            final Thread thread = this.threadFactory.newThread(worker);
+            if (thread == null)
+                return false;
+            worker.thread = thread;
+            final Worker[] grown = Arrays.copyOf(workers, workers.length + 1);
+            grown[workers.length] = worker;
+            this.workers = grown;
+            this.splitQueueCapacity();
+            this.ctl.incrementAndGet();
+            thread.start();
+            return true;
+        } finally {
+            this.mainLock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting tasks; the ones already queued still run.
+     */
+    @Override
+    public void shutdown() {
+        this.mainLock.lock();
+        try {
+            this.advanceRunState(SHUTDOWN);
+            this.closeQueues();
+            this.signalAllIdleWorkers();
+            this.tryTerminate();
+        } finally {
+            this.mainLock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting tasks, interrupts the workers and removes the queued tasks.
+     *
+     * @return the tasks that were queued and never started
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        final List<Runnable> tasks = new ArrayList<>();
+        this.mainLock.lock();
+        try {
+            this.advanceRunState(STOP);
+            if (this.executionMode == ExecutionMode.VIRTUAL) {
+                this.pending.drainTo(tasks);
+                for (final Thread thread : this.running)
+                    thread.interrupt();
+            }
+            this.closeQueues();
+            for (final Lane lane : this.lanes)
+                lane.drainTo(tasks);
+            for (final Worker worker : this.workers) {
+                worker.thread.interrupt();
+                final WorkQueue queue = worker.queue;
+                while (!queue.isEmpty()) {
+                    final Runnable task = queue.steal();
+                    if (task != null)
+                        tasks.add(task);
+                }
+            }
+            this.tryTerminate();
+        } finally {
+            this.mainLock.unlock();
+        }
+        return tasks;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return this.ctl.get() >= SHUTDOWN;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return runStateOf(this.ctl.get()) == TERMINATED;
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        this.mainLock.lock();
+        try {
+            while (!this.isTerminated()) {
+                if (nanos <= 0)
+                    return false;
+                nanos = this.termination.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            this.mainLock.unlock();
+        }
+    }
+
+    private void advanceRunState(final int target) {
+        while (true) {
+            final int c = this.ctl.get();
+            if (runStateOf(c) >= target || this.ctl.compareAndSet(c, target | workerCountOf(c)))
+                return;
+        }
+    }
+
+    /**
+     * Under {@link #mainLock}: each push now either completed before the close, and its task is
+     * visible to the workers, or fails.
+     */
+    private void closeQueues() {
+        for (final Worker worker : this.workers)
+            worker.queue.close();
+        for (final Lane lane : this.lanes)
+            lane.close();
+    }
+
+    /**
+     * Under {@link #mainLock}: terminates once the pool is shut down, no queued task is left to
+     * run, and the last worker has exited; until then wakes idle workers so they exit.
+     */
+    private void tryTerminate() {
+        while (true) {
+            final int c = this.ctl.get();
+            if (c < SHUTDOWN || runStateOf(c) == TERMINATED)
+                return;
+            if (runStateOf(c) == SHUTDOWN && this.hasQueuedTasks())
+                return;
+            if (this.executionMode == ExecutionMode.VIRTUAL && workerCountOf(c) != 0)
+                return;
+            if (this.workers.length != 0) {
+                this.signalAllIdleWorkers();
+                return;
+            }
+            // permits change outside mainLock: terminate only from the state just checked
+            if (this.ctl.compareAndSet(c, TERMINATED)) {
+                this.termination.signalAll();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Drops an exiting worker; one that retired was uncounted already.
+     */
+    private void processWorkerExit(final Worker worker, final boolean retired) {
+        this.mainLock.lock();
+        try {
+            final Worker[] workers = this.workers;
+            int index = 0;
+            while (workers[index] != worker)
+                ++index;
+            final Worker[] shrunk = new Worker[workers.length - 1];
+            System.arraycopy(workers, 0, shrunk, 0, index);
+            System.arraycopy(workers, index + 1, shrunk, index, shrunk.length - index);
+            this.workers = shrunk;
+            this.splitQueueCapacity();
+            if (!retired)
+                this.ctl.decrementAndGet();
+            // lane tasks belong to no worker: one may have arrived as the last worker retired
+            if (this.ctl.get() < STOP && workerCountOf(this.ctl.get()) == 0 && this.hasLaneTasks())
+                this.addWorker(null, false);
+            this.tryTerminate();
+        } finally {
+            this.mainLock.unlock();
+        }
+    }
+
+    public int getCorePoolSize() {
+        return this.corePoolSize;
+    }
+
+    public int getMaximumPoolSize() {
+        return this.maximumPoolSize;
+    }
+
+    public int getPoolSize() {
+        return workerCountOf(this.ctl.get());
+    }
+
+    /**
+     * Starts one core worker ahead of the first submission.
+     *
+     * @return {@code false} if all core workers are already running
+     */
+    public boolean prestartCoreThread() {
+        return this.addWorker(null, true);
+    }
+
+    /**
+     * Starts all core workers ahead of the first submissions.
+     *
+     * @return the number of workers started
+     */
+    public int prestartCoreThreads() {
+        int started = 0;
+        while (this.addWorker(null, true))
+            ++started;
+        return started;
+    }
+
+    /**
+     * Growing starts core workers while tasks are queued; the rest start on later submissions.
+     * Shrinking wakes idle workers, and the ones above the new size retire once idle for the TTL.
+     */
+    public void setCorePoolSize(final int corePoolSize) {
+        this.mainLock.lock();
+        try {
+            if (corePoolSize < 0 || corePoolSize > this.maximumPoolSize)
+                throw new IllegalArgumentException("corePoolSize must satisfy 0 <= core <= maximum");
+            final int previous = this.corePoolSize;
+            this.corePoolSize = corePoolSize;
+            if (corePoolSize < previous)
+                this.signalAllIdleWorkers();
+        } finally {
+            this.mainLock.unlock();
+        }
+        while (this.hasQueuedTasks())
+            if (!this.addWorker(null, true))
+                break;
+    }
+
+    /**
+     * Shrinking retires the workers above the new size as soon as they finish their current task,
+     * after each runs what is left in its queue.
+     */
+    public void setMaximumPoolSize(final int maximumPoolSize) {
+        this.mainLock.lock();
+        try {
+            if (maximumPoolSize <= 0 || maximumPoolSize < this.corePoolSize)
+                throw new IllegalArgumentException("maximumPoolSize must satisfy 0 < maximum, core <= maximum");
+            final int previous = this.maximumPoolSize;
+            this.maximumPoolSize = maximumPoolSize;
+            this.splitQueueCapacity();
+            if (maximumPoolSize < previous)
+                this.signalAllIdleWorkers();
+        } finally {
+            this.mainLock.unlock();
+        }
+        if (this.executionMode == ExecutionMode.VIRTUAL)
+            this.dispatchPending();
+    }
+
+    private boolean hasQueuedTasks() {
+        if (this.hasLaneTasks())
+            return true;
+        if (this.executionMode == ExecutionMode.VIRTUAL)
+            return !this.pending.isEmpty();
+        for (final Worker worker : this.workers)
+            if (!worker.queue.isEmpty())
+                return true;
+        return false;
+    }
+
+    /**
+     * Uncounts {@code worker} if the pool is above its core size, after a timeout, or above its
+     * maximum size, closing its queue so that no submission lands in it afterwards. The worker
+     * stays in {@link #workers} until it has run out its queue and exits.
+     */
+    private boolean tryRetire(final Worker worker, final boolean timedOut) {
+        this.mainLock.lock();
+        try {
+            final int c = this.ctl.get();
+            if (workerCountOf(c) <= (timedOut ? this.corePoolSize : this.maximumPoolSize))
+                return false;
+            worker.queue.close();
+            this.ctl.decrementAndGet();
+            return true;
+        } finally {
+            this.mainLock.unlock();
+        }
+    }
+
+    /**
+     * Wakes one parked worker. Entries of workers that found work after registering as idle are
+     * skipped: their state is no longer {@code IDLE}.
+     */
+    private void signalIdleWorker() {
+        IdleNode node;
+        while ((node = this.idleWorkers) != null) {
+            if (!IDLE_WORKERS.compareAndSet(this, node, node.next))
+                continue;
+            final Worker worker = node.worker;
+            if (worker.casState(Worker.IDLE, Worker.SIGNALLED)) {
+                LockSupport.unpark(worker.thread);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Wakes every parked worker, so that each one checks whether it is still needed.
+     */
+    private void signalAllIdleWorkers() {
+        IdleNode node = (IdleNode) IDLE_WORKERS.getAndSet(this, null);
+        for (; node != null; node = node.next)
+            if (node.worker.casState(Worker.IDLE, Worker.SIGNALLED))
+                LockSupport.unpark(node.worker.thread);
+    }
+
+    private void pushIdle(final Worker worker) {
+        final IdleNode node = new IdleNode(worker);
+        do {
+            node.next = this.idleWorkers;
+        } while (!IDLE_WORKERS.compareAndSet(this, node.next, node));
+    }
+
+    private static final class IdleNode {
+        private final Worker worker;
+        private IdleNode next;
+
+        private IdleNode(final Worker worker) {
+            this.worker = worker;
+        }
+    }
+
+    /**
+     * Heap of the tasks of one {@link Priority}, ordered by due time and then by submission.
+     * {@link #size} and {@link #headDue} are published for {@link #pollLanes} to compare lanes
+     * without locking them.
+     */
+    private static final class Lane {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final PriorityQueue<LaneTask> heap = new PriorityQueue<>(
+                (a, b) -> a.due != b.due ? Long.signum(a.due - b.due) : Long.compare(a.sequence, b.sequence));
+        private final Priority priority;
+        private final int capacity;
+        private final LaneMetrics metrics = new LaneMetrics();
+        private long sequence;
+        /** set under the lock when the pool shuts down; offers fail from then on */
+        private boolean closed;
+        private volatile int size;
+        private volatile long headDue;
+
+        private Lane(final Priority priority, final int capacity) {
+            this.priority = priority;
+            this.capacity = capacity;
+        }
+
+        private boolean offer(final LaneTask task) {
+            this.lock.lock();
+            try {
+                if (this.closed || this.heap.size() >= this.capacity)
+                    return false;
+                task.sequence = this.sequence++;
+                this.heap.offer(task);
+                this.publish();
+                return true;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        private LaneTask poll() {
+            this.lock.lock();
+            try {
+                final LaneTask task = this.heap.poll();
+                this.publish();
+                return task;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        private void drainTo(final List<Runnable> tasks) {
+            this.lock.lock();
+            try {
+                for (LaneTask task; (task = this.heap.poll()) != null; )
+                    tasks.add(task.command);
+                this.publish();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        private void close() {
+            this.lock.lock();
+            try {
+                this.closed = true;
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        /**
+         * Under the lock; the head's due time is written before the size that makes it visible.
+         */
+        private void publish() {
+            final LaneTask head = this.heap.peek();
+            if (head != null)
+                this.headDue = head.due;
+            this.size = this.heap.size();
+        }
+    }
+
+    /**
+     * A lane task, due at its deadline or at its submission plus the lane's aging, whichever comes
+     * first. Running it records the lane's latencies.
+     */
+    private static final class LaneTask implements Runnable {
+        private final Runnable command;
+        private final Lane lane;
+        private final long deadline;
+        private final long submitted;
+        private final long due;
+        private long sequence;
+
+        private LaneTask(final Runnable command, final Lane lane, final long deadline) {
+            this.command = command;
+            this.lane = lane;
+            this.deadline = deadline;
+            this.submitted = System.nanoTime();
+            final long aged = this.submitted + lane.priority.agingNanos;
+            this.due = deadline != NO_DEADLINE && deadline - aged < 0 ? deadline : aged;
+        }
+
+        @Override
+        public void run() {
+            final LaneMetrics metrics = this.lane.metrics;
+            metrics.queueLatency.record(System.nanoTime() - this.submitted);
+            try {
+                this.command.run();
+            } finally {
+                metrics.latency.record(System.nanoTime() - this.submitted);
+                metrics.completed.increment();
+            }
+        }
+
+        private void shed() {
+            this.lane.metrics.shed.increment();
+            if (this.command instanceof Future)
+                ((Future<?>) this.command).cancel(false);
+        }
+
+        @Override
+        public String toString() {
+            return this.command.toString();
+        }
+    }
+
+    /**
+     * Bounded ring of tasks, owned by one worker. Pushes from any thread and pops by the owner
+     * both work at the top under a spin lock; steals take the bottom slot with a CAS on it, without
+     * the lock. When the owner and a thief race for the last task, the CAS on its slot decides.
+     * <p>
+     * The ring starts small and doubles under the lock when a push finds it full, up to the
+     * capacity. Each task is moved to the new ring by nulling its old slot, so a thief still on the
+     * old ring either took the task first or fails its CAS.
+     */
+    private static final class WorkQueue {
+        private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(Runnable[].class);
+        private static final VarHandle BASE;
+        private static final VarHandle TOP;
+        private static final VarHandle LOCK;
+
+        static {
+            try {
+                final MethodHandles.Lookup lookup = MethodHandles.lookup();
+                BASE = lookup.findVarHandle(WorkQueue.class, "base", int.class);
+                TOP = lookup.findVarHandle(WorkQueue.class, "top", int.class);
+                LOCK = lookup.findVarHandle(WorkQueue.class, "lock", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private static final int INITIAL_SLOTS = 16;
+
+        private volatile Runnable[] slots = new Runnable[INITIAL_SLOTS];
+        /** tasks a push may leave queued; set under the pool's main lock when the pool is resized */
+        private volatile int capacity;
+        /** next slot to steal; written only by the thief that took the slot below */
+        private volatile int base;
+        /** next slot to push; written only under the lock */
+        private volatile int top;
+        private volatile int lock;
+        /** set under the lock when the owner retires or the pool shuts down; pushes fail from then on */
+        private boolean closed;
+
+        private WorkQueue(final int capacity) {
+            this.capacity = capacity;
+        }
+
+        private boolean push(final Runnable task) {
+            this.lock();
+            try {
+                final int top = this.top;
+                final int base = this.base;
+                if (this.closed || top - base >= this.capacity)
+                    return false;
+                Runnable[] slots = this.slots;
+                if (top - base >= slots.length)
+                    slots = this.grow(slots, base, top);
+                SLOTS.setRelease(slots, top & (slots.length - 1), task);
+                // a volatile write, so that a worker parking after this push sees it or is signalled
+                TOP.setVolatile(this, top + 1);
+                return true;
+            } finally {
+                this.unlock();
+            }
+        }
+
+        /**
+         * Owner only: the newest task, or {@code null}.
+         */
+        private Runnable pop() {
+            if (this.top == this.base)
+                return null;
+            this.lock();
+            try {
+                final int top = this.top - 1;
+                if (top < this.base)
+                    return null;
+                final Runnable[] slots = this.slots;
+                final int index = top & (slots.length - 1);
+                final Runnable task = (Runnable) SLOTS.getAcquire(slots, index);
+                if (task == null || !SLOTS.compareAndSet(slots, index, task, null))
+                    return null;
+                TOP.setVolatile(this, top);
+                return task;
+            } finally {
+                this.unlock();
+            }
+        }
+
+        /**
+         * Any thread: the oldest task, or {@code null} if the queue is empty or a race was lost.
+         */
+        private Runnable steal() {
+            while (true) {
+                final Runnable[] slots = this.slots;
+                final int base = this.base;
+                if (base - this.top >= 0)
+                    return null;
+                final int index = base & (slots.length - 1);
+                final Runnable task = (Runnable) SLOTS.getAcquire(slots, index);
+                if (task != null && base == this.base && SLOTS.compareAndSet(slots, index, task, null)) {
+                    BASE.setVolatile(this, base + 1);
+                    return task;
+                }
+                if (base == this.base)
+                    return null;
+            }
+        }
+
+        /**
+         * Under the lock: doubles the ring. A slot a thief empties meanwhile stays empty in the new
+         * ring until the thief moves {@code base} past it.
+         */
+        private Runnable[] grow(final Runnable[] slots, final int base, final int top) {
+            final Runnable[] grown = new Runnable[slots.length << 1];
+            for (int i = base; i != top; ++i) {
+                final Object task = SLOTS.getAndSet(slots, i & (slots.length - 1), null);
+                if (task != null)
+                    SLOTS.setRelease(grown, i & (grown.length - 1), task);
+            }
+            this.slots = grown;
+            return grown;
+        }
+
+        private void close() {
+            this.lock();
+            try {
+                this.closed = true;
+            } finally {
+                this.unlock();
+            }
+        }
+
+        private boolean isEmpty() {
+            return this.base - this.top >= 0;
+        }
+
+        private int size() {
+            return Math.max(0, this.top - this.base);
+        }
+
+        private void lock() {
+            while (!LOCK.compareAndSet(this, 0, 1))
+                Thread.onSpinWait();
+        }
+
+        private void unlock() {
+            LOCK.setRelease(this, 0);
+        }
+    }
+
+    private class Worker implements Runnable {
+        private static final int ACTIVE = 0;
+        private static final int IDLE = 1;
+        private static final int SIGNALLED = 2;
 
+        private final WorkQueue queue;
         private Runnable task;
+        private Thread thread;
+        /** set by {@link #awaitWork} when it returns because this worker retired */
+        private boolean retired;
+        /** lane tasks taken in a row */
+        private int laneStreak;
+        private volatile int state = ACTIVE;
 
-        private Worker(final Runnable task) {
+        private Worker(final Runnable task, final int queueCapacity) {
             this.task = task;
+            this.queue = new WorkQueue(queueCapacity);
+        }
+
+        private boolean casState(final int expected, final int state) {
+            return STATE.compareAndSet(this, expected, state);
+        }
+
+        private Runnable retire() {
+            this.retired = true;
+            return null;
         }
 
         @Override
         public void run() {
-            while (true) {
-                if (task == null) {
-                    synchronized (workQueue) {
-                        while (workQueue.isEmpty()) {
-                            try {
-                                workQueue.wait();
-                            } catch (InterruptedException e) {
-                                System.out.println("An error occurred while queue is waiting: " + e.getMessage());
-                            }
-                        }
-                        task = workQueue.poll();
+            currentWorker.set(this);
+            boolean retired = false;
+            try {
+                while (true) {
+                    if (task == null && ctl.get() >= STOP)
+                        return;
+                    if (task == null)
+                        task = this.findWork();
+                    if (task == null)
+                        task = this.awaitWork();
+                    if (task == null) {
+                        retired = this.retired;
+                        break;
+                    }
+
+                    runTask(task);
+                    task = null;
+                    if (workerCountOf(ctl.get()) > maximumPoolSize && tryRetire(this, false)) {
+                        retired = true;
+                        break;
                     }
                 }
+                // the queue is closed: whatever is in it now is all it will ever hold
+                Runnable queued;
+                while (ctl.get() < STOP && (queued = this.queue.pop()) != null)
+                    runTask(queued);
+            } finally {
+                processWorkerExit(this, retired);
+            }
+        }
 
-                try {
-                    task.run();
-                } catch (RuntimeException e) {
-                    System.out.println("Thread pool is interrupted due to an issue: " + e.getMessage());
+        private Runnable findWork() {
+            if (this.laneStreak < LANE_STREAK) {
+                final Runnable scheduled = pollLanes();
+                if (scheduled != null) {
+                    ++this.laneStreak;
+                    return scheduled;
                 }
-                task = null;
+            }
+            this.laneStreak = 0;
+            final Runnable own = this.queue.pop();
+            if (own != null)
+                return own;
+            final Worker[] workers = ThreadPool.this.workers;
+            if (workers.length == 0)
+                return null;
+            final int start = ThreadLocalRandom.current().nextInt(workers.length);
+            for (int i = 0; i < workers.length; ++i) {
+                final Worker victim = workers[(start + i) % workers.length];
+                if (victim != this) {
+                    final Runnable stolen = victim.queue.steal();
+                    if (stolen != null)
+                        return stolen;
+                }
+            }
+            // skipped above after a streak
+            return pollLanes();
+        }
+
+        /**
+         * Registers as idle before the last look for work: a submitter pushes its task before it
+         * looks for an idle worker, so either this look finds the task or the submitter finds this
+         * worker.
+         *
+         * @return {@code null} if this worker retired or the pool is shutting down
+         */
+        private Runnable awaitWork() {
+            final long ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlInMilliseconds);
+            while (true) {
+                this.state = IDLE;
+                pushIdle(this);
+                final Runnable found = this.findWork();
+                if (found != null) {
+                    // a signal that arrived meanwhile is consumed by running this task
+                    this.state = ACTIVE;
+                    return found;
+                }
+                // shutdown closes the queues before waking idle workers, so nothing more will come
+                if (ctl.get() >= SHUTDOWN) {
+                    this.state = ACTIVE;
+                    return null;
+                }
+                // like ThreadPoolExecutor's take(), a worker the pool would keep anyway waits untimed:
+                // each timeout would only push it on the idle stack again, next to its old entry
+                final boolean timed = ttlNanos > 0 && workerCountOf(ctl.get()) > corePoolSize;
+                final long deadline = System.nanoTime() + ttlNanos;
+                while (this.state == IDLE) {
+                    if (!timed) {
+                        LockSupport.park(ThreadPool.this);
+                    } else {
+                        final long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0)
+                            break;
+                        LockSupport.parkNanos(ThreadPool.this, remaining);
+                    }
+                    // only shutdownNow interrupts, and it also signals
+                    Thread.interrupted();
+                }
+                // winning this CAS means no submitter counts on this worker any more
+                if (this.casState(IDLE, ACTIVE) && tryRetire(this, true))
+                    return this.retire();
+                this.state = ACTIVE;
+                if (workerCountOf(ctl.get()) > maximumPoolSize && tryRetire(this, false))
+                    return this.retire();
+                final Runnable next = this.findWork();
+                if (next != null)
+                    return next;
             }
         }
     }
 
+    private static final VarHandle STATE;
+
+    static {
+        try {
+            STATE = MethodHandles.lookup().findVarHandle(Worker.class, "state", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static void spin(final long nanos) {
+        final long end = System.nanoTime() + nanos;
+        while (System.nanoTime() - end < 0)
+            Thread.onSpinWait();
+    }
+
     public static void main(String[] args) throws InterruptedException {
         ThreadPool pool = new ThreadPool(0, 5, -1, null, 1, null);
         pool.execute(new Runnable() {
@@ -150,6 +1314,90 @@ public class ThreadPool {
         pool.submit(() -> { System.out.println("Task5"); return null; }, null);
         pool.submit(() -> { System.out.println("Task6"); return null; }, null);
         pool.submit(() -> { System.out.println("Task7"); return null; }, null);
+        // queued tasks still run after shutdown; later ones are rejected
+        pool.shutdown();
+        pool.execute(() -> System.out.println("Task8"), command -> System.out.println("Rejected after shutdown"));
+        System.out.println("terminated: " + pool.awaitTermination(1, TimeUnit.SECONDS));
+
+        // a burst grows the pool to its maximum; idle workers above the core retire after the TTL
+        final ThreadPool elastic = new ThreadPool(2, 8, 100, null, 8, null);
+        System.out.println("prestarted: " + elastic.prestartCoreThreads() + ", pool size: " + elastic.getPoolSize());
+        final CountDownLatch burst = new CountDownLatch(64);
+        for (int i = 0; i < 64; ++i)
+            elastic.execute(() -> {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                burst.countDown();
+            }, Runnable::run);
+        System.out.println("after burst, pool size: " + elastic.getPoolSize());
+        burst.await();
+        Thread.sleep(300);
+        System.out.println("after TTL, pool size: " + elastic.getPoolSize());
+        elastic.setCorePoolSize(0);
+        Thread.sleep(300);
+        System.out.println("after shrinking core to 0, pool size: " + elastic.getPoolSize());
+        elastic.shutdown();
+
+        // the same blocking load on platform workers and on virtual threads
+        for (final ExecutionMode mode : ExecutionMode.values()) {
+            final int permits = mode == ExecutionMode.VIRTUAL ? 1_000 : 64;
+            final long blockingStart = System.nanoTime();
+            try (ThreadPool blocking = new ThreadPool(0, permits, 1_000, null, 10_000, null, mode)) {
+                for (int i = 0; i < 10_000; ++i)
+                    blocking.execute(() -> {
+                        try {
+                            Thread.sleep(10);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    });
+            }
+            System.out.println("10000 blocking tasks, " + mode + " with " + permits + " permits: "
+                    + (System.nanoTime() - blockingStart) / 1_000_000 + " ms");
+        }
+
+        // bulk jobs keep two workers busy while latency-critical requests arrive; on their own lane
+        // the requests overtake the backlog, on the same lane they wait behind it
+        for (final boolean lanes : new boolean[]{true, false}) {
+            final ThreadPool scheduled = new ThreadPool(2, 2, -1, null, 100_000, null);
+            for (int i = 0; i < 2_000; ++i)
+                scheduled.execute(() -> spin(1_000_000), lanes ? Priority.BULK : Priority.NORMAL, NO_DEADLINE, null);
+            final List<Future<Object>> deadlined = new ArrayList<>();
+            for (int i = 0; i < 100; ++i) {
+                scheduled.execute(() -> spin(50_000), lanes ? Priority.CRITICAL : Priority.NORMAL, NO_DEADLINE, null);
+                deadlined.add(scheduled.submit(() -> null, Priority.NORMAL, System.nanoTime() + 5_000_000));
+                Thread.sleep(2);
+            }
+            scheduled.shutdown();
+            scheduled.awaitTermination(1, TimeUnit.MINUTES);
+            System.out.println(lanes ? "critical and bulk lanes:" : "one lane:");
+            for (final Priority priority : Priority.values())
+                if (scheduled.getLaneMetrics(priority).submitted() != 0)
+                    System.out.println("  " + priority + " " + scheduled.getLaneMetrics(priority));
+        }
+
+        // short tasks from several submitters; a full pool makes a submitter run the task itself
+        final int workers = Runtime.getRuntime().availableProcessors();
+        final int submitters = 4;
+        final int perSubmitter = 1_000_000;
+        final LongAdder done = new LongAdder();
+        final long start = System.nanoTime();
+        // closing waits for every queued task
+        try (ThreadPool shortTasks = new ThreadPool(workers, workers, -1, null, 1024 * workers, Runnable::run)) {
+            final List<Callable<Object>> submitting = new ArrayList<>();
+            for (int s = 0; s < submitters; ++s)
+                submitting.add(Executors.callable(() -> {
+                    for (int i = 0; i < perSubmitter; ++i)
+                        shortTasks.execute(done::increment);
+                }));
+            final ExecutorService submitterThreads = Executors.newFixedThreadPool(submitters);
+            submitterThreads.invokeAll(submitting);
+            submitterThreads.shutdown();
+        }
+        System.out.println(done.sum() + " short tasks on " + workers + " workers in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
     }
 }
-
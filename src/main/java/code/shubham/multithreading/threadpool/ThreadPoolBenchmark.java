@@ -0,0 +1,163 @@
+package code.shubham.multithreading.threadpool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link ThreadPool} against the JDK's {@link ThreadPoolExecutor} and {@link ForkJoinPool}, each
+ * with {@code workers} threads, and {@link ThreadPool} in {@link ExecutionMode#VIRTUAL} mode with
+ * {@code virtualPermits} tasks running at once. All are bounded the same way where they can be: a
+ * full {@link ThreadPool} or {@link ThreadPoolExecutor} makes the submitter run the task itself.
+ * <ul>
+ *     <li>{@link #shortTasks}: batches of {@code BATCH} tasks of {@code work} tokens each; the
+ *     score is tasks per microsecond, and is dominated by the cost of handing a task over.</li>
+ *     <li>{@link #blockingTasks}: batches of tasks that each block for {@code BLOCK_NANOS}, as a
+ *     task waiting on I/O would; the score shows how well idle workers are woken.</li>
+ *     <li>{@link #roundTrip}: one task submitted and waited for, sampled for its latency
+ *     distribution.</li>
+ * </ul>
+ * {@link #main} runs the suite with 4 submitting threads.
+ */
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ThreadPoolBenchmark {
+
+    private static final int BATCH = 1024;
+    private static final int BLOCKING_BATCH = 64;
+    private static final long BLOCK_NANOS = 50_000;
+
+    @Param({"ThreadPool", "ThreadPoolVirtual", "ThreadPoolExecutor", "ForkJoinPool"})
+    public String executor;
+
+    @Param({"4"})
+    public int workers;
+
+    @Param({"100"})
+    public int work;
+
+    @Param({"256"})
+    public int virtualPermits;
+
+    private ExecutorService executorService;
+
+    @State(Scope.Thread)
+    public static class Batch {
+        private final AtomicInteger pending = new AtomicInteger();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final ThreadFactory daemons = runnable -> {
+            final Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        };
+        final int capacity = BATCH * this.workers;
+        switch (this.executor) {
+            case "ThreadPool":
+                this.executorService = new ThreadPool(this.workers, this.workers, -1, daemons, capacity,
+                        Runnable::run);
+                break;
+            case "ThreadPoolVirtual":
+                this.executorService = new ThreadPool(0, this.virtualPermits, -1, null, capacity, Runnable::run,
+                        ExecutionMode.VIRTUAL);
+                break;
+            case "ThreadPoolExecutor":
+                this.executorService = new ThreadPoolExecutor(this.workers, this.workers, 0, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(capacity), daemons, new ThreadPoolExecutor.CallerRunsPolicy());
+                break;
+            case "ForkJoinPool":
+                this.executorService = new ForkJoinPool(this.workers);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown executor: " + this.executor);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        this.executorService.shutdownNow();
+        this.executorService.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @OperationsPerInvocation(BATCH)
+    public void shortTasks(final Batch batch) {
+        final AtomicInteger pending = batch.pending;
+        final int work = this.work;
+        pending.set(BATCH);
+        for (int i = 0; i < BATCH; ++i)
+            this.executorService.execute(() -> {
+                Blackhole.consumeCPU(work);
+                pending.decrementAndGet();
+            });
+        while (pending.get() != 0)
+            Thread.onSpinWait();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @OperationsPerInvocation(BLOCKING_BATCH)
+    public void blockingTasks(final Batch batch) {
+        final AtomicInteger pending = batch.pending;
+        pending.set(BLOCKING_BATCH);
+        for (int i = 0; i < BLOCKING_BATCH; ++i)
+            this.executorService.execute(() -> {
+                LockSupport.parkNanos(BLOCK_NANOS);
+                pending.decrementAndGet();
+            });
+        while (pending.get() != 0)
+            Thread.onSpinWait();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object roundTrip() throws ExecutionException, InterruptedException {
+        final int work = this.work;
+        return this.executorService.submit(() -> {
+            Blackhole.consumeCPU(work);
+            return Boolean.TRUE;
+        }).get();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ThreadPoolBenchmark.class.getSimpleName())
+                .param("workers", "1", "2", "4", "8", "16", "32", "64")
+                .threads(4)
+                .build()).run();
+    }
+
+}